@@ -0,0 +1,94 @@
+package com.marabytes.musicplayernew.adapter;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ConcatAdapter;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.marabytes.musicplayernew.R;
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lays out the home list against a fake 10k-song library and checks that only
+ * the rows on screen (plus RecyclerView's small prefetch margin) get bound.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HomeListBindingTest {
+    private static final int SONG_COUNT = 10_000;
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    // Far more than fit on one screen, far less than the library
+    private static final int MAX_BINDS_PER_SCREEN = 60;
+
+    @Test
+    public void bindCountStaysBoundedForLargeLibrary() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(
+                    InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                    R.style.Theme_MusicPlayerNew);
+
+            List<Song> songs = new ArrayList<>(SONG_COUNT);
+            for (int i = 0; i < SONG_COUNT; i++) {
+                songs.add(new Song("Song " + i, "Artist " + (i % 100), "/nonexistent/song" + i + ".mp3", 180_000));
+            }
+            CountingSongAdapter songAdapter = new CountingSongAdapter(songs);
+            AlbumAdapter albumAdapter = new AlbumAdapter(context, new ArrayList<Album>(), album -> { });
+            HomeHeaderAdapter headerAdapter = new HomeHeaderAdapter(albumAdapter, null, null);
+
+            RecyclerView recyclerView = new RecyclerView(context);
+            recyclerView.setLayoutManager(new LinearLayoutManager(context));
+            recyclerView.setAdapter(new ConcatAdapter(headerAdapter, songAdapter));
+            layout(recyclerView);
+
+            int firstScreenBinds = songAdapter.bindCount;
+            assertTrue("Bound " + firstScreenBinds + " rows for the first screen",
+                    firstScreenBinds > 0 && firstScreenBinds <= MAX_BINDS_PER_SCREEN);
+
+            // Scroll a few screens; binds should grow with distance, not with library size
+            int screens = 5;
+            for (int i = 0; i < screens; i++) {
+                recyclerView.scrollBy(0, SCREEN_HEIGHT);
+                layout(recyclerView);
+            }
+            int totalBinds = songAdapter.bindCount;
+            assertTrue("Bound " + totalBinds + " rows after scrolling " + screens + " screens",
+                    totalBinds <= MAX_BINDS_PER_SCREEN * (screens + 1));
+        });
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(SCREEN_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    private static class CountingSongAdapter extends SongAdapter {
+        int bindCount;
+
+        CountingSongAdapter(List<Song> songs) {
+            super(songs, song -> { }, (song, view) -> { });
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
+            bindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
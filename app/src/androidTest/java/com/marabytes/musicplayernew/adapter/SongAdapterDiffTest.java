@@ -0,0 +1,97 @@
+package com.marabytes.musicplayernew.adapter;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A rescan that finds a few new songs in a large library should only insert
+ * those rows instead of rebinding the whole list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SongAdapterDiffTest {
+    private static final int SONG_COUNT = 20_000;
+
+    @Test
+    public void rescanWithThreeNewSongsOnlyTouchesThreeRows() throws InterruptedException {
+        List<Song> songs = new ArrayList<>(SONG_COUNT);
+        for (int i = 0; i < SONG_COUNT; i++) {
+            songs.add(song(i));
+        }
+        List<Song> rescanned = new ArrayList<>(songs);
+        rescanned.add(0, song(SONG_COUNT));
+        rescanned.add(SONG_COUNT / 2, song(SONG_COUNT + 1));
+        rescanned.add(song(SONG_COUNT + 2));
+
+        CountDownLatch diffApplied = new CountDownLatch(1);
+        RecordingObserver observer = new RecordingObserver(diffApplied);
+        SongAdapter[] adapter = new SongAdapter[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            adapter[0] = new SongAdapter(songs, song -> { }, (song, view) -> { });
+            adapter[0].registerAdapterDataObserver(observer);
+            adapter[0].updateSongs(rescanned);
+        });
+
+        assertTrue("Diff was never applied", diffApplied.await(10, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertEquals(3, observer.inserted);
+        assertEquals(0, observer.removed);
+        assertEquals(0, observer.changed);
+        assertEquals(0, observer.fullRefreshes);
+        assertEquals(rescanned.size(), adapter[0].getItemCount());
+    }
+
+    private static Song song(int i) {
+        return new Song(i, "Song " + i, "Artist " + (i % 100), "/music/" + i + ".mp3", 180_000, i % 500);
+    }
+
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        private final CountDownLatch firstUpdate;
+        int inserted;
+        int removed;
+        int changed;
+        int fullRefreshes;
+
+        RecordingObserver(CountDownLatch firstUpdate) {
+            this.firstUpdate = firstUpdate;
+        }
+
+        @Override
+        public void onChanged() {
+            fullRefreshes++;
+            firstUpdate.countDown();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            inserted += itemCount;
+            firstUpdate.countDown();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removed += itemCount;
+            firstUpdate.countDown();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            changed += itemCount;
+            firstUpdate.countDown();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.marabytes.musicplayernew.tags;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Reads the embedded cover of a batch of MP3s the way the song list does,
+ * once with TagReader and once with MediaMetadataRetriever, and checks that
+ * both find the same picture. TagReader's speed is measured by
+ * TagReaderBenchmark in the benchmark module.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TagReaderVsRetrieverTest {
+    private static final int FILES = 40;
+    private static final int FRAMES = 2000;
+
+    private File directory;
+    private byte[] cover;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        directory = new File(context.getCacheDir(), "tag_readers");
+        directory.mkdirs();
+        cover = SampleFiles.picture(100 * 1024);
+        for (int i = 0; i < FILES; i++) {
+            // ID3v2.3 title and front cover, then silent MPEG frames
+            SampleFiles.write(new File(directory, i + ".mp3"), SampleFiles.concat(
+                    SampleFiles.id3v2(3, false,
+                            SampleFiles.frame(3, "TIT2", SampleFiles.text(0, "Song " + i)),
+                            SampleFiles.frame(3, "APIC", SampleFiles.apic(0, "image/jpeg", 3, "", cover))),
+                    SampleFiles.mpegFrames(FRAMES)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void tagReaderFindsTheSameCover() throws IOException {
+        readWithTagReader();
+        readWithRetriever();
+    }
+
+    private void readWithTagReader() throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(directory, i + ".mp3");
+            AudioTags tags = TagReader.read(file);
+            assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+        }
+    }
+
+    private void readWithRetriever() throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(new File(directory, i + ".mp3").getPath());
+                assertArrayEquals(cover, retriever.getEmbeddedPicture());
+            } finally {
+                retriever.release();
+            }
+        }
+    }
+}
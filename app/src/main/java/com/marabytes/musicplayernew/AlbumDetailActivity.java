@@ -30,9 +30,10 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.marabytes.musicplayernew.adapter.SongAdapter;
+import com.marabytes.musicplayernew.library.LibraryIndex;
 import com.marabytes.musicplayernew.model.Song;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -48,7 +49,9 @@ public class AlbumDetailActivity extends AppCompatActivity {
     private TextView albumArtistTextView;
     private RecyclerView songsRecyclerView;
     private SongAdapter songAdapter;
-    private List<Song> songs;
+    // The album's tracks as a view over the shared LibraryIndex, in track order
+    private long[] albumSongIds = new long[0];
+    private List<Song> songs = Collections.emptyList();
     private MediaPlayerManager mediaPlayerManager;
     private Song songPendingDeletion;
     private MediaPlayerManager.OnPlaybackChangeListener playbackChangeListener;
@@ -100,7 +103,6 @@ public class AlbumDetailActivity extends AppCompatActivity {
         currentSongArtist = playerControls.findViewById(R.id.currentSongArtist);
         bannerImage = playerControls.findViewById(R.id.bannerImage);
 
-        songs = new ArrayList<>();
         songAdapter = new SongAdapter(songs, this::playSong, this::showSongMenu);
         songsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         songsRecyclerView.setAdapter(songAdapter);
@@ -120,20 +122,13 @@ public class AlbumDetailActivity extends AppCompatActivity {
                     android.R.drawable.ic_media_play);
             }
 
-            @Override
-            public void onProgressChanged(int progress, int duration) {
-                // Not needed for basic controls
-            }
-
             @Override
             public void onSongChanged(String songPath) {
                 // Update current song info
-                for (Song song : songs) {
-                    if (song.getPath().equals(songPath)) {
-                        currentSongTitle.setText(song.getTitle());
-                        currentSongArtist.setText(song.getArtist());
-                        break;
-                    }
+                Song song = findSong(songPath);
+                if (song != null) {
+                    currentSongTitle.setText(song.getTitle());
+                    currentSongArtist.setText(song.getArtist());
                 }
             }
         };
@@ -143,57 +138,31 @@ public class AlbumDetailActivity extends AppCompatActivity {
 
         // Set initial state
         if (mediaPlayerManager.getCurrentSongPath() != null) {
-            for (Song song : songs) {
-                if (song.getPath().equals(mediaPlayerManager.getCurrentSongPath())) {
-                    currentSongTitle.setText(song.getTitle());
-                    currentSongArtist.setText(song.getArtist());
-                    btnPlayPause.setImageResource(mediaPlayerManager.isPlaying() ? 
-                        android.R.drawable.ic_media_pause : 
-                        android.R.drawable.ic_media_play);
-                    break;
-                }
+            Song song = findSong(mediaPlayerManager.getCurrentSongPath());
+            if (song != null) {
+                currentSongTitle.setText(song.getTitle());
+                currentSongArtist.setText(song.getArtist());
+                btnPlayPause.setImageResource(mediaPlayerManager.isPlaying() ? 
+                    android.R.drawable.ic_media_pause : 
+                    android.R.drawable.ic_media_play);
             }
         }
     }
 
+    private Song findSong(String path) {
+        return LibraryIndex.getInstance().findByPath(path);
+    }
+
     private void togglePlayPause() {
         mediaPlayerManager.togglePlayPause();
     }
 
     private void playPrevious() {
-        int currentIndex = -1;
-        String currentPath = mediaPlayerManager.getCurrentSongPath();
-        
-        if (currentPath != null) {
-            for (int i = 0; i < songs.size(); i++) {
-                if (songs.get(i).getPath().equals(currentPath)) {
-                    currentIndex = i;
-                    break;
-                }
-            }
-        }
-
-        if (currentIndex > 0) {
-            playSong(songs.get(currentIndex - 1));
-        }
+        mediaPlayerManager.playPrevious();
     }
 
     private void playNext() {
-        int currentIndex = -1;
-        String currentPath = mediaPlayerManager.getCurrentSongPath();
-        
-        if (currentPath != null) {
-            for (int i = 0; i < songs.size(); i++) {
-                if (songs.get(i).getPath().equals(currentPath)) {
-                    currentIndex = i;
-                    break;
-                }
-            }
-        }
-
-        if (currentIndex < songs.size() - 1) {
-            playSong(songs.get(currentIndex + 1));
-        }
+        mediaPlayerManager.playNext();
     }
 
     private void setupAlbumInfo(String title, String artist, String albumArtPath) {
@@ -211,58 +180,31 @@ public class AlbumDetailActivity extends AppCompatActivity {
         }
     }
 
+    // The songs themselves come from the shared index; MediaStore only gives their track order
     private void loadAlbumSongs(String albumId) {
         Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.DURATION
-        };
+        String[] projection = {MediaStore.Audio.Media._ID};
         String selection = MediaStore.Audio.Media.ALBUM_ID + "=?";
         String[] selectionArgs = {albumId};
         String sortOrder = MediaStore.Audio.Media.TRACK;
 
         try (Cursor cursor = getContentResolver().query(uri, projection, selection, selectionArgs, sortOrder)) {
             if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    String title = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
-                    String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
-                    String path = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA));
-                    long duration = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION));
-
-                    songs.add(new Song(title, artist, path, duration));
+                albumSongIds = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext() && i < albumSongIds.length; i++) {
+                    albumSongIds[i] = cursor.getLong(0);
                 }
-                songAdapter.updateSongs(songs);
             }
         }
+        songs = LibraryIndex.getInstance().getSongsByIds(albumSongIds);
+        songAdapter.showSongs(songs);
     }
 
     private void playSong(Song song) {
         try {
-            // Get album art URI
-            Uri albumArtUri = null;
-            String[] projection = {MediaStore.Audio.Media.ALBUM_ID};
-            String selection = MediaStore.Audio.Media.DATA + "=?";
-            String[] selectionArgs = new String[]{song.getPath()};
-            
-            try (Cursor cursor = getContentResolver().query(
-                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    projection,
-                    selection,
-                    selectionArgs,
-                    null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    long albumId = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
-                    albumArtUri = ContentUris.withAppendedId(
-                        Uri.parse("content://media/external/audio/albumart"),
-                        albumId);
-                }
-            }
-
-            // Start playback
-            mediaPlayerManager.playSong(song.getPath(), song.getTitle(), song.getArtist(), albumArtUri);
+            // Play through the album starting at this song; albums are short, so indexOf is fine.
+            // The list is an immutable snapshot, so the queue can keep it as is
+            mediaPlayerManager.playQueue(songs, songs.indexOf(song));
 
             // Start the service
             Intent serviceIntent = new Intent(this, MusicService.class);
@@ -282,7 +224,13 @@ public class AlbumDetailActivity extends AppCompatActivity {
         
         popup.setOnMenuItemClickListener(item -> {
             int itemId = item.getItemId();
-            if (itemId == R.id.action_share) {
+            if (itemId == R.id.action_play_next) {
+                mediaPlayerManager.insertNext(song);
+                return true;
+            } else if (itemId == R.id.action_add_to_queue) {
+                mediaPlayerManager.appendToQueue(song);
+                return true;
+            } else if (itemId == R.id.action_share) {
                 shareSong(song);
                 return true;
             } else if (itemId == R.id.action_delete) {
@@ -336,28 +284,23 @@ public class AlbumDetailActivity extends AppCompatActivity {
     }
 
     private void deleteWithMediaStore(Song song) {
+        if (song.getId() == Song.NO_ID) {
+            Toast.makeText(this, "Failed to delete file", Toast.LENGTH_SHORT).show();
+            return;
+        }
         try {
             ContentResolver contentResolver = getContentResolver();
-            Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-            String selection = MediaStore.Audio.Media.DATA + "=?";
-            String[] selectionArgs = new String[]{song.getPath()};
+            // The library already knows the MediaStore id, no need to look it up by path
+            Uri deleteUri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, song.getId());
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                // Query for the media ID first
-                String[] projection = {MediaStore.Audio.Media._ID};
-                try (Cursor cursor = contentResolver.query(uri, projection, selection, selectionArgs, null)) {
-                    if (cursor != null && cursor.moveToFirst()) {
-                        long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID));
-                        Uri deleteUri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id);
-                        PendingIntent pi = MediaStore.createDeleteRequest(contentResolver, 
-                            Collections.singletonList(deleteUri));
-                        startIntentSenderForResult(pi.getIntentSender(), DELETE_PERMISSION_REQUEST_CODE,
-                                null, 0, 0, 0);
-                        songPendingDeletion = song;
-                    }
-                }
+                PendingIntent pi = MediaStore.createDeleteRequest(contentResolver,
+                    Collections.singletonList(deleteUri));
+                songPendingDeletion = song;
+                startIntentSenderForResult(pi.getIntentSender(), DELETE_PERMISSION_REQUEST_CODE,
+                        null, 0, 0, 0);
             } else {
-                int rowsDeleted = contentResolver.delete(uri, selection, selectionArgs);
+                int rowsDeleted = contentResolver.delete(deleteUri, null, null);
                 if (rowsDeleted > 0) {
                     handleSuccessfulDeletion(song);
                 } else {
@@ -398,8 +341,10 @@ public class AlbumDetailActivity extends AppCompatActivity {
     private void handleSuccessfulDeletion(Song song) {
         int position = songs.indexOf(song);
         if (position != -1) {
-            songs.remove(position);
-            songAdapter.notifyItemRemoved(position);
+            // The shared index catches up through LibrarySync, this screen stops showing it now
+            albumSongIds = withoutId(albumSongIds, song.getId());
+            songs = LibraryIndex.getInstance().getSongsByIds(albumSongIds);
+            songAdapter.showRemovedSong(position, songs);
             
             // If this was the current song playing, stop it
             if (mediaPlayerManager != null && 
@@ -411,6 +356,17 @@ public class AlbumDetailActivity extends AppCompatActivity {
         Toast.makeText(this, "Song deleted successfully", Toast.LENGTH_SHORT).show();
     }
 
+    private static long[] withoutId(long[] ids, long id) {
+        long[] result = new long[ids.length];
+        int count = 0;
+        for (long other : ids) {
+            if (other != id) {
+                result[count++] = other;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @androidx.annotation.NonNull String[] permissions,
                                          @androidx.annotation.NonNull int[] grantResults) {
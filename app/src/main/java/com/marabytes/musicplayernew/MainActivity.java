@@ -3,20 +3,23 @@ package com.marabytes.musicplayernew;
 import android.Manifest;
 import android.app.Activity;
 import android.app.PendingIntent;
-import android.content.ContentUris;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Intent;
 
 import android.content.IntentSender;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
+import android.graphics.Rect;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.provider.MediaStore;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.PopupMenu;
@@ -33,11 +36,19 @@ import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.marabytes.musicplayernew.adapter.AlbumAdapter;
+import com.marabytes.musicplayernew.adapter.HomeHeaderAdapter;
 import com.marabytes.musicplayernew.adapter.SongAdapter;
+import com.marabytes.musicplayernew.audio.LibraryAnalyzer;
+import com.marabytes.musicplayernew.library.LibraryIndex;
+import com.marabytes.musicplayernew.library.LibraryScanner;
+import com.marabytes.musicplayernew.library.LibrarySync;
+import com.marabytes.musicplayernew.library.SearchIndex;
+import com.marabytes.musicplayernew.library.SongCatalog;
 import com.marabytes.musicplayernew.model.Album;
 import com.marabytes.musicplayernew.model.Song;
 
@@ -52,18 +63,25 @@ import java.util.Set;
 public class MainActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE = 100;
     private static final int DELETE_PERMISSION_REQUEST_CODE = 101;
-    private RecyclerView songsRecyclerView, albumsRecyclerView;
+    private static final String LIBRARY_SNAPSHOT_FILE = "library.snapshot";
+    private static final int SEARCH_RESULT_LIMIT = 500;
+    private RecyclerView homeRecyclerView;
+    private HomeHeaderAdapter headerAdapter;
     private SongAdapter songAdapter;
     private AlbumAdapter albumAdapter;
-    private List<Song> songs;
     private List<Album> albums;
     private ImageButton btnPlayPause, btnPrevious, btnNext;
     private TextView currentSongTitle, currentSongArtist;
-    private ImageView bannerImage;
-    private TextView seeAllSongs, seeAllAlbums;
     private MediaPlayerManager mediaPlayerManager;
-    private int currentSongIndex = -1;
+    private MediaPlayerManager.OnPlaybackChangeListener playbackChangeListener;
     private Song songPendingDeletion = null;
+    private LibraryScanner libraryScanner;
+    private LibrarySync librarySync;
+    private boolean scanInProgress = false;
+    private final List<Runnable> pendingLibraryChanges = new ArrayList<>();
+    private LibraryIndex libraryIndex;
+    private SearchIndex searchIndex = new SearchIndex();
+    private EditText searchInput;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,50 +95,100 @@ public class MainActivity extends AppCompatActivity {
         });
 
         mediaPlayerManager = MediaPlayerManager.getInstance();
+        mediaPlayerManager.setGainTable(LibraryAnalyzer.getInstance(this).getGainTable());
+        libraryIndex = LibraryIndex.getInstance();
         initializeViews();
         checkPermissions();
     }
 
     private void initializeViews() {
-        songsRecyclerView = findViewById(R.id.songsRecyclerView);
-        albumsRecyclerView = findViewById(R.id.albumsRecyclerView);
+        homeRecyclerView = findViewById(R.id.homeRecyclerView);
         btnPlayPause = findViewById(R.id.btnPlayPause);
         btnPrevious = findViewById(R.id.btnPrevious);
         btnNext = findViewById(R.id.btnNext);
         currentSongTitle = findViewById(R.id.currentSongTitle);
         currentSongArtist = findViewById(R.id.currentSongArtist);
-        bannerImage = findViewById(R.id.bannerImage);
-        seeAllSongs = findViewById(R.id.seeAllSongs);
-        seeAllAlbums = findViewById(R.id.seeAllAlbums);
+        searchInput = findViewById(R.id.searchInput);
 
-        songs = new ArrayList<>();
         albums = new ArrayList<>();
         
-        songAdapter = new SongAdapter(songs, this::playSong, this::showSongMenu);
-        songsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        songsRecyclerView.setAdapter(songAdapter);
-        
-        albumAdapter = new AlbumAdapter(albums, this::onAlbumClick);
-        albumsRecyclerView.setAdapter(albumAdapter);
+        // Songs live in the library index; the adapter shows its snapshots without copying them
+        songAdapter = new SongAdapter(libraryIndex.getSongs(), this::playSong, this::showSongMenu);
+        albumAdapter = new AlbumAdapter(this, albums, this::onAlbumClick);
+        headerAdapter = new HomeHeaderAdapter(albumAdapter,
+                v -> Toast.makeText(this, "Show all albums", Toast.LENGTH_SHORT).show(),
+                v -> Toast.makeText(this, "Show all songs", Toast.LENGTH_SHORT).show());
+
+        // One recycling list for the whole screen so only visible song rows are bound. Song ids
+        // are MediaStore ids, which can't collide with the header's because each adapter's are isolated
+        homeRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        ConcatAdapter.Config concatConfig = new ConcatAdapter.Config.Builder()
+                .setStableIdMode(ConcatAdapter.Config.StableIdMode.ISOLATED_STABLE_IDS)
+                .build();
+        homeRecyclerView.setAdapter(new ConcatAdapter(concatConfig, headerAdapter, songAdapter));
+        int songInset = getResources().getDimensionPixelSize(R.dimen.home_horizontal_margin);
+        homeRecyclerView.addItemDecoration(new RecyclerView.ItemDecoration() {
+            @Override
+            public void getItemOffsets(@NonNull Rect outRect, @NonNull View view,
+                                       @NonNull RecyclerView parent, @NonNull RecyclerView.State state) {
+                // Song rows are inset like the section titles, the header runs edge to edge
+                if (parent.getChildAdapterPosition(view) >= headerAdapter.getItemCount()) {
+                    outRect.left = songInset;
+                    outRect.right = songInset;
+                }
+            }
+        });
 
         setupPlayerControls();
-        setupClickListeners();
+        setupSearch();
 
         // Make the player controls clickable to open full player
         findViewById(R.id.playerContainer).setOnClickListener(v -> {
-            if (currentSongIndex >= 0 && currentSongIndex < songs.size()) {
-                Song currentSong = songs.get(currentSongIndex);
-                // Get the album ID for the current song
-                long albumId = getAlbumIdForSong(currentSong.getPath());
-                Intent intent = PlayerActivity.newIntent(this, currentSong, albumId);
+            Song currentSong = libraryIndex.findByPath(mediaPlayerManager.getCurrentSongPath());
+            if (currentSong != null) {
+                Intent intent = PlayerActivity.newIntent(this, currentSong, currentSong.getAlbumId());
                 startActivity(intent);
             }
         });
     }
 
-    private void setupClickListeners() {
-        seeAllSongs.setOnClickListener(v -> Toast.makeText(this, "Show all songs", Toast.LENGTH_SHORT).show());
-        seeAllAlbums.setOnClickListener(v -> Toast.makeText(this, "Show all albums", Toast.LENGTH_SHORT).show());
+    private void setupSearch() {
+        findViewById(R.id.searchButton).setOnClickListener(v -> {
+            if (searchInput.getVisibility() == View.VISIBLE) {
+                searchInput.setText("");
+                searchInput.setVisibility(View.GONE);
+            } else {
+                searchInput.setVisibility(View.VISIBLE);
+                searchInput.requestFocus();
+            }
+        });
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // The index answers in well under a millisecond, so query on every keystroke
+                showSearchResults();
+            }
+        });
+    }
+
+    private boolean isSearching() {
+        return searchInput.getText().toString().trim().length() > 0;
+    }
+
+    private void showSearchResults() {
+        if (isSearching()) {
+            headerAdapter.setVisible(false);
+            songAdapter.updateSongs(searchIndex.search(searchInput.getText().toString(), SEARCH_RESULT_LIMIT));
+        } else {
+            headerAdapter.setVisible(true);
+            songAdapter.showSongs(libraryIndex.getSongs());
+        }
     }
 
     private void onAlbumClick(Album album) {
@@ -139,8 +207,8 @@ public class MainActivity extends AppCompatActivity {
         btnPrevious.setOnClickListener(v -> playPrevious());
         btnNext.setOnClickListener(v -> playNext());
 
-        // Register for playback updates
-        mediaPlayerManager.addListener(new MediaPlayerManager.OnPlaybackChangeListener() {
+        // Kept in a field so onDestroy can unregister it
+        playbackChangeListener = new MediaPlayerManager.OnPlaybackChangeListener() {
             @Override
             public void onPlaybackStateChanged(boolean isPlaying) {
                 btnPlayPause.setImageResource(isPlaying ? 
@@ -148,25 +216,16 @@ public class MainActivity extends AppCompatActivity {
                     android.R.drawable.ic_media_play);
             }
 
-            @Override
-            public void onProgressChanged(int progress, int duration) {
-                // You could add a seekbar to the main activity if desired
-            }
-
             @Override
             public void onSongChanged(String songPath) {
-                // Update current song index if needed
-                for (int i = 0; i < songs.size(); i++) {
-                    if (songs.get(i).getPath().equals(songPath)) {
-                        currentSongIndex = i;
-                        Song song = songs.get(i);
-                        currentSongTitle.setText(song.getTitle());
-                        currentSongArtist.setText(song.getArtist());
-                        break;
-                    }
+                Song song = libraryIndex.findByPath(songPath);
+                if (song != null) {
+                    currentSongTitle.setText(song.getTitle());
+                    currentSongArtist.setText(song.getArtist());
                 }
             }
-        });
+        };
+        mediaPlayerManager.addListener(playbackChangeListener);
     }
 
     private void checkPermissions() {
@@ -221,118 +280,146 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadMediaContent() {
-        loadAlbums();
-        loadSongs();
-    }
+        if (libraryScanner == null) {
+            libraryScanner = new LibraryScanner(getContentResolver(),
+                    new java.io.File(getFilesDir(), LIBRARY_SNAPSHOT_FILE));
+        }
+        if (librarySync == null) {
+            librarySync = new LibrarySync(this, libraryIndex, new LibrarySync.Callback() {
+                @Override
+                public void onLibraryChanged(List<Song> changedSongs, Set<Long> removedSongIds,
+                                             List<Album> changedAlbums) {
+                    Runnable apply = () -> applyLibraryChanges(changedSongs, removedSongIds, changedAlbums);
+                    if (scanInProgress) {
+                        // Pages still arriving would duplicate new rows, apply once the scan is done
+                        pendingLibraryChanges.add(apply);
+                    } else {
+                        apply.run();
+                    }
+                }
 
-    private void loadAlbums() {
-        Uri uri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-        String[] projection = {
-                MediaStore.Audio.Albums._ID,
-                MediaStore.Audio.Albums.ALBUM,
-                MediaStore.Audio.Albums.ARTIST,
-                MediaStore.Audio.Albums.ALBUM_ART
-        };
+                @Override
+                public void onFullRescanNeeded() {
+                    loadMediaContent();
+                }
+            });
+        }
+        // Start watching before the scan so nothing that changes during it is missed
+        librarySync.start();
+        scanInProgress = true;
+        pendingLibraryChanges.clear();
+        albums.clear();
+        libraryIndex.clear();
+        searchIndex.clear();
+        songAdapter.showSongs(libraryIndex.getSongs());
+        albumAdapter.updateAlbums(albums);
+
+        libraryScanner.start(new LibraryScanner.Callback() {
+            @Override
+            public void onAlbumsLoaded(List<Album> page) {
+                albums.addAll(page);
+                searchIndex.addAlbums(page);
+                albumAdapter.appendAlbums(page);
+            }
 
-        try (Cursor cursor = getContentResolver().query(uri, projection, null, null, null)) {
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    String id = cursor.getString(0);
-                    String title = cursor.getString(1);
-                    String artist = cursor.getString(2);
-                    String albumArt = cursor.getString(3);
-
-                    // If album art is null, try to find it from any song in the album
-                    if (albumArt == null) {
-                        albumArt = findAlbumArtFromSongs(id);
-                    }
+            @Override
+            public void onSongsLoaded(List<Song> page) {
+                libraryIndex.addSongs(page);
+                searchIndex.addSongs(page);
+                if (isSearching()) {
+                    showSearchResults();
+                } else {
+                    songAdapter.showAppendedSongs(libraryIndex.getSongs());
+                }
+            }
+
+            @Override
+            public void onBannerArtFound(Uri albumArtUri) {
+                // Use the first song's album art for the banner if available
+                headerAdapter.setBannerArt(albumArtUri);
+            }
+
+            @Override
+            public void onLibraryReconciled(List<Album> newAlbums, SongCatalog newSongs, SearchIndex newSearchIndex) {
+                // Both indexes arrive built, only the references change here; only the rows
+                // that actually differ from the snapshot get rebound
+                albums.clear();
+                albums.addAll(newAlbums);
+                albumAdapter.updateAlbums(newAlbums);
+                libraryIndex.setCatalog(newSongs);
+                searchIndex = newSearchIndex;
+                showSearchResults();
+            }
 
-                    albums.add(new Album(title, artist, albumArt, id));
+            @Override
+            public void onScanFinished(long firstRowMillis, long totalMillis, int queryCount) {
+                // Timings are logged by the scanner
+                scanInProgress = false;
+                for (Runnable apply : pendingLibraryChanges) {
+                    apply.run();
                 }
-                albumAdapter.updateAlbums(albums);
+                pendingLibraryChanges.clear();
+                // Only tracks without an up to date waveform or loudness get decoded, each once for both
+                LibraryAnalyzer.getInstance(MainActivity.this).analyzeLibrary(libraryIndex.getSongs());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        });
     }
 
-    private String findAlbumArtFromSongs(String albumId) {
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {
-                MediaStore.Audio.Media.ALBUM_ID
-        };
-        String selection = MediaStore.Audio.Media.ALBUM_ID + "=?";
-        String[] selectionArgs = new String[]{albumId};
+    // Applies what LibrarySync found; the adapters diff against their current rows, so only these rows change
+    private void applyLibraryChanges(List<Song> changedSongs, Set<Long> removedSongIds, List<Album> changedAlbums) {
+        List<Song> removedSongs = new ArrayList<>(removedSongIds.size());
+        for (long id : removedSongIds) {
+            Song song = libraryIndex.findById(id);
+            if (song != null) {
+                removedSongs.add(song);
+                searchIndex.removeSong(song.getPath());
+            }
+        }
+        libraryIndex.removeSongs(removedSongs);
 
-        try (Cursor cursor = getContentResolver().query(uri, projection, selection, selectionArgs, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
-                return ContentUris.withAppendedId(Uri.parse("content://media/external/audio/albumart"), id).toString();
+        for (Album album : changedAlbums) {
+            int position = indexOfAlbum(album.getId());
+            if (position != -1) {
+                albums.set(position, album);
+            } else {
+                albums.add(album);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return null;
+        searchIndex.addAlbums(changedAlbums);
+
+        for (Song song : changedSongs) {
+            Song existing = libraryIndex.findById(song.getId());
+            if (existing != null) {
+                searchIndex.removeSong(existing.getPath());
+            }
+            libraryIndex.putSong(song);
+            searchIndex.addSong(song);
+        }
+
+        albumAdapter.updateAlbums(albums);
+        showSearchResults();
+        if (!changedSongs.isEmpty()) {
+            // Restarts the library run; tracks that are already done are skipped quickly
+            LibraryAnalyzer.getInstance(this).analyzeLibrary(libraryIndex.getSongs());
+        }
     }
 
-    private void loadSongs() {
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.DURATION,
-                MediaStore.Audio.Media.ALBUM_ID
-        };
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-
-        try (Cursor cursor = getContentResolver().query(uri, projection, selection, null, null)) {
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    String id = cursor.getString(0);
-                    String title = cursor.getString(1);
-                    String artist = cursor.getString(2);
-                    String path = cursor.getString(3);
-                    long duration = cursor.getLong(4);
-                    long albumId = cursor.getLong(5);
-
-                    songs.add(new Song(title, artist, path, duration));
-                    
-                    // Use the first song's album art for the banner if available
-                    if (songs.size() == 1) {
-                        Uri albumArtUri = ContentUris.withAppendedId(
-                                Uri.parse("content://media/external/audio/albumart"),
-                                albumId);
-                        bannerImage.setImageURI(albumArtUri);
-                        if (bannerImage.getDrawable() == null) {
-                            bannerImage.setImageResource(android.R.drawable.ic_menu_gallery);
-                        }
-                    }
-                }
-                songAdapter.updateSongs(songs);
+    // Albums number in the hundreds, a scan per changed album is fine
+    private int indexOfAlbum(String id) {
+        for (int i = 0; i < albums.size(); i++) {
+            if (albums.get(i).getId().equals(id)) {
+                return i;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return -1;
     }
 
     private void playSong(Song song) {
         try {
-            // Get album art URI
-            Uri albumArtUri = null;
-            long albumId = getAlbumIdForSong(song.getPath());
-            if (albumId != -1) {
-                albumArtUri = ContentUris.withAppendedId(
-                    Uri.parse("content://media/external/audio/albumart"),
-                    albumId);
-            }
-
-            // Start playback
-            mediaPlayerManager.playSong(song.getPath(), song.getTitle(), song.getArtist(), albumArtUri);
+            // Play through the whole library starting at this song
+            mediaPlayerManager.playQueue(libraryIndex.getSongs(), libraryIndex.positionOf(song.getPath()));
             currentSongTitle.setText(song.getTitle());
             currentSongArtist.setText(song.getArtist());
-            currentSongIndex = songs.indexOf(song);
 
             // Update play/pause button
             btnPlayPause.setImageResource(android.R.drawable.ic_media_pause);
@@ -355,7 +442,13 @@ public class MainActivity extends AppCompatActivity {
         
         popup.setOnMenuItemClickListener(item -> {
             int itemId = item.getItemId();
-            if (itemId == R.id.action_share) {
+            if (itemId == R.id.action_play_next) {
+                mediaPlayerManager.insertNext(song);
+                return true;
+            } else if (itemId == R.id.action_add_to_queue) {
+                mediaPlayerManager.appendToQueue(song);
+                return true;
+            } else if (itemId == R.id.action_share) {
                 shareSong(song);
                 return true;
             } else if (itemId == R.id.action_delete) {
@@ -409,26 +502,30 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void deleteWithMediaStore(Song song) {
+        if (song.getId() == Song.NO_ID) {
+            Toast.makeText(this, "Failed to delete file", Toast.LENGTH_SHORT).show();
+            return;
+        }
         try {
             // Create a delete request for MediaStore
             ContentResolver contentResolver = getContentResolver();
-            Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-            String selection = MediaStore.Audio.Media.DATA + "=?";
-            String[] selectionArgs = new String[]{song.getPath()};
+            Uri deleteUri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, song.getId());
 
             // Request user's permission for deletion through system UI
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
                 PendingIntent pi = MediaStore.createDeleteRequest(contentResolver,
-                    Collections.singletonList(Uri.parse(song.getPath())));
+                    Collections.singletonList(deleteUri));
                 try {
+                    songPendingDeletion = song;
                     startIntentSenderForResult(pi.getIntentSender(), DELETE_PERMISSION_REQUEST_CODE,
                             null, 0, 0, 0);
                 } catch (IntentSender.SendIntentException e) {
+                    songPendingDeletion = null;
                     e.printStackTrace();
                 }
             } else {
                 // For Android 10, we can delete directly through MediaStore
-                int rowsDeleted = contentResolver.delete(uri, selection, selectionArgs);
+                int rowsDeleted = contentResolver.delete(deleteUri, null, null);
                 if (rowsDeleted > 0) {
                     handleSuccessfulDeletion(song);
                 } else {
@@ -468,16 +565,22 @@ public class MainActivity extends AppCompatActivity {
 
     private void handleSuccessfulDeletion(Song song) {
         // Remove from our list and notify adapter
-        int position = songs.indexOf(song);
+        int position = libraryIndex.positionOf(song.getPath());
         if (position != -1) {
-            songs.remove(position);
-            songAdapter.notifyItemRemoved(position);
+            libraryIndex.removeSong(song);
+            searchIndex.removeSong(song.getPath());
+            if (isSearching()) {
+                showSearchResults();
+            } else {
+                songAdapter.showRemovedSong(position, libraryIndex.getSongs());
+            }
             
             // If this was the current song playing, stop it
             if (mediaPlayerManager != null && 
                 song.getPath().equals(mediaPlayerManager.getCurrentSongPath())) {
                 mediaPlayerManager.release();
                 mediaPlayerManager = MediaPlayerManager.getInstance();
+                mediaPlayerManager.setGainTable(LibraryAnalyzer.getInstance(this).getGainTable());
                 setupPlayerControls();
             }
         }
@@ -504,36 +607,23 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void playPrevious() {
-        if (currentSongIndex > 0) {
-            playSong(songs.get(--currentSongIndex));
-        }
+        mediaPlayerManager.playPrevious();
     }
 
     private void playNext() {
-        if (currentSongIndex < songs.size() - 1) {
-            playSong(songs.get(++currentSongIndex));
-        }
-    }
-
-    private long getAlbumIdForSong(String songPath) {
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {MediaStore.Audio.Media.ALBUM_ID};
-        String selection = MediaStore.Audio.Media.DATA + "=?";
-        String[] selectionArgs = new String[]{songPath};
-
-        try (Cursor cursor = getContentResolver().query(uri, projection, selection, selectionArgs, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                return cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return -1;
+        mediaPlayerManager.playNext();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (libraryScanner != null) {
+            libraryScanner.shutdown();
+        }
+        if (librarySync != null) {
+            librarySync.shutdown();
+        }
+        mediaPlayerManager.removeListener(playbackChangeListener);
         mediaPlayerManager.release();
     }
 }
\ No newline at end of file
@@ -1,65 +1,194 @@
 package com.marabytes.musicplayernew;
 
+import android.content.ContentUris;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.marabytes.musicplayernew.audio.ReadAheadDataSource;
+import com.marabytes.musicplayernew.loudness.GainTable;
+import com.marabytes.musicplayernew.loudness.ReplayGain;
+import com.marabytes.musicplayernew.metrics.Counter;
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.model.Song;
+import com.marabytes.musicplayernew.playback.FadeCurve;
+import com.marabytes.musicplayernew.playback.FadeRamp;
+import com.marabytes.musicplayernew.playback.ListenerList;
+import com.marabytes.musicplayernew.playback.PlaybackQueue;
+import com.marabytes.musicplayernew.playback.PlaybackState;
+
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Owns the MediaPlayers and the play queue. Every player operation is a
+ * message on a dedicated playback thread, so callers on any thread return
+ * immediately and commands run one at a time in the order they were sent.
+ * Listener callbacks are posted back to the main thread in the same order.
+ */
 public class MediaPlayerManager {
-    private static MediaPlayerManager instance;
+    private static final String TAG = "MediaPlayerManager";
+    // How long before the end of a track the next one gets prepared for gapless playback
+    private static final int GAPLESS_PREPARE_LEAD_MS = 15000;
+    public static final int MAX_CROSSFADE_MS = 12000;
+    // 50 volume updates a second; AudioTrack smooths each change, so that's inaudible
+    private static final int FADE_STEP_MS = 20;
+    // Tens of seconds of a compressed track, a few seconds of FLAC
+    private static final int DEFAULT_READ_AHEAD_BYTES = 1024 * 1024;
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+
+    private static final LatencyHistogram PREPARE_LATENCY = Metrics.getInstance().histogram(Metrics.PLAYBACK_PREPARE_MS);
+    private static final LatencyHistogram TAP_TO_AUDIO = Metrics.getInstance().histogram(Metrics.PLAYBACK_TAP_TO_AUDIO_MS);
+    private static final LatencyHistogram SKIP_LATENCY = Metrics.getInstance().histogram(Metrics.PLAYBACK_SKIP_MS);
+    private static final Counter SUPERSEDED_REQUESTS = Metrics.getInstance().counter(Metrics.PLAYBACK_SUPERSEDED);
+    private static final Counter CROSSFADES = Metrics.getInstance().counter(Metrics.PLAYBACK_CROSSFADES);
+    private static final LatencyHistogram FADE_JITTER = Metrics.getInstance().histogram(Metrics.PLAYBACK_FADE_JITTER_MS);
+
+    private static volatile MediaPlayerManager instance;
+    // Everything below that touches a MediaPlayer or the queue only runs on this thread
+    private final HandlerThread playbackThread;
+    private final Handler playerHandler;
+    private final Handler mainHandler;
     private MediaPlayer mediaPlayer;
+    // Second player that is prepared with the upcoming track and chained behind the current one
+    private MediaPlayer nextPlayer;
+    // What the queue says comes after the current song, lined up in nextPlayer
+    private Song nextSong;
+    private final PlaybackQueue queue = new PlaybackQueue();
+    private boolean nextPrepared = false;
+    private boolean gaplessEnabled = true;
+    // Measured loudness, looked up as each track starts; null until the app hands it over
+    private GainTable gainTable;
+    private ReplayGain.Mode replayGainMode = ReplayGain.Mode.TRACK;
+    // ReplayGain volume of mediaPlayer and nextPlayer; fades scale these rather than full volume
+    private float currentGain = 1f;
+    private float nextGain = 1f;
+    // 0 for gapless playback, otherwise the next track starts this long before the current one ends
+    private int crossfadeMs = 0;
+    private FadeCurve fadeCurve = FadeCurve.EQUAL_POWER;
+    // The track fading out while mediaPlayer fades in, and its buffered source; null outside a fade
+    private MediaPlayer fadingPlayer;
+    private ReadAheadDataSource fadingSource;
+    private float fadingGain;
+    private FadeRamp fadeRamp;
+    private long nextFadeStepAt;
+    // How far to buffer ahead of the decoder for tracks on removable storage, 0 to let MediaPlayer read them
+    private int readAheadBytes = DEFAULT_READ_AHEAD_BYTES;
+    // Buffered sources of mediaPlayer and nextPlayer, null when they read the file directly
+    private ReadAheadDataSource currentSource;
+    private ReadAheadDataSource nextPlayerSource;
+    // Opened for nextSong as soon as it's known, so its start is in memory before any player needs it
+    private ReadAheadDataSource warmedSource;
+    private String warmedPath;
+    // Each playSong() call gets an id, only the newest one is allowed to start
+    private int playRequestId = 0;
+    private boolean preparing = false;
+    private volatile long lastTapToAudioMillis = -1;
     private String currentSongPath;
     private String currentSongTitle;
     private String currentSongArtist;
     private Uri currentAlbumArtUri;
     private boolean isPlaying = false;
-    private Handler handler;
-    private List<OnPlaybackChangeListener> listeners;
+    private final ListenerList<OnPlaybackChangeListener> listeners = new ListenerList<>();
+    private final ListenerList<ProgressSubscription> progressSubscriptions = new ListenerList<>();
+    // Published copy of the fields above, safe to read from any thread
+    private volatile PlaybackState state = PlaybackState.IDLE;
 
     public interface OnPlaybackChangeListener {
         void onPlaybackStateChanged(boolean isPlaying);
-        void onProgressChanged(int progress, int duration);
         void onSongChanged(String songPath);
     }
 
-    public interface OnPlaybackControlListener extends OnPlaybackChangeListener {
-        void onNext();
-        void onPrevious();
+    /**
+     * Position updates are opt-in: only screens that actually show progress
+     * subscribe, each at its own rate, and the tick loop stops when none do.
+     */
+    public interface OnProgressListener {
+        void onProgressChanged(int progress, int duration);
     }
 
+    private static class ProgressSubscription {
+        final OnProgressListener listener;
+        final long intervalMs;
+        // Only touched on the playback thread
+        long nextDueAt;
+        // Set by the playback thread, cleared by the main thread when delivered
+        volatile boolean due;
+
+        ProgressSubscription(OnProgressListener listener, long intervalMs) {
+            this.listener = listener;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    private final Runnable prepareNextRunnable = this::prepareNextPlayer;
+    private final Runnable crossfadeStartRunnable = this::startCrossfade;
+    private final Runnable fadeStepRunnable = this::stepCrossfade;
+
+    // Latest position read on the playback thread, handed to the main thread without allocating
+    private volatile int lastPosition;
+    private volatile int lastDuration;
+
+    // A dragged seek bar fires far faster than the player can seek, only the latest position matters
+    private final AtomicInteger pendingSeek = new AtomicInteger(-1);
+    private final Runnable seekRunnable = () -> {
+        int position = pendingSeek.getAndSet(-1);
+        if (mediaPlayer != null && !preparing && position >= 0) {
+            // Seeking the new track mid-fade, the old one has nothing more to say
+            finishCrossfade();
+            mediaPlayer.seekTo(position);
+            notifyProgressChanged();
+            scheduleNextPrepare();
+        }
+    };
+
     private MediaPlayerManager() {
-        mediaPlayer = new MediaPlayer();
-        handler = new Handler(Looper.getMainLooper());
-        listeners = new ArrayList<>();
+        playbackThread = new HandlerThread("Playback", Process.THREAD_PRIORITY_AUDIO);
+        playbackThread.start();
+        playerHandler = new Handler(playbackThread.getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
 
-        mediaPlayer.setOnCompletionListener(mp -> {
-            isPlaying = false;
-            notifyPlaybackStateChanged();
+        // Created on the playback thread so its callbacks are delivered there as well
+        playerHandler.post(() -> {
+            mediaPlayer = new MediaPlayer();
+            mediaPlayer.setOnCompletionListener(this::onTrackCompleted);
         });
     }
 
-    public static synchronized MediaPlayerManager getInstance() {
-        if (instance == null) {
-            instance = new MediaPlayerManager();
+    // Lock-free once created; only the first call (or the first after release()) synchronizes
+    public static MediaPlayerManager getInstance() {
+        MediaPlayerManager result = instance;
+        if (result == null) {
+            synchronized (MediaPlayerManager.class) {
+                result = instance;
+                if (result == null) {
+                    result = new MediaPlayerManager();
+                    instance = result;
+                }
+            }
         }
-        return instance;
+        return result;
     }
 
+    // Callbacks always arrive on the main thread, whichever thread registers
     public void addListener(OnPlaybackChangeListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
+        if (listeners.add(listener)) {
             // Update the new listener with current state
-            if (currentSongPath != null) {
-                listener.onSongChanged(currentSongPath);
-                listener.onPlaybackStateChanged(isPlaying);
-                if (mediaPlayer != null) {
-                    listener.onProgressChanged(mediaPlayer.getCurrentPosition(), mediaPlayer.getDuration());
+            runOnMainThread(() -> {
+                PlaybackState current = state;
+                if (current.getSongPath() != null) {
+                    listener.onSongChanged(current.getSongPath());
+                    listener.onPlaybackStateChanged(current.isPlaying());
                 }
-            }
+            });
         }
     }
 
@@ -67,51 +196,296 @@ public class MediaPlayerManager {
         listeners.remove(listener);
     }
 
-    private void notifyPlaybackStateChanged() {
-        for (OnPlaybackChangeListener listener : listeners) {
-            listener.onPlaybackStateChanged(isPlaying);
+    // Subscribe while the progress is on screen (onStart/onStop), not for the whole lifetime
+    public void addProgressListener(OnProgressListener listener, long intervalMs) {
+        progressSubscriptions.removeMatching(subscription -> subscription.listener == listener);
+        ProgressSubscription subscription = new ProgressSubscription(listener, Math.max(16, intervalMs));
+        progressSubscriptions.add(subscription);
+        playerHandler.post(() -> {
+            subscription.nextDueAt = SystemClock.uptimeMillis() + subscription.intervalMs;
+            // Give the new subscriber the current position right away
+            if (currentSongPath != null && mediaPlayer != null && !preparing) {
+                lastPosition = mediaPlayer.getCurrentPosition();
+                lastDuration = mediaPlayer.getDuration();
+                subscription.due = true;
+                mainHandler.post(deliverProgressRunnable);
+            }
+            if (isPlaying) {
+                startProgressUpdates();
+            }
+        });
+    }
+
+    public void removeProgressListener(OnProgressListener listener) {
+        progressSubscriptions.removeMatching(subscription -> subscription.listener == listener);
+        // The tick loop notices an empty list by itself, so this is safe from any thread
+    }
+
+    public PlaybackState getPlaybackState() {
+        return state;
+    }
+
+    private void runOnMainThread(Runnable action) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            action.run();
+        } else {
+            mainHandler.post(action);
         }
     }
 
-    private void notifyProgressChanged() {
-        if (mediaPlayer != null) {
-            for (OnPlaybackChangeListener listener : listeners) {
-                listener.onProgressChanged(mediaPlayer.getCurrentPosition(), mediaPlayer.getDuration());
+    private void publishState() {
+        state = new PlaybackState(currentSongPath, currentSongTitle, currentSongArtist, currentAlbumArtUri,
+                isPlaying, preparing, queue.isShuffleEnabled(), queue.getRepeatMode());
+    }
+
+    private void notifyPlaybackStateChanged() {
+        publishState();
+        boolean playing = isPlaying;
+        mainHandler.post(() -> {
+            for (Object listener : listeners.snapshot()) {
+                ((OnPlaybackChangeListener) listener).onPlaybackStateChanged(playing);
             }
+        });
+    }
+
+    // Pushes the position to every progress subscriber now, e.g. after a seek
+    private void notifyProgressChanged() {
+        if (mediaPlayer == null || preparing || progressSubscriptions.isEmpty()) {
+            return;
+        }
+        lastPosition = mediaPlayer.getCurrentPosition();
+        lastDuration = mediaPlayer.getDuration();
+        long now = SystemClock.uptimeMillis();
+        for (Object item : progressSubscriptions.snapshot()) {
+            ProgressSubscription subscription = (ProgressSubscription) item;
+            subscription.nextDueAt = now + subscription.intervalMs;
+            subscription.due = true;
         }
+        mainHandler.post(deliverProgressRunnable);
     }
 
-    private void notifySongChanged() {
-        for (OnPlaybackChangeListener listener : listeners) {
-            listener.onSongChanged(currentSongPath);
+    // Runs on the main thread and serves whichever subscribers the playback thread marked as due
+    private final Runnable deliverProgressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int position = lastPosition;
+            int duration = lastDuration;
+            Object[] subscriptions = progressSubscriptions.snapshot();
+            for (int i = 0; i < subscriptions.length; i++) {
+                ProgressSubscription subscription = (ProgressSubscription) subscriptions[i];
+                if (subscription.due) {
+                    subscription.due = false;
+                    subscription.listener.onProgressChanged(position, duration);
+                }
+            }
         }
+    };
+
+    private void notifySongChanged() {
+        publishState();
+        String path = currentSongPath;
+        mainHandler.post(() -> {
+            for (Object listener : listeners.snapshot()) {
+                ((OnPlaybackChangeListener) listener).onSongChanged(path);
+            }
+        });
     }
 
-    public void playSong(String path, String title, String artist, Uri albumArtUri) {
-        try {
-            if (mediaPlayer.isPlaying()) {
-                mediaPlayer.stop();
+    // Replaces the play queue and starts playing songs[startIndex]; songs must not change
+    // afterwards (pass a copy or an immutable snapshot), it's read from the playback thread
+    public void playQueue(List<Song> songs, int startIndex) {
+        long requestTime = SystemClock.elapsedRealtime();
+        playerHandler.post(() -> {
+            queue.setQueue(songs, startIndex);
+            Song song = queue.getCurrent();
+            if (song != null) {
+                playSong(song, requestTime, TAP_TO_AUDIO);
+            }
+        });
+    }
+
+    public void playNext() {
+        long requestTime = SystemClock.elapsedRealtime();
+        playerHandler.post(() -> {
+            Song song = queue.moveToNext(true);
+            if (song != null) {
+                playSong(song, requestTime, SKIP_LATENCY);
+            }
+        });
+    }
+
+    public void playPrevious() {
+        long requestTime = SystemClock.elapsedRealtime();
+        playerHandler.post(() -> {
+            Song song = queue.moveToPrevious();
+            if (song != null) {
+                playSong(song, requestTime, SKIP_LATENCY);
             }
+        });
+    }
+
+    public void insertNext(Song song) {
+        long requestTime = SystemClock.elapsedRealtime();
+        playerHandler.post(() -> {
+            boolean wasEmpty = queue.isEmpty();
+            queue.insertNext(song);
+            if (wasEmpty) {
+                playSong(song, requestTime, TAP_TO_AUDIO);
+            } else {
+                lineUpNextSong();
+            }
+        });
+    }
+
+    public void appendToQueue(Song song) {
+        long requestTime = SystemClock.elapsedRealtime();
+        playerHandler.post(() -> {
+            boolean wasEmpty = queue.isEmpty();
+            queue.append(song);
+            if (wasEmpty) {
+                playSong(song, requestTime, TAP_TO_AUDIO);
+            } else {
+                lineUpNextSong();
+            }
+        });
+    }
+
+    public void setShuffleEnabled(boolean enabled) {
+        playerHandler.post(() -> {
+            queue.setShuffleEnabled(enabled);
+            publishState();
+            lineUpNextSong();
+        });
+    }
+
+    public boolean isShuffleEnabled() {
+        return state.isShuffleEnabled();
+    }
+
+    public void setRepeatMode(PlaybackQueue.RepeatMode mode) {
+        playerHandler.post(() -> {
+            queue.setRepeatMode(mode);
+            publishState();
+            lineUpNextSong();
+        });
+    }
+
+    public PlaybackQueue.RepeatMode getRepeatMode() {
+        return state.getRepeatMode();
+    }
+
+    // requestLatency gets the time from requestTime (when the user asked) until audio starts, if not null
+    private void playSong(Song song, long requestTime, LatencyHistogram requestLatency) {
+        String path = song.getPath();
+        int requestId = ++playRequestId;
+        if (preparing) {
+            SUPERSEDED_REQUESTS.increment();
+        }
+
+        // Whatever was lined up or fading belonged to the old track
+        finishCrossfade();
+        cancelNextPlayer();
+        nextSong = null;
+        try {
+            // reset() also abandons a prepare that is still in flight for an older request
             mediaPlayer.reset();
-            mediaPlayer.setDataSource(path);
-            mediaPlayer.prepare();
-            mediaPlayer.start();
-            
+            closeQuietly(currentSource);
+            currentSource = setDataSource(mediaPlayer, path);
+            currentGain = gainVolume(song);
+            setVolume(mediaPlayer, currentGain);
+            long prepareStart = SystemClock.elapsedRealtime();
+            mediaPlayer.setOnPreparedListener(mp -> onPlayRequestPrepared(mp, requestId, prepareStart,
+                    requestTime, requestLatency));
+            mediaPlayer.setOnErrorListener((mp, what, extra) -> onPlayRequestFailed(mp, requestId, what, extra));
+            preparing = true;
+            mediaPlayer.prepareAsync();
+
             this.currentSongPath = path;
-            this.currentSongTitle = title;
-            this.currentSongArtist = artist;
-            this.currentAlbumArtUri = albumArtUri;
+            this.currentSongTitle = song.getTitle();
+            this.currentSongArtist = song.getArtist();
+            this.currentAlbumArtUri = getAlbumArtUri(song);
             this.isPlaying = true;
-            
+
+            // Show the new song right away, audio follows once the player is prepared
             notifyPlaybackStateChanged();
             notifySongChanged();
-        } catch (IOException e) {
+            lineUpNextSong();
+        } catch (IOException | IllegalStateException e) {
             e.printStackTrace();
+            // The queue is already on this song, so show it, stopped
+            this.currentSongPath = path;
+            this.currentSongTitle = song.getTitle();
+            this.currentSongArtist = song.getArtist();
+            this.currentAlbumArtUri = getAlbumArtUri(song);
+            stopAfterFailure();
+            notifySongChanged();
         }
     }
 
+    private void onPlayRequestPrepared(MediaPlayer mp, int requestId, long prepareStart, long requestTime,
+                                       LatencyHistogram requestLatency) {
+        if (mp != mediaPlayer || requestId != playRequestId) {
+            return;
+        }
+        preparing = false;
+        long now = SystemClock.elapsedRealtime();
+        PREPARE_LATENCY.record(now - prepareStart);
+        lastTapToAudioMillis = now - requestTime;
+        if (requestLatency != null) {
+            requestLatency.record(lastTapToAudioMillis);
+        }
+        Log.d(TAG, "Tap to audio " + lastTapToAudioMillis + " ms, "
+                + SUPERSEDED_REQUESTS.get() + " superseded requests so far");
+
+        // The user may have paused while we were preparing
+        if (isPlaying) {
+            mediaPlayer.start();
+            startProgressUpdates();
+        }
+        notifyProgressChanged();
+        scheduleNextPrepare();
+    }
+
+    private boolean onPlayRequestFailed(MediaPlayer mp, int requestId, int what, int extra) {
+        if (mp != mediaPlayer || requestId != playRequestId) {
+            return true;
+        }
+        Log.w(TAG, "Playback failed for " + currentSongPath + " (" + what + ", " + extra + ")");
+        stopAfterFailure();
+        return true;
+    }
+
+    // Leaves mediaPlayer idle and tells listeners playback stopped; the current song stays selected
+    private void stopAfterFailure() {
+        preparing = false;
+        isPlaying = false;
+        stopProgressUpdates();
+        finishCrossfade();
+        cancelNextPlayer();
+        mediaPlayer.reset();
+        closeQuietly(currentSource);
+        currentSource = null;
+        notifyPlaybackStateChanged();
+    }
+
+    public long getLastTapToAudioMillis() {
+        return lastTapToAudioMillis;
+    }
+
     public void togglePlayPause() {
+        playerHandler.post(this::doTogglePlayPause);
+    }
+
+    private void doTogglePlayPause() {
+        if (preparing) {
+            // Nothing to start or pause yet, just remember whether to start once prepared
+            isPlaying = !isPlaying;
+            notifyPlaybackStateChanged();
+            return;
+        }
         if (mediaPlayer != null) {
+            // A paused crossfade would sound odd when resumed, jump to its end instead
+            finishCrossfade();
             if (isPlaying) {
                 mediaPlayer.pause();
                 stopProgressUpdates();
@@ -121,77 +495,476 @@ public class MediaPlayerManager {
             }
             isPlaying = !isPlaying;
             notifyPlaybackStateChanged();
+            scheduleNextPrepare();
         }
     }
 
     public void seekTo(int position) {
-        if (mediaPlayer != null) {
-            mediaPlayer.seekTo(position);
-            notifyProgressChanged();
+        if (pendingSeek.getAndSet(Math.max(0, position)) == -1) {
+            playerHandler.post(seekRunnable);
         }
     }
 
-    private void startProgressUpdates() {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                if (mediaPlayer != null && isPlaying) {
-                    notifyProgressChanged();
-                    handler.postDelayed(this, 100);
+    public void setGaplessEnabled(boolean enabled) {
+        playerHandler.post(() -> {
+            gaplessEnabled = enabled;
+            if (!enabled) {
+                cancelNextPlayer();
+            }
+            scheduleNextPrepare();
+        });
+    }
+
+    public void setGainTable(GainTable table) {
+        playerHandler.post(() -> {
+            gainTable = table;
+            reapplyGain();
+        });
+    }
+
+    public void setReplayGainMode(ReplayGain.Mode mode) {
+        playerHandler.post(() -> {
+            replayGainMode = mode;
+            reapplyGain();
+        });
+    }
+
+    private void reapplyGain() {
+        currentGain = gainVolume(queue.getCurrent());
+        nextGain = gainVolume(nextSong);
+        // A running fade picks the new gain up on its next step
+        if (fadingPlayer == null) {
+            setVolume(mediaPlayer, currentGain);
+        }
+        if (nextPrepared && crossfadeMs == 0) {
+            setVolume(nextPlayer, nextGain);
+        }
+    }
+
+    // Only a table lookup, loudness is measured ahead of time; unmeasured or since changed tracks
+    // play at full volume
+    private float gainVolume(Song song) {
+        if (song == null) {
+            return 1f;
+        }
+        double gain = Double.NaN;
+        if (gainTable != null && replayGainMode != ReplayGain.Mode.OFF && song.getId() != Song.NO_ID) {
+            gain = gainTable.getTrackGain(song.getId(), new File(song.getPath()).lastModified());
+            if (!Double.isNaN(gain) && replayGainMode == ReplayGain.Mode.ALBUM && song.getAlbumId() != Song.NO_ID) {
+                double albumGain = gainTable.getAlbumGain(song.getAlbumId());
+                if (!Double.isNaN(albumGain)) {
+                    gain = albumGain;
                 }
             }
+        }
+        return ReplayGain.volumeFor(gain);
+    }
+
+    private static void setVolume(MediaPlayer player, float volume) {
+        if (player == null) {
+            return;
+        }
+        try {
+            player.setVolume(volume, volume);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Keeps nextPlayer in step with whatever the queue says comes next
+    private void lineUpNextSong() {
+        Song song = queue.peekNext();
+        if (nextSong != null && song != null && nextSong.getPath().equals(song.getPath())) {
+            return;
+        }
+        cancelNextPlayer();
+        nextSong = song;
+        warmUp(song);
+        scheduleNextPrepare();
+    }
+
+    public void setReadAheadBytes(int bytes) {
+        playerHandler.post(() -> {
+            readAheadBytes = Math.max(0, bytes);
+            // Players already set up keep what they have, the warmed track is redone at the new size
+            closeQuietly(warmedSource);
+            warmedSource = null;
+            warmedPath = null;
+            warmUp(nextSong);
+        });
+    }
+
+    private void warmUp(Song song) {
+        if (song != null && song.getPath().equals(warmedPath) && warmedSource != null) {
+            return;
+        }
+        closeQuietly(warmedSource);
+        warmedSource = song != null ? openReadAhead(song.getPath()) : null;
+        warmedPath = warmedSource != null ? song.getPath() : null;
+    }
+
+    // Uses the warmed source if it's for this path; returns the buffered source the player now owns, if any
+    private ReadAheadDataSource setDataSource(MediaPlayer player, String path) throws IOException {
+        ReadAheadDataSource source;
+        if (warmedSource != null && path.equals(warmedPath)) {
+            source = warmedSource;
+            warmedSource = null;
+            warmedPath = null;
+        } else {
+            source = openReadAhead(path);
+        }
+        try {
+            if (source != null) {
+                player.setDataSource(source);
+            } else {
+                player.setDataSource(path);
+            }
+        } catch (IOException | IllegalStateException e) {
+            closeQuietly(source);
+            throw e;
+        }
+        return source;
+    }
+
+    private ReadAheadDataSource openReadAhead(String path) {
+        if (readAheadBytes <= 0 || !ReadAheadDataSource.isOnRemovableStorage(path)) {
+            return null;
+        }
+        try {
+            return ReadAheadDataSource.open(path, readAheadBytes);
+        } catch (IOException e) {
+            // MediaPlayer will report the problem when it tries the path itself
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void closeQuietly(ReadAheadDataSource source) {
+        if (source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Uri getAlbumArtUri(Song song) {
+        if (song.getAlbumId() == Song.NO_ID) {
+            return null;
+        }
+        return ContentUris.withAppendedId(ALBUM_ART_URI, song.getAlbumId());
+    }
+
+    private void scheduleNextPrepare() {
+        playerHandler.removeCallbacks(prepareNextRunnable);
+        playerHandler.removeCallbacks(crossfadeStartRunnable);
+        if (!gaplessEnabled || nextSong == null || mediaPlayer == null || !isPlaying || preparing) {
+            return;
+        }
+        int remaining = mediaPlayer.getDuration() - mediaPlayer.getCurrentPosition();
+        if (!nextPrepared) {
+            playerHandler.postDelayed(prepareNextRunnable,
+                    Math.max(0, remaining - GAPLESS_PREPARE_LEAD_MS - crossfadeMs));
+        } else if (crossfadeMs > 0) {
+            playerHandler.postDelayed(crossfadeStartRunnable, Math.max(0, remaining - crossfadeMs));
+        }
+    }
+
+    private void prepareNextPlayer() {
+        if (nextSong == null || mediaPlayer == null) {
+            return;
+        }
+        if (nextPlayer == null) {
+            nextPlayer = new MediaPlayer();
+            nextPlayer.setOnCompletionListener(this::onTrackCompleted);
+        }
+        MediaPlayer player = nextPlayer;
+        String path = nextSong.getPath();
+        try {
+            player.reset();
+            closeQuietly(nextPlayerSource);
+            nextPlayerSource = setDataSource(player, path);
+            nextGain = gainVolume(nextSong);
+            setVolume(player, nextGain);
+            long prepareStart = SystemClock.elapsedRealtime();
+            player.setOnErrorListener((mp, what, extra) -> onNextPlayerFailed(mp, path, what, extra));
+            player.setOnPreparedListener(mp -> {
+                PREPARE_LATENCY.record(SystemClock.elapsedRealtime() - prepareStart);
+                // Ignore if the queue changed while we were preparing
+                if (mp != nextPlayer || nextSong == null || !path.equals(nextSong.getPath()) || mediaPlayer == null) {
+                    return;
+                }
+                nextPrepared = true;
+                if (crossfadeMs == 0) {
+                    mediaPlayer.setNextMediaPlayer(mp);
+                } else {
+                    // Started by hand when the fade begins
+                    scheduleNextPrepare();
+                }
+            });
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException e) {
+            e.printStackTrace();
+            cancelNextPlayer();
+        }
+    }
+
+    // Stays attached once the player takes over as mediaPlayer, so covers both roles
+    private boolean onNextPlayerFailed(MediaPlayer mp, String path, int what, int extra) {
+        if (mp == mediaPlayer) {
+            Log.w(TAG, "Playback failed for " + currentSongPath + " (" + what + ", " + extra + ")");
+            stopAfterFailure();
+        } else if (mp == nextPlayer) {
+            // Not chained any more, so the current track ends normally and playSong gives this one
+            // another try, which stops playback if it fails as well
+            Log.w(TAG, "Can't line up " + path + " (" + what + ", " + extra + ")");
+            cancelNextPlayer();
+        } else if (mp == fadingPlayer) {
+            // The new track carries on alone
+            finishCrossfade();
+        }
+        return true;
+    }
+
+    private void cancelNextPlayer() {
+        playerHandler.removeCallbacks(prepareNextRunnable);
+        if (mediaPlayer != null && nextPrepared) {
+            mediaPlayer.setNextMediaPlayer(null);
+        }
+        if (nextPlayer != null) {
+            nextPlayer.reset();
+        }
+        closeQuietly(nextPlayerSource);
+        nextPlayerSource = null;
+        nextPrepared = false;
+    }
+
+    private void onTrackCompleted(MediaPlayer mp) {
+        if (mp == fadingPlayer) {
+            // Ran out a little before the ramp did
+            finishCrossfade();
+            return;
+        }
+        if (mp != mediaPlayer) {
+            return;
+        }
+        if (nextPrepared && nextPlayer != null && crossfadeMs == 0) {
+            // The framework already started the chained player, just swap roles
+            MediaPlayer finished = mediaPlayer;
+            mediaPlayer = nextPlayer;
+            nextPlayer = finished;
+            nextPlayer.reset();
+            closeQuietly(currentSource);
+            currentSource = nextPlayerSource;
+            nextPlayerSource = null;
+            currentGain = nextGain;
+            nextPrepared = false;
+            moveToNextSong();
+            return;
+        }
+        Song song = queue.moveToNext(false);
+        if (song != null) {
+            // Next track wasn't ready in time (e.g. a very short track), start it the normal way
+            playSong(song, SystemClock.elapsedRealtime(), null);
+        } else {
+            isPlaying = false;
+            notifyPlaybackStateChanged();
+        }
+    }
+
+    // Called once nextPlayer has taken over as mediaPlayer; nextSong always mirrors the queue, so this lands on it
+    private void moveToNextSong() {
+        Song song = queue.moveToNext(false);
+        nextSong = null;
+        this.currentSongPath = song.getPath();
+        this.currentSongTitle = song.getTitle();
+        this.currentSongArtist = song.getArtist();
+        this.currentAlbumArtUri = getAlbumArtUri(song);
+        this.isPlaying = true;
+
+        // The progress loop is still running and picks up the new player
+        notifySongChanged();
+        notifyPlaybackStateChanged();
+        lineUpNextSong();
+    }
+
+    /**
+     * Fades are off (0) by default, which keeps gapless playback. Otherwise the
+     * prepared next track is started by hand this long before the current one
+     * ends and the two are ramped on the playback thread. Needs gapless
+     * playback to be enabled, since the next track is lined up the same way.
+     */
+    public void setCrossfade(int millis, FadeCurve curve) {
+        playerHandler.post(() -> {
+            crossfadeMs = Math.max(0, Math.min(MAX_CROSSFADE_MS, millis));
+            fadeCurve = curve;
+            // A next track chained for gapless (or held back for a fade) has to be lined up again
+            cancelNextPlayer();
+            scheduleNextPrepare();
         });
     }
 
+    private void startCrossfade() {
+        if (!nextPrepared || nextPlayer == null || mediaPlayer == null || !isPlaying || preparing) {
+            return;
+        }
+        long remaining = mediaPlayer.getDuration() - mediaPlayer.getCurrentPosition();
+        // Tracks shorter than two fades: the previous fade is cut short rather than overlapping three players
+        finishCrossfade();
+
+        fadingPlayer = mediaPlayer;
+        fadingSource = currentSource;
+        fadingGain = currentGain;
+        mediaPlayer = nextPlayer;
+        currentSource = nextPlayerSource;
+        currentGain = nextGain;
+        nextPlayer = null;
+        nextPlayerSource = null;
+        nextPrepared = false;
+
+        setVolume(mediaPlayer, 0f);
+        mediaPlayer.start();
+        long now = SystemClock.uptimeMillis();
+        fadeRamp = new FadeRamp(now, Math.max(FADE_STEP_MS, Math.min(crossfadeMs, remaining)), FADE_STEP_MS);
+        nextFadeStepAt = now;
+        CROSSFADES.increment();
+        stepCrossfade();
+        moveToNextSong();
+    }
+
+    // Runs on the playback thread at each step of the ramp
+    private void stepCrossfade() {
+        if (fadeRamp == null) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        FADE_JITTER.record(now - nextFadeStepAt);
+        float progress = fadeRamp.progressAt(now);
+        setVolume(fadingPlayer, fadingGain * fadeCurve.fadeOut(progress));
+        setVolume(mediaPlayer, currentGain * fadeCurve.fadeIn(progress));
+        if (fadeRamp.isFinishedAt(now)) {
+            finishCrossfade();
+            return;
+        }
+        nextFadeStepAt = fadeRamp.nextStepAfter(now);
+        playerHandler.postAtTime(fadeStepRunnable, nextFadeStepAt);
+    }
+
+    /**
+     * Ends a running fade at once. The outgoing player is released rather than
+     * kept for reuse: its decoder and buffers go straight away and the next
+     * track gets a fresh player, so hours of fades never hold more than two.
+     */
+    private void finishCrossfade() {
+        playerHandler.removeCallbacks(fadeStepRunnable);
+        if (fadingPlayer == null) {
+            return;
+        }
+        fadingPlayer.release();
+        fadingPlayer = null;
+        closeQuietly(fadingSource);
+        fadingSource = null;
+        fadeRamp = null;
+        setVolume(mediaPlayer, currentGain);
+    }
+
+    // Wakes up only when the earliest subscriber is due and marks everyone due by then
+    private final Runnable progressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mediaPlayer == null || !isPlaying || preparing || progressSubscriptions.isEmpty()) {
+                return;
+            }
+            // Runs every tick: no iterators, boxing or other allocations in here
+            long now = SystemClock.uptimeMillis();
+            long nextWakeUp = Long.MAX_VALUE;
+            boolean anyDue = false;
+            Object[] subscriptions = progressSubscriptions.snapshot();
+            for (int i = 0; i < subscriptions.length; i++) {
+                ProgressSubscription subscription = (ProgressSubscription) subscriptions[i];
+                if (subscription.nextDueAt <= now) {
+                    subscription.nextDueAt = now + subscription.intervalMs;
+                    subscription.due = true;
+                    anyDue = true;
+                }
+                nextWakeUp = Math.min(nextWakeUp, subscription.nextDueAt);
+            }
+            if (anyDue) {
+                lastPosition = mediaPlayer.getCurrentPosition();
+                lastDuration = mediaPlayer.getDuration();
+                mainHandler.post(deliverProgressRunnable);
+            }
+            if (subscriptions.length > 0) {
+                playerHandler.postAtTime(this, nextWakeUp);
+            }
+        }
+    };
+
+    private void startProgressUpdates() {
+        // Never run two loops when a new song starts while the old one was ticking
+        playerHandler.removeCallbacks(progressRunnable);
+        if (!progressSubscriptions.isEmpty()) {
+            playerHandler.post(progressRunnable);
+        }
+    }
+
     private void stopProgressUpdates() {
-        handler.removeCallbacksAndMessages(null);
+        playerHandler.removeCallbacks(progressRunnable);
     }
 
     public boolean isPlaying() {
-        return isPlaying;
+        return state.isPlaying();
     }
 
     public String getCurrentSongPath() {
-        return currentSongPath;
+        return state.getSongPath();
     }
 
     public String getCurrentSongTitle() {
-        return currentSongTitle;
+        return state.getTitle();
     }
 
     public String getCurrentSongArtist() {
-        return currentSongArtist;
+        return state.getArtist();
     }
 
     public Uri getCurrentAlbumArtUri() {
-        return currentAlbumArtUri;
+        return state.getAlbumArtUri();
     }
 
+    // Commands sent before this still run, then the players are freed and the thread ends
     public void release() {
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-            mediaPlayer = null;
+        synchronized (MediaPlayerManager.class) {
+            if (instance == this) {
+                instance = null;
+            }
         }
-        handler.removeCallbacksAndMessages(null);
         listeners.clear();
-        instance = null;
-    }
-
-    public void playNext() {
-        // Notify listeners to handle next song
-        for (OnPlaybackChangeListener listener : listeners) {
-            if (listener instanceof OnPlaybackControlListener) {
-                ((OnPlaybackControlListener) listener).onNext();
+        progressSubscriptions.clear();
+        mainHandler.removeCallbacksAndMessages(null);
+        playerHandler.post(() -> {
+            playerHandler.removeCallbacksAndMessages(null);
+            if (mediaPlayer != null) {
+                mediaPlayer.release();
+                mediaPlayer = null;
             }
-        }
-    }
-
-    public void playPrevious() {
-        // Notify listeners to handle previous song
-        for (OnPlaybackChangeListener listener : listeners) {
-            if (listener instanceof OnPlaybackControlListener) {
-                ((OnPlaybackControlListener) listener).onPrevious();
+            if (nextPlayer != null) {
+                nextPlayer.release();
+                nextPlayer = null;
             }
-        }
+            finishCrossfade();
+            nextSong = null;
+            nextPrepared = false;
+            closeQuietly(currentSource);
+            closeQuietly(nextPlayerSource);
+            closeQuietly(warmedSource);
+            currentSource = null;
+            nextPlayerSource = null;
+            warmedSource = null;
+            queue.clear();
+        });
+        playbackThread.quitSafely();
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.marabytes.musicplayernew;
 
+import android.annotation.SuppressLint;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -7,31 +8,63 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
-import com.bumptech.glide.Glide;
+import com.marabytes.musicplayernew.art.ArtworkLoader;
+import com.marabytes.musicplayernew.metrics.Counter;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.playback.PlaybackState;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Objects;
 
 public class MusicService extends Service {
     private static final String CHANNEL_ID = "MusicPlayerChannel";
     private static final int NOTIFICATION_ID = 1;
+    private static final long NOTIFICATION_DEBOUNCE_MS = 150;
+
+    private static final Counter NOTIFICATION_BUILDS = Metrics.getInstance().counter(Metrics.NOTIFICATION_BUILDS);
     
     private MediaPlayerManager mediaPlayerManager;
     private MediaSessionCompat mediaSession;
     private NotificationManagerCompat notificationManager;
+    private ArtworkLoader artworkLoader;
+    private Handler handler;
+    private int largeIconSize;
+    private MediaPlayerManager.OnPlaybackChangeListener playbackChangeListener;
+
+    private NotificationCompat.Builder notificationBuilder;
+    private NotificationCompat.Action prevAction;
+    private NotificationCompat.Action playAction;
+    private NotificationCompat.Action pauseAction;
+    private NotificationCompat.Action nextAction;
+    private boolean foregroundStarted = false;
+    // What the posted notification currently shows
+    private String renderedTitle;
+    private String renderedArtist;
+    private Boolean renderedIsPlaying;
+    private Uri renderedArtUri;
+
+    private final Runnable renderNotificationRunnable = this::renderNotification;
 
     @Override
     public void onCreate() {
         super.onCreate();
         mediaPlayerManager = MediaPlayerManager.getInstance();
         notificationManager = NotificationManagerCompat.from(this);
+        artworkLoader = ArtworkLoader.getInstance(this);
+        handler = new Handler(Looper.getMainLooper());
+        largeIconSize = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
         
         // Create notification channel for Android O and above
         createNotificationChannel();
@@ -39,24 +72,21 @@ public class MusicService extends Service {
         // Initialize MediaSession
         mediaSession = new MediaSessionCompat(this, "MusicPlayerSession");
         mediaSession.setActive(true);
+        createNotificationBuilder();
         
         // Add listener to update notification when playback changes
-        mediaPlayerManager.addListener(new MediaPlayerManager.OnPlaybackChangeListener() {
+        playbackChangeListener = new MediaPlayerManager.OnPlaybackChangeListener() {
             @Override
             public void onPlaybackStateChanged(boolean isPlaying) {
                 updateNotification();
             }
 
-            @Override
-            public void onProgressChanged(int progress, int duration) {
-                // Not needed for notification
-            }
-
             @Override
             public void onSongChanged(String songPath) {
                 updateNotification();
             }
-        });
+        };
+        mediaPlayerManager.addListener(playbackChangeListener);
     }
 
     private void createNotificationChannel() {
@@ -72,36 +102,31 @@ public class MusicService extends Service {
         }
     }
 
-    private void updateNotification() {
+    private void createNotificationBuilder() {
         // Create pending intent for opening the app
         Intent intent = new Intent(this, MainActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         PendingIntent pendingIntent = PendingIntent.getActivity(
             this, 0, intent, PendingIntent.FLAG_IMMUTABLE);
 
-        // Create action buttons
-        NotificationCompat.Action prevAction = new NotificationCompat.Action(
+        // Create action buttons once, only the play/pause one is swapped later
+        prevAction = new NotificationCompat.Action(
             android.R.drawable.ic_media_previous,
             "Previous",
             createActionIntent("PREVIOUS"));
-
-        NotificationCompat.Action playPauseAction = new NotificationCompat.Action(
-            mediaPlayerManager.isPlaying() ? 
-                android.R.drawable.ic_media_pause : 
-                android.R.drawable.ic_media_play,
-            mediaPlayerManager.isPlaying() ? "Pause" : "Play",
-            createActionIntent("PLAY_PAUSE"));
-
-        NotificationCompat.Action nextAction = new NotificationCompat.Action(
+        PendingIntent playPauseIntent = createActionIntent("PLAY_PAUSE");
+        playAction = new NotificationCompat.Action(
+            android.R.drawable.ic_media_play, "Play", playPauseIntent);
+        pauseAction = new NotificationCompat.Action(
+            android.R.drawable.ic_media_pause, "Pause", playPauseIntent);
+        nextAction = new NotificationCompat.Action(
             android.R.drawable.ic_media_next,
             "Next",
             createActionIntent("NEXT"));
 
-        // Build the notification
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+        // The parts that never change
+        notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
             .setSmallIcon(R.drawable.ic_music_note)
-            .setContentTitle(mediaPlayerManager.getCurrentSongTitle())
-            .setContentText(mediaPlayerManager.getCurrentSongArtist())
             .setOnlyAlertOnce(true)
             .setShowWhen(false)
             .setOngoing(true)
@@ -109,30 +134,75 @@ public class MusicService extends Service {
             .setContentIntent(pendingIntent)
             .setStyle(new androidx.media.app.NotificationCompat.MediaStyle()
                 .setMediaSession(mediaSession.getSessionToken())
-                .setShowActionsInCompactView(0, 1, 2))
-            .addAction(prevAction)
-            .addAction(playPauseAction)
-            .addAction(nextAction);
-
-        // Load album art asynchronously
-        try {
-            Uri albumArtUri = mediaPlayerManager.getCurrentAlbumArtUri();
-            if (albumArtUri != null) {
-                Bitmap albumArt = Glide.with(this)
-                    .asBitmap()
-                    .load(albumArtUri)
-                    .submit()
-                    .get();
-                builder.setLargeIcon(albumArt);
+                .setShowActionsInCompactView(0, 1, 2));
+    }
+
+    // Coalesces bursts like play -> pause -> skip into a single post
+    private void updateNotification() {
+        handler.removeCallbacks(renderNotificationRunnable);
+        handler.postDelayed(renderNotificationRunnable, NOTIFICATION_DEBOUNCE_MS);
+    }
+
+    private void renderNotification() {
+        if (mediaPlayerManager.getCurrentSongPath() == null) {
+            return;
+        }
+        boolean changed = false;
+
+        String title = mediaPlayerManager.getCurrentSongTitle();
+        if (!Objects.equals(title, renderedTitle)) {
+            notificationBuilder.setContentTitle(title);
+            renderedTitle = title;
+            changed = true;
+        }
+        String artist = mediaPlayerManager.getCurrentSongArtist();
+        if (!Objects.equals(artist, renderedArtist)) {
+            notificationBuilder.setContentText(artist);
+            renderedArtist = artist;
+            changed = true;
+        }
+        boolean isPlaying = mediaPlayerManager.isPlaying();
+        if (renderedIsPlaying == null || renderedIsPlaying != isPlaying) {
+            notificationBuilder.clearActions()
+                .addAction(prevAction)
+                .addAction(isPlaying ? pauseAction : playAction)
+                .addAction(nextAction);
+            renderedIsPlaying = isPlaying;
+            changed = true;
+        }
+        Uri albumArtUri = mediaPlayerManager.getCurrentAlbumArtUri();
+        if (!Objects.equals(albumArtUri, renderedArtUri)) {
+            renderedArtUri = albumArtUri;
+            Bitmap albumArt = albumArtUri != null ? artworkLoader.getCached(albumArtUri, largeIconSize) : null;
+            notificationBuilder.setLargeIcon(albumArt);
+            if (albumArt == null && albumArtUri != null) {
+                // Post without art now, the art follows once it's decoded
+                artworkLoader.load(albumArtUri, largeIconSize, bitmap -> {
+                    if (bitmap != null && albumArtUri.equals(renderedArtUri)) {
+                        notificationBuilder.setLargeIcon(bitmap);
+                        postNotification();
+                    }
+                });
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            changed = true;
         }
 
-        Notification notification = builder.build();
-        
-        // Start foreground service with notification
-        startForeground(NOTIFICATION_ID, notification);
+        if (changed || !foregroundStarted) {
+            postNotification();
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private void postNotification() {
+        Notification notification = notificationBuilder.build();
+        NOTIFICATION_BUILDS.increment();
+        if (!foregroundStarted) {
+            startForeground(NOTIFICATION_ID, notification);
+            foregroundStarted = true;
+        } else {
+            // Already in the foreground, a plain notify is enough to refresh it
+            notificationManager.notify(NOTIFICATION_ID, notification);
+        }
     }
 
     private PendingIntent createActionIntent(String action) {
@@ -157,6 +227,8 @@ public class MusicService extends Service {
                     break;
             }
         }
+        // Playback usually started before the service existed, so make sure something is shown
+        updateNotification();
         return START_STICKY;
     }
 
@@ -165,9 +237,33 @@ public class MusicService extends Service {
         return null;
     }
 
+    /**
+     * Prints the performance metrics:
+     * {@code adb shell dumpsys activity service com.marabytes.musicplayernew/.MusicService}.
+     * Append {@code reset} to clear them afterwards, e.g. between test runs.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        PlaybackState state = mediaPlayerManager.getPlaybackState();
+        writer.println("Playback: " + (state.getSongPath() != null ? state.getSongPath() : "idle")
+                + (state.isPlaying() ? ", playing" : "")
+                + (state.isPreparing() ? ", preparing" : ""));
+        writer.println("Last tap to audio: " + mediaPlayerManager.getLastTapToAudioMillis() + " ms");
+        writer.println("Metrics:");
+        Metrics.getInstance().dump(writer);
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            Metrics.getInstance().reset();
+            writer.println("Metrics reset");
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        // Stop pending renders and late art callbacks from reposting the notification
+        mediaPlayerManager.removeListener(playbackChangeListener);
+        handler.removeCallbacks(renderNotificationRunnable);
+        renderedArtUri = null;
         mediaSession.release();
         stopForeground(true);
     }
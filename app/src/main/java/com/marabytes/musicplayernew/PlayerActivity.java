@@ -3,10 +3,8 @@ package com.marabytes.musicplayernew;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.SeekBar;
@@ -15,23 +13,32 @@ import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.bumptech.glide.Glide;
+import com.marabytes.musicplayernew.library.LibraryIndex;
 import com.marabytes.musicplayernew.model.Song;
+import com.marabytes.musicplayernew.waveform.Waveform;
+import com.marabytes.musicplayernew.waveform.WaveformSeekBar;
+import com.marabytes.musicplayernew.waveform.WaveformStore;
 
-public class PlayerActivity extends AppCompatActivity implements MediaPlayerManager.OnPlaybackChangeListener {
+public class PlayerActivity extends AppCompatActivity implements MediaPlayerManager.OnPlaybackChangeListener,
+        MediaPlayerManager.OnProgressListener, WaveformStore.Listener {
     private static final String EXTRA_SONG_PATH = "songPath";
     private static final String EXTRA_ALBUM_ID = "albumId";
+    // A seek bar a few hundred pixels wide doesn't need more than ~5 updates a second
+    private static final long SEEK_BAR_UPDATE_INTERVAL_MS = 200;
 
     private ImageView albumArtImageView;
     private TextView songTitleTextView;
     private TextView artistTextView;
-    private SeekBar seekBar;
+    private WaveformSeekBar seekBar;
     private ImageButton prevButton;
     private ImageButton playPauseButton;
     private ImageButton nextButton;
     private String currentSongPath;
     private String albumId;
+    private long songId = Song.NO_ID;
     
     private MediaPlayerManager mediaPlayerManager;
+    private WaveformStore waveformStore;
 
     public static Intent newIntent(Context context, Song song, long albumId) {
         Intent intent = new Intent(context, PlayerActivity.class);
@@ -49,6 +56,7 @@ public class PlayerActivity extends AppCompatActivity implements MediaPlayerMana
         albumId = getIntent().getStringExtra(EXTRA_ALBUM_ID);
 
         mediaPlayerManager = MediaPlayerManager.getInstance();
+        waveformStore = WaveformStore.getInstance(this);
 
         initializeViews();
         loadSongDetails();
@@ -56,6 +64,7 @@ public class PlayerActivity extends AppCompatActivity implements MediaPlayerMana
         
         // Register as listener
         mediaPlayerManager.addListener(this);
+        waveformStore.addListener(this);
     }
 
     private void initializeViews() {
@@ -72,43 +81,54 @@ public class PlayerActivity extends AppCompatActivity implements MediaPlayerMana
     }
 
     private void loadSongDetails() {
-        String[] projection = {
-            MediaStore.Audio.Media.TITLE,
-            MediaStore.Audio.Media.ARTIST
-        };
-        
-        String selection = MediaStore.Audio.Media.DATA + "=?";
-        String[] selectionArgs = {currentSongPath};
-        
-        try (Cursor cursor = getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                selectionArgs,
-                null)) {
-
-            if (cursor != null && cursor.moveToFirst()) {
-                String title = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
-                String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
-
-                songTitleTextView.setText(title);
-                artistTextView.setText(artist);
-
-                if (albumId != null) {
-                    Uri albumArtUri = ContentUris.withAppendedId(Uri.parse("content://media/external/audio/albumart"), Long.parseLong(albumId));
-                    Glide.with(this)
-                            .load(albumArtUri)
-                            .error(R.drawable.noart)
-                            .into(albumArtImageView);
-                }
-            }
+        String title;
+        String artist;
+        Song song = LibraryIndex.getInstance().findByPath(currentSongPath);
+        if (song != null) {
+            title = song.getTitle();
+            artist = song.getArtist();
+            albumId = String.valueOf(song.getAlbumId());
+            showWaveform(song);
+        } else if (currentSongPath.equals(mediaPlayerManager.getCurrentSongPath())) {
+            // Not in the loaded library (e.g. it was just rescanned), use what the player knows
+            title = mediaPlayerManager.getCurrentSongTitle();
+            artist = mediaPlayerManager.getCurrentSongArtist();
+            Uri artUri = mediaPlayerManager.getCurrentAlbumArtUri();
+            albumId = artUri != null ? artUri.getLastPathSegment() : null;
+            seekBar.setWaveform(null);
+        } else {
+            return;
         }
+
+        songTitleTextView.setText(title);
+        artistTextView.setText(artist);
+
+        if (albumId != null) {
+            Uri albumArtUri = ContentUris.withAppendedId(Uri.parse("content://media/external/audio/albumart"), Long.parseLong(albumId));
+            Glide.with(this)
+                    .load(albumArtUri)
+                    .error(R.drawable.noart)
+                    .into(albumArtImageView);
+        } else {
+            Glide.with(this).clear(albumArtImageView);
+            albumArtImageView.setImageResource(R.drawable.noart);
+        }
+    }
+
+    // Summaries are precomputed in the background, so normally this is just a cache read; it
+    // arrives through onWaveformReady either way
+    private void showWaveform(Song song) {
+        songId = song.getId();
+        // The previous track's bars must not linger while this one's are looked up
+        seekBar.setWaveform(null);
+        waveformStore.request(song);
     }
 
     private void setupClickListeners() {
         playPauseButton.setOnClickListener(v -> mediaPlayerManager.togglePlayPause());
         prevButton.setOnClickListener(v -> restartSong());
-        nextButton.setOnClickListener(v -> finish());
+        // The screen follows the queue, onSongChanged rebinds it to the new track
+        nextButton.setOnClickListener(v -> mediaPlayerManager.playNext());
         
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
@@ -147,16 +167,39 @@ public class PlayerActivity extends AppCompatActivity implements MediaPlayerMana
         seekBar.setProgress(progress);
     }
 
+    @Override
+    public void onWaveformReady(long readySongId, Waveform waveform) {
+        if (readySongId == songId) {
+            seekBar.setWaveform(waveform);
+        }
+    }
+
     @Override
     public void onSongChanged(String songPath) {
-        if (!songPath.equals(currentSongPath)) {
-            finish(); // Close activity if a different song is played
+        // Gapless and crossfaded tracks change with no user action, so stay open and show the new one
+        if (songPath != null && !songPath.equals(currentSongPath)) {
+            currentSongPath = songPath;
+            loadSongDetails();
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Only tick the seek bar while it can actually be seen
+        mediaPlayerManager.addProgressListener(this, SEEK_BAR_UPDATE_INTERVAL_MS);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mediaPlayerManager.removeProgressListener(this);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         mediaPlayerManager.removeListener(this);
+        waveformStore.removeListener(this);
     }
 } 
\ No newline at end of file
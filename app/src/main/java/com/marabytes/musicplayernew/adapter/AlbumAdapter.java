@@ -1,6 +1,7 @@
 package com.marabytes.musicplayernew.adapter;
 
-import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,26 +10,69 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 import com.marabytes.musicplayernew.R;
 import com.marabytes.musicplayernew.model.Album;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
-public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHolder> {
-    private List<Album> albums;
+/**
+ * The horizontal albums row. Covers are decoded by Glide off the main thread
+ * at the cell's pixel size, and the next few covers in the scroll direction
+ * are loaded ahead of time so they're in memory before they scroll in.
+ */
+public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHolder>
+        implements ListPreloader.PreloadModelProvider<Album> {
+    // A bit more than one screen of covers
+    private static final int COVERS_TO_PRELOAD = 6;
+
+    private final BackgroundDiffer<Album> differ;
+    private final RequestManager glide;
+    private final int coverSize;
     private OnAlbumClickListener listener;
 
     public interface OnAlbumClickListener {
         void onAlbumClick(Album album);
     }
 
-    public AlbumAdapter(List<Album> albums, OnAlbumClickListener listener) {
-        this.albums = albums;
+    // Covers load with the lifecycle of the context's activity, if it is one
+    public AlbumAdapter(Context context, List<Album> albums, OnAlbumClickListener listener) {
+        this.differ = new BackgroundDiffer<>(this, DIFF_CALLBACK, albums);
+        this.glide = Glide.with(context);
+        this.coverSize = context.getResources().getDimensionPixelSize(R.dimen.album_cover_size);
         this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    // Call once for the RecyclerView showing this adapter
+    public void attachPreloader(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerViewPreloader<>(glide, this,
+                new FixedPreloadSizeProvider<>(coverSize, coverSize), COVERS_TO_PRELOAD));
     }
 
+    private static final DiffUtil.ItemCallback<Album> DIFF_CALLBACK = new DiffUtil.ItemCallback<Album>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Album oldAlbum, @NonNull Album newAlbum) {
+            return Objects.equals(oldAlbum.getId(), newAlbum.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Album oldAlbum, @NonNull Album newAlbum) {
+            return oldAlbum.equals(newAlbum);
+        }
+    };
+
     @NonNull
     @Override
     public AlbumViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -39,33 +83,75 @@ public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHol
 
     @Override
     public void onBindViewHolder(@NonNull AlbumViewHolder holder, int position) {
-        Album album = albums.get(position);
+        Album album = differ.get(position);
         holder.albumTitle.setText(album.getTitle());
         holder.albumArtist.setText(album.getArtist());
-        
-        // Load album art
+
         if (album.getAlbumArt() != null) {
-            Uri albumArtUri = Uri.parse(album.getAlbumArt());
-            holder.albumCover.setImageURI(albumArtUri);
-            // Use a fallback if album art URI is null or not loading
-            if (holder.albumCover.getDrawable() == null) {
-                holder.albumCover.setImageResource(android.R.drawable.ic_menu_gallery);
-            }
+            coverRequest(album).into(holder.albumCover);
         } else {
+            glide.clear(holder.albumCover);
             holder.albumCover.setImageResource(android.R.drawable.ic_menu_gallery);
         }
-        
+
         holder.itemView.setOnClickListener(v -> listener.onAlbumClick(album));
     }
 
+    @Override
+    public void onViewRecycled(@NonNull AlbumViewHolder holder) {
+        // Drop the request (and its bitmap reference) of a cover that scrolled away
+        glide.clear(holder.albumCover);
+    }
+
+    @NonNull
+    @Override
+    public List<Album> getPreloadItems(int position) {
+        if (position >= differ.size()) {
+            return Collections.emptyList();
+        }
+        Album album = differ.get(position);
+        return album.getAlbumArt() != null ? Collections.singletonList(album) : Collections.emptyList();
+    }
+
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Album album) {
+        return coverRequest(album);
+    }
+
+    // Binding and preloading must build the same request, or the preloaded bitmap isn't found in the cache.
+    // Covers are opaque, so RGB_565 halves their memory; Glide keeps ARGB_8888 for art with transparency
+    private RequestBuilder<Drawable> coverRequest(Album album) {
+        return glide.load(Uri.parse(album.getAlbumArt()))
+                .format(DecodeFormat.PREFER_RGB_565)
+                .override(coverSize)
+                .centerCrop()
+                .placeholder(android.R.drawable.ic_menu_gallery)
+                .error(android.R.drawable.ic_menu_gallery);
+    }
+
     @Override
     public int getItemCount() {
-        return albums.size();
+        return differ.size();
     }
 
+    @Override
+    public long getItemId(int position) {
+        String id = differ.get(position).getId();
+        // Album ids are MediaStore ids stored as strings
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return id != null ? id.hashCode() : RecyclerView.NO_ID;
+        }
+    }
+
+    // The adapter keeps its own copy; the new list is diffed off the main thread
     public void updateAlbums(List<Album> newAlbums) {
-        this.albums = newAlbums;
-        notifyDataSetChanged();
+        differ.submit(newAlbums);
+    }
+
+    public void appendAlbums(List<Album> moreAlbums) {
+        differ.append(moreAlbums);
     }
 
     static class AlbumViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,183 @@
+package com.marabytes.musicplayernew.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns an adapter's list and turns replacements into item-level updates by
+ * diffing on a background thread, like AsyncListDiffer. Unlike AsyncListDiffer
+ * it can also append or remove rows directly, so paging in a large library
+ * doesn't re-diff everything that is already shown.
+ *
+ * <p>Lists are normally copied on the way in. Immutable snapshots (such as a
+ * {@code SongCatalog} view) can be handed over as they are, so a large
+ * library is never copied into Song objects just to be shown.
+ */
+class BackgroundDiffer<T> {
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final DiffUtil.ItemCallback<T> itemCallback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // What the adapter currently shows
+    private List<T> current;
+    // What it will show once pending diffs land; same object as current when settled
+    private List<T> latest;
+    // False when current is a caller's snapshot, which must not be modified
+    private boolean ownsCurrent = true;
+    private int generation = 0;
+
+    BackgroundDiffer(RecyclerView.Adapter<?> adapter, DiffUtil.ItemCallback<T> itemCallback, List<T> initial) {
+        this.adapter = adapter;
+        this.itemCallback = itemCallback;
+        this.current = new ArrayList<>(initial);
+        this.latest = current;
+    }
+
+    List<T> getCurrentList() {
+        return Collections.unmodifiableList(current);
+    }
+
+    T get(int position) {
+        return current.get(position);
+    }
+
+    int size() {
+        return current.size();
+    }
+
+    void submit(List<T> newList) {
+        submit(new ArrayList<>(newList), true);
+    }
+
+    // The snapshot is kept as is, the caller promises it never changes
+    void submitSnapshot(List<T> snapshot) {
+        submit(snapshot, false);
+    }
+
+    private void submit(List<T> target, boolean owned) {
+        int submitGeneration = ++generation;
+        List<T> oldList = current;
+        latest = target;
+
+        // Nothing to diff against, apply straight away
+        if (oldList.isEmpty() || target.isEmpty()) {
+            current = target;
+            ownsCurrent = owned;
+            if (!oldList.isEmpty()) {
+                adapter.notifyItemRangeRemoved(0, oldList.size());
+            }
+            if (!target.isEmpty()) {
+                adapter.notifyItemRangeInserted(0, target.size());
+            }
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldList.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return target.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return itemCallback.areItemsTheSame(oldList.get(oldPosition), target.get(newPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return itemCallback.areContentsTheSame(oldList.get(oldPosition), target.get(newPosition));
+                }
+            });
+            mainHandler.post(() -> {
+                // A newer submit superseded this one
+                if (submitGeneration != generation) {
+                    return;
+                }
+                current = target;
+                ownsCurrent = owned;
+                result.dispatchUpdatesTo(adapter);
+            });
+        });
+    }
+
+    void append(List<T> more) {
+        if (more.isEmpty()) {
+            return;
+        }
+        if (current != latest) {
+            // A diff is in flight, fold the new rows into it
+            List<T> combined = new ArrayList<>(latest);
+            combined.addAll(more);
+            submit(combined);
+            return;
+        }
+        int start = current.size();
+        ownCurrent();
+        current.addAll(more);
+        adapter.notifyItemRangeInserted(start, more.size());
+    }
+
+    // The snapshot must start with exactly the rows shown now, e.g. a newer view of an append-only list
+    void extendToSnapshot(List<T> snapshot) {
+        if (current != latest) {
+            submitSnapshot(snapshot);
+            return;
+        }
+        int start = current.size();
+        current = snapshot;
+        latest = snapshot;
+        ownsCurrent = false;
+        if (snapshot.size() > start) {
+            adapter.notifyItemRangeInserted(start, snapshot.size() - start);
+        }
+    }
+
+    void remove(int position) {
+        if (current != latest) {
+            List<T> remaining = new ArrayList<>(latest);
+            remaining.remove(position);
+            submit(remaining);
+            return;
+        }
+        ownCurrent();
+        current.remove(position);
+        adapter.notifyItemRemoved(position);
+    }
+
+    // Same as remove(position), for when the caller already has a snapshot without that row
+    void removeToSnapshot(int position, List<T> snapshot) {
+        if (current != latest) {
+            submitSnapshot(snapshot);
+            return;
+        }
+        current = snapshot;
+        latest = snapshot;
+        ownsCurrent = false;
+        adapter.notifyItemRemoved(position);
+    }
+
+    private void ownCurrent() {
+        if (!ownsCurrent) {
+            current = new ArrayList<>(current);
+            latest = current;
+            ownsCurrent = true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.marabytes.musicplayernew.adapter;
+
+import android.net.Uri;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.marabytes.musicplayernew.R;
+
+/**
+ * Single-row adapter for the top of the home list: the banner, the albums row
+ * and the songs section title. Song rows follow it in the same RecyclerView.
+ */
+public class HomeHeaderAdapter extends RecyclerView.Adapter<HomeHeaderAdapter.HeaderViewHolder> {
+    // About as many album cells as fit across a phone screen
+    private static final int ALBUMS_PREFETCHED = 4;
+    // Only one row; the home list isolates each adapter's ids, so any constant will do
+    private static final long HEADER_ID = 0;
+
+    private final AlbumAdapter albumAdapter;
+    private final View.OnClickListener seeAllAlbumsListener;
+    private final View.OnClickListener seeAllSongsListener;
+    private Uri bannerArtUri;
+    private boolean visible = true;
+
+    public HomeHeaderAdapter(AlbumAdapter albumAdapter,
+                             View.OnClickListener seeAllAlbumsListener,
+                             View.OnClickListener seeAllSongsListener) {
+        this.albumAdapter = albumAdapter;
+        this.seeAllAlbumsListener = seeAllAlbumsListener;
+        this.seeAllSongsListener = seeAllSongsListener;
+        setHasStableIds(true);
+    }
+
+    @NonNull
+    @Override
+    public HeaderViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_home_header, parent, false);
+        HeaderViewHolder holder = new HeaderViewHolder(view);
+        // Attach once here so rebinding the banner doesn't reset the albums row
+        holder.albumsRecyclerView.setAdapter(albumAdapter);
+        holder.albumsRecyclerView.setHasFixedSize(true);
+        albumAdapter.attachPreloader(holder.albumsRecyclerView);
+        // Lets the outer list prefetch the first album cells along with the header itself
+        ((LinearLayoutManager) holder.albumsRecyclerView.getLayoutManager())
+                .setInitialPrefetchItemCount(ALBUMS_PREFETCHED);
+        holder.seeAllAlbums.setOnClickListener(seeAllAlbumsListener);
+        holder.seeAllSongs.setOnClickListener(seeAllSongsListener);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull HeaderViewHolder holder, int position) {
+        if (bannerArtUri != null) {
+            holder.bannerImage.setImageURI(bannerArtUri);
+            // Use a fallback if album art URI is not loading
+            if (holder.bannerImage.getDrawable() == null) {
+                holder.bannerImage.setImageResource(android.R.drawable.ic_menu_gallery);
+            }
+        } else {
+            holder.bannerImage.setImageResource(android.R.drawable.ic_menu_gallery);
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return HEADER_ID;
+    }
+
+    @Override
+    public int getItemCount() {
+        return visible ? 1 : 0;
+    }
+
+    public void setBannerArt(Uri albumArtUri) {
+        this.bannerArtUri = albumArtUri;
+        if (visible) {
+            notifyItemChanged(0);
+        }
+    }
+
+    // Hidden while search results take over the list
+    public void setVisible(boolean visible) {
+        if (this.visible == visible) {
+            return;
+        }
+        this.visible = visible;
+        if (visible) {
+            notifyItemInserted(0);
+        } else {
+            notifyItemRemoved(0);
+        }
+    }
+
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        ImageView bannerImage;
+        RecyclerView albumsRecyclerView;
+        TextView seeAllAlbums;
+        TextView seeAllSongs;
+
+        HeaderViewHolder(View itemView) {
+            super(itemView);
+            bannerImage = itemView.findViewById(R.id.bannerImage);
+            albumsRecyclerView = itemView.findViewById(R.id.albumsRecyclerView);
+            seeAllAlbums = itemView.findViewById(R.id.seeAllAlbums);
+            seeAllSongs = itemView.findViewById(R.id.seeAllSongs);
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package com.marabytes.musicplayernew.adapter;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,16 +8,17 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.marabytes.musicplayernew.R;
+import com.marabytes.musicplayernew.art.ArtworkLoader;
 import com.marabytes.musicplayernew.model.Song;
 
-import java.io.IOException;
 import java.util.List;
 
 public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder> {
-    private List<Song> songs;
+    private final BackgroundDiffer<Song> differ;
     private OnSongClickListener listener;
     private OnMenuClickListener menuListener;
 
@@ -34,11 +31,27 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
     }
 
     public SongAdapter(List<Song> songs, OnSongClickListener listener, OnMenuClickListener menuListener) {
-        this.songs = songs;
+        this.differ = new BackgroundDiffer<>(this, DIFF_CALLBACK, songs);
         this.listener = listener;
         this.menuListener = menuListener;
+        setHasStableIds(true);
     }
 
+    private static final DiffUtil.ItemCallback<Song> DIFF_CALLBACK = new DiffUtil.ItemCallback<Song>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Song oldSong, @NonNull Song newSong) {
+            if (oldSong.getId() != Song.NO_ID || newSong.getId() != Song.NO_ID) {
+                return oldSong.getId() == newSong.getId();
+            }
+            return oldSong.getPath().equals(newSong.getPath());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Song oldSong, @NonNull Song newSong) {
+            return oldSong.equals(newSong);
+        }
+    };
+
     @NonNull
     @Override
     public SongViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -49,47 +62,65 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
-        Song song = songs.get(position);
+        Song song = differ.get(position);
         holder.songTitle.setText(song.getTitle());
         holder.songArtist.setText(song.getArtist());
         
-        // Load album art
-        loadAlbumArt(holder.songAlbumArt, song.getPath());
+        // Load album art off the UI thread, sized for the row
+        ArtworkLoader.getInstance(holder.itemView.getContext()).load(
+                holder.songAlbumArt,
+                song.getPath(),
+                holder.artSize,
+                android.R.drawable.ic_menu_gallery);
         
         holder.itemView.setOnClickListener(v -> listener.onSongClick(song));
         holder.songMenu.setOnClickListener(v -> menuListener.onMenuClick(song, v));
     }
 
-    private void loadAlbumArt(ImageView imageView, String path) {
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        try {
-            retriever.setDataSource(path);
-            byte[] art = retriever.getEmbeddedPicture();
-            if (art != null) {
-                Bitmap bitmap = BitmapFactory.decodeByteArray(art, 0, art.length);
-                imageView.setImageBitmap(bitmap);
-            } else {
-                imageView.setImageResource(android.R.drawable.ic_menu_gallery);
-            }
-        } catch (Exception e) {
-            imageView.setImageResource(android.R.drawable.ic_menu_gallery);
-        } finally {
-            try {
-                retriever.release();
-            } catch (IOException e) {
-                // Ignore release exception
-            }
-        }
+    @Override
+    public void onViewRecycled(@NonNull SongViewHolder holder) {
+        super.onViewRecycled(holder);
+        // Don't decode art for a row that has scrolled away
+        ArtworkLoader.getInstance(holder.itemView.getContext()).cancel(holder.songAlbumArt);
     }
 
     @Override
     public int getItemCount() {
-        return songs.size();
+        return differ.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Song song = differ.get(position);
+        // MediaStore id when we have one, songs from elsewhere fall back to their path
+        return song.getId() != Song.NO_ID ? song.getId() : song.getPath().hashCode();
     }
 
+    // The adapter keeps its own copy; the new list is diffed off the main thread
     public void updateSongs(List<Song> newSongs) {
-        this.songs = newSongs;
-        notifyDataSetChanged();
+        differ.submit(newSongs);
+    }
+
+    public void appendSongs(List<Song> moreSongs) {
+        differ.append(moreSongs);
+    }
+
+    public void removeSong(int position) {
+        differ.remove(position);
+    }
+
+    // Snapshot variants: the list is shown as is instead of copied, so it must never change
+    public void showSongs(List<Song> snapshot) {
+        differ.submitSnapshot(snapshot);
+    }
+
+    // Rows past the ones shown now were appended
+    public void showAppendedSongs(List<Song> snapshot) {
+        differ.extendToSnapshot(snapshot);
+    }
+
+    public void showRemovedSong(int position, List<Song> snapshot) {
+        differ.removeToSnapshot(position, snapshot);
     }
 
     static class SongViewHolder extends RecyclerView.ViewHolder {
@@ -97,9 +128,11 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         TextView songTitle;
         TextView songArtist;
         ImageButton songMenu;
+        int artSize;
 
         SongViewHolder(View itemView) {
             super(itemView);
+            artSize = itemView.getResources().getDimensionPixelSize(R.dimen.song_art_size);
             songAlbumArt = itemView.findViewById(R.id.songAlbumArt);
             songTitle = itemView.findViewById(R.id.songTitle);
             songArtist = itemView.findViewById(R.id.songArtist);
@@ -0,0 +1,385 @@
+package com.marabytes.musicplayernew.art;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.marabytes.musicplayernew.metrics.HitCounter;
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.tags.AudioTags;
+import com.marabytes.musicplayernew.tags.TagReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads embedded album art for song rows off the UI thread. Pictures are
+ * located with {@link TagReader} (MediaMetadataRetriever only for other
+ * formats), downsampled to the requested size and kept in a memory LRU
+ * backed by a small disk cache keyed by file path and modification time,
+ * trimmed least recently used first when it outgrows its budget. Memory
+ * hits are checked against the file's modification time off the UI thread.
+ * Album art content URIs can be loaded too, for callers that aren't
+ * ImageViews.
+ */
+public class ArtworkLoader {
+    private static final int DECODE_THREADS = 2;
+    private static final String DISK_CACHE_DIR = "song_thumbs";
+    private static final int JPEG_QUALITY = 85;
+    // A few thousand thumbnails at list sizes
+    private static final long DISK_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+    // Modification time kept with content URI thumbnails, which aren't checked against a file
+    private static final long URI_NOT_A_FILE = 0;
+
+    private static final LatencyHistogram DECODE_TIME = Metrics.getInstance().histogram(Metrics.ART_DECODE_MS);
+    private static final HitCounter MEMORY_CACHE = Metrics.getInstance().hitCounter(Metrics.ART_MEMORY_CACHE);
+    private static final HitCounter DISK_CACHE = Metrics.getInstance().hitCounter(Metrics.ART_DISK_CACHE);
+
+    private static ArtworkLoader instance;
+
+    public interface Callback {
+        // Called on the main thread; bitmap is null if there is no art
+        void onArtworkLoaded(Bitmap bitmap);
+    }
+
+    private final ContentResolver contentResolver;
+    private final File diskCacheDir;
+    private final DiskCacheTrimmer diskCacheTrimmer;
+    private final LruCache<String, Thumbnail> memoryCache;
+    // Modification time of files found to have no embedded picture, so we don't open them
+    // again unless they change
+    private final Map<String, Long> missingArt = new ConcurrentHashMap<>();
+    // Content URIs that had no art
+    private final Set<String> missingUriArt = Collections.synchronizedSet(new HashSet<>());
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+
+    private ArtworkLoader(Context context) {
+        contentResolver = context.getContentResolver();
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        diskCacheTrimmer = new DiskCacheTrimmer(diskCacheDir, DISK_CACHE_MAX_BYTES);
+        // Use an eighth of the heap for decoded thumbnails
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Thumbnail>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Thumbnail thumbnail) {
+                return thumbnail.bitmap.getByteCount();
+            }
+        };
+        executor = Executors.newFixedThreadPool(DECODE_THREADS);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized ArtworkLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ArtworkLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void load(ImageView imageView, String path, int targetSize, int placeholderRes) {
+        cancel(imageView);
+
+        String key = path + "#" + targetSize;
+        Thumbnail cached = memoryCache.get(key);
+        if (cached != null) {
+            MEMORY_CACHE.hit();
+            imageView.setImageBitmap(cached.bitmap);
+        } else {
+            MEMORY_CACHE.miss();
+            imageView.setImageResource(placeholderRes);
+        }
+
+        // A hit is shown right away and checked against the file off the main thread, so a
+        // retagged file doesn't keep its old thumbnail
+        Request request = new Request();
+        imageView.setTag(request);
+        request.future = executor.submit(() -> {
+            if (request.cancelled) {
+                return;
+            }
+            long lastModified = new File(path).lastModified();
+            if (cached != null && cached.lastModified == lastModified) {
+                return;
+            }
+            Bitmap bitmap = loadBitmap(path, key, lastModified, targetSize, request);
+            if (bitmap != null) {
+                memoryCache.put(key, new Thumbnail(bitmap, lastModified));
+            } else if (cached != null && !request.cancelled) {
+                // Changed and lost its art
+                memoryCache.remove(key);
+            } else {
+                return;
+            }
+            mainHandler.post(() -> {
+                // The row may have been rebound to another song while we were decoding
+                if (!request.cancelled && imageView.getTag() == request) {
+                    if (bitmap != null) {
+                        imageView.setImageBitmap(bitmap);
+                    } else {
+                        imageView.setImageResource(placeholderRes);
+                    }
+                    imageView.setTag(null);
+                }
+            });
+        });
+    }
+
+    // Only hits are counted here, a miss is counted by the load() that callers follow up with
+    public Bitmap getCached(Uri uri, int targetSize) {
+        Thumbnail cached = memoryCache.get(uri + "#" + targetSize);
+        if (cached == null) {
+            return null;
+        }
+        MEMORY_CACHE.hit();
+        return cached.bitmap;
+    }
+
+    // Loads a content URI (e.g. MediaStore album art) at the given size, sharing the memory cache
+    public void load(Uri uri, int targetSize, Callback callback) {
+        String key = uri + "#" + targetSize;
+        Thumbnail cached = memoryCache.get(key);
+        if (cached != null || missingUriArt.contains(key)) {
+            MEMORY_CACHE.hit();
+            callback.onArtworkLoaded(cached != null ? cached.bitmap : null);
+            return;
+        }
+        MEMORY_CACHE.miss();
+        executor.execute(() -> {
+            Bitmap bitmap = null;
+            byte[] art = readUri(uri);
+            if (art != null) {
+                bitmap = decodeSampled(art, targetSize);
+            }
+            if (bitmap != null) {
+                memoryCache.put(key, new Thumbnail(bitmap, URI_NOT_A_FILE));
+            } else {
+                missingUriArt.add(key);
+            }
+            Bitmap result = bitmap;
+            mainHandler.post(() -> callback.onArtworkLoaded(result));
+        });
+    }
+
+    public void cancel(ImageView imageView) {
+        Object tag = imageView.getTag();
+        if (tag instanceof Request) {
+            Request request = (Request) tag;
+            request.cancelled = true;
+            if (request.future != null) {
+                request.future.cancel(false);
+            }
+            imageView.setTag(null);
+        }
+    }
+
+    private Bitmap loadBitmap(String path, String key, long lastModified, int targetSize, Request request) {
+        Long missingSince = missingArt.get(key);
+        if (missingSince != null && missingSince == lastModified) {
+            return null;
+        }
+        File cacheFile = new File(diskCacheDir, diskCacheName(path, lastModified, targetSize));
+        if (cacheFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getPath());
+            if (bitmap != null) {
+                DISK_CACHE.hit();
+                diskCacheTrimmer.touch(cacheFile);
+                return bitmap;
+            }
+        }
+        DISK_CACHE.miss();
+        if (request.cancelled) {
+            return null;
+        }
+
+        byte[] art = readEmbeddedPicture(path);
+        if (art == null) {
+            missingArt.put(key, lastModified);
+            return null;
+        }
+        missingArt.remove(key);
+        if (request.cancelled) {
+            return null;
+        }
+
+        Bitmap bitmap = decodeSampled(art, targetSize);
+        if (bitmap != null) {
+            writeToDisk(cacheFile, bitmap);
+        }
+        return bitmap;
+    }
+
+    private byte[] readEmbeddedPicture(String path) {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            FileChannel channel = file.getChannel();
+            AudioTags tags = TagReader.read(channel);
+            if (tags != null) {
+                // A format the tag reader knows, so no picture there means there is none
+                return tags.getPicture() != null ? TagReader.readPicture(channel, tags.getPicture()) : null;
+            }
+        } catch (IOException e) {
+            // Unreadable or malformed as far as we can tell, let the platform have a go
+        }
+        return readEmbeddedPictureWithRetriever(path);
+    }
+
+    // Starts a native extractor per file, so only used for formats TagReader doesn't parse
+    private byte[] readEmbeddedPictureWithRetriever(String path) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            return retriever.getEmbeddedPicture();
+        } catch (Exception e) {
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException e) {
+                // Ignore release exception
+            }
+        }
+    }
+
+    private byte[] readUri(Uri uri) {
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException | SecurityException e) {
+            // Albums without art throw FileNotFoundException here
+            return null;
+        }
+    }
+
+    private static Bitmap decodeSampled(byte[] data, int targetSize) {
+        long start = SystemClock.uptimeMillis();
+        try {
+            return decodeSampledUntimed(data, targetSize);
+        } finally {
+            DECODE_TIME.record(SystemClock.uptimeMillis() - start);
+        }
+    }
+
+    private static Bitmap decodeSampledUntimed(byte[] data, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        // inSampleSize only halves, so finish the last step with a scale
+        int smallest = Math.min(sampled.getWidth(), sampled.getHeight());
+        if (smallest > targetSize) {
+            float scale = (float) targetSize / smallest;
+            Bitmap scaled = Bitmap.createScaledBitmap(sampled,
+                    Math.round(sampled.getWidth() * scale),
+                    Math.round(sampled.getHeight() * scale),
+                    true);
+            if (scaled != sampled) {
+                sampled.recycle();
+            }
+            return scaled;
+        }
+        return sampled;
+    }
+
+    static int calculateInSampleSize(int width, int height, int targetSize) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || targetSize <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= targetSize && height / (inSampleSize * 2) >= targetSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private void writeToDisk(File cacheFile, Bitmap bitmap) {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(diskCacheDir, cacheFile.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            tmp.delete();
+            return;
+        }
+        // Retagged files leave their old thumbnails behind, trimming is what gets rid of them
+        diskCacheTrimmer.onWritten(cacheFile);
+    }
+
+    // Hashing keeps file names short and filesystem safe; a changed file gets a new name
+    private static String diskCacheName(String path, long lastModified, int targetSize) {
+        String source = path + "|" + lastModified + "|" + targetSize;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(source.hashCode()) + ".jpg";
+        }
+    }
+
+    private static class Request {
+        volatile boolean cancelled;
+        volatile Future<?> future;
+    }
+
+    // A decoded thumbnail and the modification time of the file it came from
+    private static class Thumbnail {
+        final Bitmap bitmap;
+        final long lastModified;
+
+        Thumbnail(Bitmap bitmap, long lastModified) {
+            this.bitmap = bitmap;
+            this.lastModified = lastModified;
+        }
+    }
+}
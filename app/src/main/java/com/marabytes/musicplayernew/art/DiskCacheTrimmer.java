@@ -0,0 +1,84 @@
+package com.marabytes.musicplayernew.art;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps a cache directory under a byte budget by deleting the least recently
+ * used files first. Use is tracked through file modification times, which
+ * {@link #touch} bumps on every cache hit, so no separate index is kept.
+ * Trimming goes a quarter below the budget so it doesn't run on every write.
+ */
+class DiskCacheTrimmer {
+    private final File directory;
+    private final long maxBytes;
+    // Bytes in the directory, -1 until the first write lists it
+    private long size = -1;
+
+    DiskCacheTrimmer(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Marks a file as just used; a failure only makes it a little more likely to be trimmed
+    void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    // Call after a file was added to the directory
+    synchronized void onWritten(File file) {
+        if (size < 0) {
+            size = sizeOf(listFiles());
+        } else {
+            size += file.length();
+        }
+        if (size > maxBytes) {
+            trim(maxBytes - maxBytes / 4);
+        }
+    }
+
+    synchronized long size() {
+        if (size < 0) {
+            size = sizeOf(listFiles());
+        }
+        return size;
+    }
+
+    private void trim(long targetBytes) {
+        File[] files = listFiles();
+        // Lengths and times are read once, another thread may touch files while we sort
+        long[][] entries = new long[files.length][];
+        for (int i = 0; i < files.length; i++) {
+            entries[i] = new long[]{files[i].lastModified(), files[i].length(), i};
+        }
+        Arrays.sort(entries, Comparator.comparingLong(entry -> entry[0]));
+
+        long remaining = 0;
+        for (long[] entry : entries) {
+            remaining += entry[1];
+        }
+        for (long[] entry : entries) {
+            if (remaining <= targetBytes) {
+                break;
+            }
+            if (files[(int) entry[2]].delete()) {
+                remaining -= entry[1];
+            }
+        }
+        size = remaining;
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles(File::isFile);
+        return files != null ? files : new File[0];
+    }
+
+    private static long sizeOf(File[] files) {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        return total;
+    }
+}
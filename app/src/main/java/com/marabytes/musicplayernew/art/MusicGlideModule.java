@@ -0,0 +1,18 @@
+package com.marabytes.musicplayernew.art;
+
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Glide setup for album art. Glide's default memory cache already holds
+ * several screens of the albums row, so only the module itself is declared
+ * here; per-screen options such as decode formats go on each screen's request.
+ */
+@GlideModule
+public class MusicGlideModule extends AppGlideModule {
+    // Everything is configured here, no need to scan the manifest for old-style modules
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
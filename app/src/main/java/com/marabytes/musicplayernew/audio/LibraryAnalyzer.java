@@ -0,0 +1,222 @@
+package com.marabytes.musicplayernew.audio;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.marabytes.musicplayernew.loudness.GainTable;
+import com.marabytes.musicplayernew.loudness.LoudnessMeter;
+import com.marabytes.musicplayernew.metrics.Counter;
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.model.Song;
+import com.marabytes.musicplayernew.waveform.Waveform;
+import com.marabytes.musicplayernew.waveform.WaveformStore;
+import com.marabytes.musicplayernew.waveform.WaveformSummarizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes library tracks in the background for everything that analyses
+ * their audio. Each track is decoded once and its PCM goes to a
+ * {@link WaveformSummarizer} and a {@link LoudnessMeter}, whichever of the two
+ * still has no up to date result for it. Tracks run on one pool of background
+ * priority threads (one per core, leaving one for the UI and playback) with
+ * only a handful queued at a time, so memory stays flat whatever the size of
+ * the library. A run that gets killed picks up where it left off next time,
+ * since finished tracks are skipped.
+ */
+public class LibraryAnalyzer {
+    private static final String TAG = "LibraryAnalyzer";
+    private static final String GAIN_TABLE_FILE = "loudness.bin";
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // Library tracks allowed to wait for a worker, so a track the player asks for isn't stuck behind the library
+    private static final int LIBRARY_BACKLOG = THREADS;
+    private static final AtomicBoolean NEVER_CANCELLED = new AtomicBoolean();
+
+    private static final LatencyHistogram DECODE_TIME = Metrics.getInstance().histogram(Metrics.ANALYSIS_DECODE_MS);
+    private static final Counter TRACKS_MEASURED = Metrics.getInstance().counter(Metrics.LOUDNESS_TRACKS_MEASURED);
+
+    private static LibraryAnalyzer instance;
+
+    private final WaveformStore waveforms;
+    private final GainTable gainTable;
+    private final ThreadPoolExecutor workers;
+    // Walks the library and hands tracks to the workers as they free up
+    private final ExecutorService feeder = Executors.newSingleThreadExecutor();
+    private final Semaphore libraryPermits = new Semaphore(THREADS + LIBRARY_BACKLOG);
+    // Songs queued or being decoded, so the library run and the player don't both decode one
+    private final Set<Long> pending = Collections.synchronizedSet(new HashSet<>());
+    private AtomicBoolean libraryRunCancelled = new AtomicBoolean();
+
+    private LibraryAnalyzer(Context context) {
+        waveforms = WaveformStore.getInstance(context);
+        gainTable = new GainTable(new File(context.getFilesDir(), GAIN_TABLE_FILE));
+        workers = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "Analysis"));
+        workers.allowCoreThreadTimeOut(true);
+        // Read the table now so the first track played doesn't wait for it
+        feeder.execute(() -> {
+            try {
+                gainTable.load();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public static synchronized LibraryAnalyzer getInstance(Context context) {
+        if (instance == null) {
+            instance = new LibraryAnalyzer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public GainTable getGainTable() {
+        return gainTable;
+    }
+
+    // Analyses the song with only a few library tracks ahead of it; waveform listeners hear when it's done
+    public void request(Song song) {
+        if (song.getId() == Song.NO_ID || !pending.add(song.getId())) {
+            return;
+        }
+        workers.execute(() -> analyze(song, NEVER_CANCELLED));
+    }
+
+    /**
+     * Analyses every song that is missing a waveform or a loudness
+     * measurement, or whose file changed since, replacing any run still in
+     * progress. Songs must be an immutable snapshot.
+     */
+    public synchronized void analyzeLibrary(List<Song> songs) {
+        libraryRunCancelled.set(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        libraryRunCancelled = cancelled;
+        feeder.execute(() -> {
+            for (Song song : songs) {
+                if (cancelled.get()) {
+                    return;
+                }
+                if (song.getId() == Song.NO_ID) {
+                    continue;
+                }
+                long lastModified = new File(song.getPath()).lastModified();
+                if (!needsWaveform(song, lastModified) && !needsLoudness(song, lastModified)
+                        || !pending.add(song.getId())) {
+                    continue;
+                }
+                try {
+                    libraryPermits.acquire();
+                } catch (InterruptedException e) {
+                    pending.remove(song.getId());
+                    return;
+                }
+                workers.execute(() -> {
+                    try {
+                        analyze(song, cancelled);
+                    } finally {
+                        libraryPermits.release();
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean needsWaveform(Song song, long lastModified) {
+        return waveforms.isAvailable() && waveforms.get(song, lastModified) == null;
+    }
+
+    private boolean needsLoudness(Song song, long lastModified) {
+        return !gainTable.isMeasured(song.getId(), lastModified);
+    }
+
+    // Runs on a worker
+    private void analyze(Song song, AtomicBoolean cancelled) {
+        try {
+            long lastModified = new File(song.getPath()).lastModified();
+            Waveform cached = waveforms.get(song, lastModified);
+            if (cached != null) {
+                // Finished by the library run since the player asked
+                waveforms.deliver(song.getId(), cached);
+            }
+            boolean summarize = cached == null && waveforms.isAvailable();
+            boolean measure = needsLoudness(song, lastModified);
+            if (!summarize && !measure) {
+                return;
+            }
+
+            long start = SystemClock.uptimeMillis();
+            AnalysisSink sink = new AnalysisSink(summarize, measure);
+            if (!PcmDecoder.decode(song.getPath(), sink, cancelled)) {
+                return;
+            }
+            DECODE_TIME.record(SystemClock.uptimeMillis() - start);
+            if (sink.summarizer != null) {
+                waveforms.put(song, lastModified, sink.summarizer.finish());
+            }
+            if (sink.meter != null) {
+                gainTable.put(song.getId(), lastModified, song.getAlbumId(), sink.meter);
+                TRACKS_MEASURED.increment();
+            }
+        } catch (IOException e) {
+            // Formats MediaCodec can't handle keep the plain seek bar and play without gain
+            Log.w(TAG, "Can't analyse " + song.getPath() + ": " + e.getMessage());
+        } finally {
+            pending.remove(song.getId());
+        }
+    }
+
+    // Feeds the same PCM to whichever analyses the track still needs
+    private static class AnalysisSink implements PcmDecoder.Sink {
+        private final boolean summarize;
+        private final boolean measure;
+        WaveformSummarizer summarizer;
+        LoudnessMeter meter;
+
+        AnalysisSink(boolean summarize, boolean measure) {
+            this.summarize = summarize;
+            this.measure = measure;
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channels) {
+            if (summarize) {
+                summarizer = new WaveformSummarizer(channels);
+            }
+            if (measure) {
+                meter = new LoudnessMeter(sampleRate, channels);
+            }
+        }
+
+        @Override
+        public void onPcm(ShortBuffer pcm) {
+            // Both consume the buffer, so rewind it in between
+            int start = pcm.position();
+            if (summarizer != null) {
+                summarizer.add(pcm);
+                pcm.position(start);
+            }
+            if (meter != null) {
+                meter.add(pcm);
+            }
+        }
+    }
+}
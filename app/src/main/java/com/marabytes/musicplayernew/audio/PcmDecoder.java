@@ -0,0 +1,119 @@
+package com.marabytes.musicplayernew.audio;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes a whole track with MediaCodec and hands the 16-bit PCM to a
+ * {@link Sink} one codec buffer at a time, for analysis jobs that need every
+ * sample but shouldn't hold the track in memory.
+ */
+public class PcmDecoder {
+    private static final long TIMEOUT_US = 10_000;
+
+    public interface Sink {
+        // Called once, before the first PCM
+        void onFormat(int sampleRate, int channels) throws IOException;
+
+        // Interleaved samples in native order; only valid during the call
+        void onPcm(ShortBuffer pcm);
+    }
+
+    private PcmDecoder() {
+    }
+
+    // False if cancelled part way through
+    public static boolean decode(String path, Sink sink, AtomicBoolean cancelled) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(path);
+            MediaFormat format = selectAudioTrack(extractor);
+            if (format == null) {
+                throw new IOException("No audio track in " + path);
+            }
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            return decode(extractor, codec, format, sink, cancelled);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // MediaCodec reports unsupported or broken streams this way
+            throw new IOException("Can't decode " + path, e);
+        } finally {
+            if (codec != null) {
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static boolean decode(MediaExtractor extractor, MediaCodec codec, MediaFormat format, Sink sink,
+                                  AtomicBoolean cancelled) throws IOException {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        boolean formatSent = false;
+        boolean inputDone = false;
+        while (!cancelled.get()) {
+            if (!inputDone) {
+                int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+                    if (size < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat output = codec.getOutputFormat();
+                if (output.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                        && output.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                    throw new IOException("Unexpected PCM encoding " + output.getInteger(MediaFormat.KEY_PCM_ENCODING));
+                }
+                sampleRate = output.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channels = output.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            } else if (outputIndex >= 0) {
+                if (!formatSent) {
+                    sink.onFormat(sampleRate, channels);
+                    formatSent = true;
+                }
+                ByteBuffer pcm = codec.getOutputBuffer(outputIndex);
+                if (pcm != null && info.size > 0) {
+                    pcm.position(info.offset).limit(info.offset + info.size);
+                    sink.onPcm(pcm.slice().order(ByteOrder.nativeOrder()).asShortBuffer());
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int track = 0; track < extractor.getTrackCount(); track++) {
+            MediaFormat format = extractor.getTrackFormat(track);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(track);
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,204 @@
+package com.marabytes.musicplayernew.audio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A window of a file kept in a fixed size direct ring buffer, filled by its
+ * own thread so reads are served from memory. The filler stays up to
+ * {@code aheadBytes} past the last byte read and keeps the rest of the ring
+ * ({@value #BEHIND_BYTES} bytes) behind it for the short backward seeks
+ * demuxers make. A read outside the window restarts filling from there.
+ *
+ * <p>A read that finds none of its bytes buffered yet waits for the filler
+ * and counts as a stall; it returns as soon as some bytes are in, so a slow
+ * device never makes a read wait for more than the first chunk.
+ */
+public class ReadAheadBuffer implements Closeable {
+    static final int BEHIND_BYTES = 256 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int capacity;
+    private final int aheadBytes;
+    private final ByteBuffer ring;
+    // Separate views so the filler and readers don't share a position and limit
+    private final ByteBuffer fillView;
+    private final ByteBuffer readView;
+    private final Thread filler;
+
+    // Everything below is guarded by this
+    // File bytes [start, end) are in the ring, at (offset % capacity)
+    private long start = 0;
+    private long end = 0;
+    // One past the last byte a reader asked for; the filler works up to readEnd + aheadBytes
+    private long readEnd = 0;
+    // Bumped on every jump, so a chunk that was in flight across a jump is dropped
+    private int generation = 0;
+    private boolean closed = false;
+    private IOException fillError;
+    private int stallCount = 0;
+    private long stallNanos = 0;
+
+    public ReadAheadBuffer(FileChannel channel, int aheadBytes) throws IOException {
+        if (aheadBytes <= 0) {
+            throw new IllegalArgumentException("aheadBytes = " + aheadBytes);
+        }
+        this.channel = channel;
+        this.size = channel.size();
+        this.aheadBytes = aheadBytes;
+        capacity = aheadBytes + BEHIND_BYTES;
+        ring = ByteBuffer.allocateDirect(capacity);
+        fillView = ring.duplicate();
+        readView = ring.duplicate();
+        // Starts filling from the beginning straight away, so the first seconds are ready before playback asks
+        filler = new Thread(this::fill, "ReadAhead");
+        filler.setDaemon(true);
+        filler.start();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Copies up to size bytes at position into buffer and returns how many,
+     * or -1 at the end of the file. Fewer bytes than asked for may come back.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (closed) {
+            throw new IOException("Closed");
+        }
+        if (position >= this.size) {
+            return -1;
+        }
+        if (size == 0) {
+            return 0;
+        }
+        if (position < start || position > end) {
+            // Outside the window: drop it and start over from here
+            start = position;
+            end = position;
+            generation++;
+        }
+        readEnd = Math.max(position + 1, Math.min(this.size, position + size));
+        notifyAll();
+
+        if (end <= position) {
+            stallCount++;
+            long stallStart = System.nanoTime();
+            while (end <= position && !closed && fillError == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for data");
+                }
+            }
+            stallNanos += System.nanoTime() - stallStart;
+            if (fillError != null) {
+                throw fillError;
+            }
+            if (closed) {
+                throw new IOException("Closed");
+            }
+        }
+
+        int count = (int) Math.min(size, end - position);
+        int copied = 0;
+        while (copied < count) {
+            int slot = (int) ((position + copied) % capacity);
+            int run = Math.min(count - copied, capacity - slot);
+            readView.limit(slot + run).position(slot);
+            readView.get(buffer, offset + copied, run);
+            copied += run;
+        }
+        return count;
+    }
+
+    public synchronized int getStallCount() {
+        return stallCount;
+    }
+
+    public synchronized long getStallMillis() {
+        return stallNanos / 1_000_000;
+    }
+
+    // End of the buffered window, for tests
+    synchronized long getBufferedEnd() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        filler.interrupt();
+        channel.close();
+    }
+
+    private void fill() {
+        while (true) {
+            long fillPosition;
+            int chunk;
+            int fillGeneration;
+            synchronized (this) {
+                long target = Math.min(size, readEnd + aheadBytes);
+                while (!closed && end >= target) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    target = Math.min(size, readEnd + aheadBytes);
+                }
+                if (closed) {
+                    return;
+                }
+                int slot = (int) (end % capacity);
+                chunk = (int) Math.min(Math.min(CHUNK_BYTES, target - end), capacity - slot);
+                // Evict what this chunk overwrites before letting go of the lock, so no reader copies from it
+                start = Math.max(start, end + chunk - capacity);
+                fillPosition = end;
+                fillGeneration = generation;
+                fillView.limit(slot + chunk).position(slot);
+            }
+
+            int read;
+            try {
+                read = channel.read(fillView, fillPosition);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // Closing the channel under a read is how close() stops us
+                    if (!closed) {
+                        fillError = e;
+                        notifyAll();
+                    }
+                }
+                return;
+            }
+
+            synchronized (this) {
+                if (fillGeneration != generation) {
+                    continue;
+                }
+                if (read <= 0) {
+                    // The file shrank under us; let readers see what there is
+                    fillError = new IOException("Unexpected end of file at " + fillPosition);
+                    notifyAll();
+                    return;
+                }
+                end += read;
+                notifyAll();
+            }
+        }
+    }
+}
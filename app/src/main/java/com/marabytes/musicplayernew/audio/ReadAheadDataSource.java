@@ -0,0 +1,76 @@
+package com.marabytes.musicplayernew.audio;
+
+import android.media.MediaDataSource;
+import android.os.Environment;
+
+import com.marabytes.musicplayernew.metrics.Counter;
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Feeds MediaPlayer from a {@link ReadAheadBuffer} instead of letting it read
+ * the file itself, so an SD card or USB drive that stalls for a moment
+ * doesn't reach the decoder. Filling starts as soon as the source is opened,
+ * which is what warms up a queued track.
+ */
+public class ReadAheadDataSource extends MediaDataSource {
+    private static final Counter STALLS = Metrics.getInstance().counter(Metrics.PLAYBACK_READ_AHEAD_STALLS);
+    private static final LatencyHistogram STALL_TIME =
+            Metrics.getInstance().histogram(Metrics.PLAYBACK_READ_AHEAD_STALL_MS);
+
+    private final ReadAheadBuffer buffer;
+    private boolean closed = false;
+
+    private ReadAheadDataSource(ReadAheadBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public static ReadAheadDataSource open(String path, int aheadBytes) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            return new ReadAheadDataSource(new ReadAheadBuffer(file.getChannel(), aheadBytes));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // Internal shared storage is fast enough to read directly; only SD cards and USB drives are worth buffering
+    public static boolean isOnRemovableStorage(String path) {
+        try {
+            return Environment.isExternalStorageRemovable(new File(path));
+        } catch (IllegalArgumentException e) {
+            // Not on a storage volume the platform knows about
+            return false;
+        }
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return this.buffer.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return buffer.size();
+    }
+
+    // MediaPlayer closes its source on reset, and so does MediaPlayerManager; only the first one counts
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int stalls = buffer.getStallCount();
+        if (stalls > 0) {
+            STALLS.add(stalls);
+            STALL_TIME.record(buffer.getStallMillis());
+        }
+        buffer.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * App-wide lookup tables for the loaded catalog, so finding a song by path or
+ * MediaStore id (or its position in the main song list) never needs a
+ * provider query or a list scan. Songs are kept in a compact
+ * {@link SongCatalog}, so lookups return freshly built Song objects.
+ */
+public class LibraryIndex {
+    private static LibraryIndex instance;
+
+    private SongCatalog catalog = new SongCatalog();
+
+    public static synchronized LibraryIndex getInstance() {
+        if (instance == null) {
+            instance = new LibraryIndex();
+        }
+        return instance;
+    }
+
+    public synchronized void setSongs(List<Song> newSongs) {
+        clear();
+        addSongs(newSongs);
+    }
+
+    // Takes over a catalog filled elsewhere, e.g. on a background thread; the caller must not change it afterwards
+    public synchronized void setCatalog(SongCatalog newCatalog) {
+        catalog = newCatalog;
+    }
+
+    public synchronized void addSongs(List<Song> moreSongs) {
+        catalog.addAll(moreSongs);
+    }
+
+    public synchronized void removeSong(Song song) {
+        int position = positionOf(song.getPath());
+        if (position != -1) {
+            catalog.remove(position);
+        }
+    }
+
+    // One pass over the catalog however many songs go, rather than one per song
+    public synchronized void removeSongs(Collection<Song> songs) {
+        BitSet positions = new BitSet();
+        for (Song song : songs) {
+            int position = positionOf(song.getPath());
+            if (position != -1) {
+                positions.set(position);
+            }
+        }
+        catalog.removeAll(positions);
+    }
+
+    public synchronized void clear() {
+        catalog.clear();
+    }
+
+    public synchronized Song findByPath(String path) {
+        int position = catalog.indexOfPath(path);
+        return position != -1 ? catalog.get(position) : null;
+    }
+
+    public synchronized Song findById(long id) {
+        int position = catalog.indexOfId(id);
+        return position != -1 ? catalog.get(position) : null;
+    }
+
+    // Position in the main song list, or -1 if the path isn't in the library
+    public synchronized int positionOf(String path) {
+        return catalog.indexOfPath(path);
+    }
+
+    public synchronized long[] getSongIds() {
+        long[] ids = new long[catalog.size()];
+        int count = 0;
+        for (int i = 0; i < catalog.size(); i++) {
+            long id = catalog.getId(i);
+            if (id != Song.NO_ID) {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    // Replaces the song with the same MediaStore id in place, or appends it if it's new
+    public synchronized void putSong(Song song) {
+        int position = song.getId() != Song.NO_ID
+                ? catalog.indexOfId(song.getId())
+                : catalog.indexOfPath(song.getPath());
+        if (position == -1) {
+            catalog.add(song);
+        } else {
+            catalog.set(position, song);
+        }
+    }
+
+    // Immutable view of the main song list as it is now; cheap, nothing is copied
+    public synchronized List<Song> getSongs() {
+        return catalog.snapshot();
+    }
+
+    // Immutable view of the songs with these MediaStore ids in that order, e.g. an album's tracks
+    public synchronized List<Song> getSongsByIds(long[] songIds) {
+        return catalog.snapshotOfIds(songIds);
+    }
+
+    public synchronized int size() {
+        return catalog.size();
+    }
+}
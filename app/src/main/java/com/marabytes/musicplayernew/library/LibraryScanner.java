@@ -0,0 +1,374 @@
+package com.marabytes.musicplayernew.library;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.marabytes.musicplayernew.metrics.Counter;
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Walks the MediaStore album and song tables on a background thread and hands
+ * rows back to the main thread in pages, so the first rows show up long before
+ * the whole library has been read. When a {@link LibrarySnapshot} from a
+ * previous run exists its rows are published first and MediaStore is only used
+ * to reconcile them.
+ */
+public class LibraryScanner {
+    private static final String TAG = "LibraryScanner";
+    // Small first page so something is on screen quickly, bigger pages afterwards
+    private static final int FIRST_PAGE_SIZE = 30;
+    private static final int PAGE_SIZE = 250;
+    static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+
+    private static final Counter SCANS = Metrics.getInstance().counter(Metrics.LIBRARY_SCANS);
+    private static final Counter QUERIES = Metrics.getInstance().counter(Metrics.LIBRARY_QUERIES);
+    private static final LatencyHistogram SCAN_DURATION = Metrics.getInstance().histogram(Metrics.LIBRARY_SCAN_MS);
+    private static final LatencyHistogram FIRST_ROW = Metrics.getInstance().histogram(Metrics.LIBRARY_FIRST_ROW_MS);
+
+    public interface Callback {
+        void onAlbumsLoaded(List<Album> page);
+        void onSongsLoaded(List<Song> page);
+        void onBannerArtFound(Uri albumArtUri);
+        /**
+         * Only called when rows were served from the snapshot and MediaStore
+         * disagreed. Both indexes are built on the scan thread, a 100k-song
+         * library takes over a second, so the receiver only swaps them in.
+         */
+        void onLibraryReconciled(List<Album> albums, SongCatalog songs, SearchIndex searchIndex);
+        void onScanFinished(long firstRowMillis, long totalMillis, int queryCount);
+    }
+
+    private final ContentResolver contentResolver;
+    private final File snapshotFile;
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+    private ScanJob currentJob;
+
+    public LibraryScanner(ContentResolver contentResolver, File snapshotFile) {
+        this.contentResolver = contentResolver;
+        this.snapshotFile = snapshotFile;
+        this.executor = Executors.newSingleThreadExecutor();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void start(Callback callback) {
+        cancel();
+        currentJob = new ScanJob(callback);
+        executor.execute(currentJob);
+    }
+
+    public void cancel() {
+        if (currentJob != null) {
+            currentJob.cancelled = true;
+            currentJob = null;
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private class ScanJob implements Runnable {
+        private final Callback callback;
+        private volatile boolean cancelled;
+        private long startTime;
+        private long firstRowMillis = -1;
+        private int queryCount;
+
+        ScanJob(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            startTime = SystemClock.elapsedRealtime();
+
+            // Show the last known catalog straight away, then check it against MediaStore
+            List<Album> cachedAlbums = null;
+            List<Song> cachedSongs = null;
+            LibrarySnapshot snapshot = openSnapshot();
+            if (snapshot != null) {
+                cachedAlbums = publishSnapshotAlbums(snapshot);
+                cachedSongs = publishSnapshotSongs(snapshot);
+            }
+            boolean fromSnapshot = snapshot != null;
+
+            List<Album> albums = scanAlbums(!fromSnapshot);
+            List<Song> songs = scanSongs(!fromSnapshot);
+
+            if (cancelled) {
+                return;
+            }
+            if (albums != null && songs != null) {
+                boolean changed = !albums.equals(cachedAlbums) || !songs.equals(cachedSongs);
+                if (fromSnapshot && changed) {
+                    SongCatalog catalog = new SongCatalog();
+                    catalog.addAll(songs);
+                    SearchIndex searchIndex = new SearchIndex();
+                    searchIndex.setCatalog(albums, songs);
+                    if (!cancelled) {
+                        post(() -> callback.onLibraryReconciled(albums, catalog, searchIndex));
+                    }
+                }
+                if (changed) {
+                    saveSnapshot(albums, songs);
+                }
+            }
+
+            long totalMillis = SystemClock.elapsedRealtime() - startTime;
+            long firstRow = firstRowMillis;
+            int queries = queryCount;
+            SCANS.increment();
+            SCAN_DURATION.record(totalMillis);
+            if (firstRow >= 0) {
+                FIRST_ROW.record(firstRow);
+            }
+            Log.d(TAG, "Scan finished: first row after " + firstRow + " ms, total " + totalMillis
+                    + " ms, " + queries + " provider queries"
+                    + (fromSnapshot ? ", served from snapshot" : ""));
+            post(() -> callback.onScanFinished(firstRow, totalMillis, queries));
+        }
+
+        private LibrarySnapshot openSnapshot() {
+            if (snapshotFile == null || !snapshotFile.exists()) {
+                return null;
+            }
+            try {
+                return LibrarySnapshot.open(snapshotFile);
+            } catch (IOException e) {
+                // Unreadable or from an older version, it gets rewritten after the scan
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        private void saveSnapshot(List<Album> albums, List<Song> songs) {
+            if (snapshotFile == null) {
+                return;
+            }
+            try {
+                LibrarySnapshot.write(snapshotFile, songs, albums);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private List<Album> publishSnapshotAlbums(LibrarySnapshot snapshot) {
+            try {
+                List<Album> all = new ArrayList<>(snapshot.getAlbumCount());
+                int pageSize = FIRST_PAGE_SIZE;
+                while (!cancelled && all.size() < snapshot.getAlbumCount()) {
+                    int end = Math.min(all.size() + pageSize, snapshot.getAlbumCount());
+                    List<Album> page = snapshot.getAlbums(all.size(), end);
+                    all.addAll(page);
+                    publishAlbums(page);
+                    pageSize = PAGE_SIZE;
+                }
+                return cancelled ? null : all;
+            } catch (RuntimeException e) {
+                // A truncated file shows up as out-of-bounds reads
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        private List<Song> publishSnapshotSongs(LibrarySnapshot snapshot) {
+            try {
+                List<Song> all = new ArrayList<>(snapshot.getSongCount());
+                int pageSize = FIRST_PAGE_SIZE;
+                while (!cancelled && all.size() < snapshot.getSongCount()) {
+                    int end = Math.min(all.size() + pageSize, snapshot.getSongCount());
+                    List<Song> page = snapshot.getSongs(all.size(), end);
+                    all.addAll(page);
+                    publishSongs(page);
+                    pageSize = PAGE_SIZE;
+                }
+                return cancelled ? null : all;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        private List<Album> scanAlbums(boolean publish) {
+            Uri uri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
+            String[] projection = {
+                    MediaStore.Audio.Albums._ID,
+                    MediaStore.Audio.Albums.ALBUM,
+                    MediaStore.Audio.Albums.ARTIST,
+                    MediaStore.Audio.Albums.ALBUM_ART
+            };
+
+            Set<Long> albumIdsWithSongs = null;
+            try (Cursor cursor = query(uri, projection, null, null, null)) {
+                if (cursor == null) {
+                    return null;
+                }
+                List<Album> all = new ArrayList<>(cursor.getCount());
+                int published = 0;
+                int pageSize = FIRST_PAGE_SIZE;
+                while (!cancelled && cursor.moveToNext()) {
+                    String id = cursor.getString(0);
+                    String title = cursor.getString(1);
+                    String artist = cursor.getString(2);
+                    String albumArt = cursor.getString(3);
+
+                    // If album art is null, fall back to the art of any song in the album
+                    if (albumArt == null) {
+                        if (albumIdsWithSongs == null) {
+                            albumIdsWithSongs = findAlbumIdsWithSongs();
+                        }
+                        long albumId = Long.parseLong(id);
+                        if (albumIdsWithSongs.contains(albumId)) {
+                            albumArt = ContentUris.withAppendedId(ALBUM_ART_URI, albumId).toString();
+                        }
+                    }
+
+                    all.add(new Album(title, artist, albumArt, id));
+                    if (publish && all.size() - published >= pageSize) {
+                        publishAlbums(new ArrayList<>(all.subList(published, all.size())));
+                        published = all.size();
+                        pageSize = PAGE_SIZE;
+                    }
+                }
+                if (cancelled) {
+                    return null;
+                }
+                if (publish && published < all.size()) {
+                    publishAlbums(new ArrayList<>(all.subList(published, all.size())));
+                }
+                return all;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        // One pass over the media table instead of a query per album with missing art
+        private Set<Long> findAlbumIdsWithSongs() {
+            Set<Long> albumIds = new HashSet<>();
+            Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+            String[] projection = {
+                    MediaStore.Audio.Media.ALBUM_ID
+            };
+
+            try (Cursor cursor = query(uri, projection, null, null, null)) {
+                if (cursor != null) {
+                    while (!cancelled && cursor.moveToNext()) {
+                        albumIds.add(cursor.getLong(0));
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return albumIds;
+        }
+
+        private Cursor query(Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+            queryCount++;
+            QUERIES.increment();
+            return contentResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        private List<Song> scanSongs(boolean publish) {
+            Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+            String[] projection = {
+                    MediaStore.Audio.Media._ID,
+                    MediaStore.Audio.Media.TITLE,
+                    MediaStore.Audio.Media.ARTIST,
+                    MediaStore.Audio.Media.DATA,
+                    MediaStore.Audio.Media.DURATION,
+                    MediaStore.Audio.Media.ALBUM_ID
+            };
+            String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+
+            try (Cursor cursor = query(uri, projection, selection, null, null)) {
+                if (cursor == null) {
+                    return null;
+                }
+                List<Song> all = new ArrayList<>(cursor.getCount());
+                int published = 0;
+                int pageSize = FIRST_PAGE_SIZE;
+                while (!cancelled && cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    String title = cursor.getString(1);
+                    String artist = cursor.getString(2);
+                    String path = cursor.getString(3);
+                    long duration = cursor.getLong(4);
+                    long albumId = cursor.getLong(5);
+
+                    // Use the first song's album art for the banner
+                    if (cursor.isFirst()) {
+                        Uri albumArtUri = ContentUris.withAppendedId(ALBUM_ART_URI, albumId);
+                        post(() -> callback.onBannerArtFound(albumArtUri));
+                    }
+
+                    all.add(new Song(id, title, artist, path, duration, albumId));
+                    if (publish && all.size() - published >= pageSize) {
+                        publishSongs(new ArrayList<>(all.subList(published, all.size())));
+                        published = all.size();
+                        pageSize = PAGE_SIZE;
+                    }
+                }
+                if (cancelled) {
+                    return null;
+                }
+                if (publish && published < all.size()) {
+                    publishSongs(new ArrayList<>(all.subList(published, all.size())));
+                }
+                return all;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        private void publishAlbums(List<Album> page) {
+            markFirstRow();
+            post(() -> callback.onAlbumsLoaded(page));
+        }
+
+        private void publishSongs(List<Song> page) {
+            markFirstRow();
+            post(() -> callback.onSongsLoaded(page));
+        }
+
+        private void markFirstRow() {
+            if (firstRowMillis < 0) {
+                firstRowMillis = SystemClock.elapsedRealtime() - startTime;
+                Log.d(TAG, "First row ready after " + firstRowMillis + " ms");
+            }
+        }
+
+        // Delivers on the main thread, dropping the result if this job was cancelled meanwhile
+        private void post(Runnable action) {
+            mainHandler.post(() -> {
+                if (!cancelled) {
+                    action.run();
+                }
+            });
+        }
+    }
+}
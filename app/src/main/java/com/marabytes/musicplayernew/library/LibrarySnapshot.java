@@ -0,0 +1,220 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact on-disk copy of the song and album catalog. The file is memory-mapped
+ * and rows are decoded on demand straight from fixed-size records, so the
+ * first screen can be filled without reading the whole file.
+ *
+ * Layout: a fixed header, a table of song records, a table of album records,
+ * then a pool of length-prefixed UTF-8 strings that the records point into.
+ * Repeated strings (artists, album art URIs) are stored once.
+ */
+public class LibrarySnapshot {
+    private static final int MAGIC = 0x4d504c53; // "MPLS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    // id, album id, duration + title, artist, path string refs
+    private static final int SONG_RECORD_SIZE = 8 + 8 + 8 + 4 + 4 + 4;
+    // title, artist, album art, id string refs
+    private static final int ALBUM_RECORD_SIZE = 4 + 4 + 4 + 4;
+    private static final int NULL_REF = -1;
+
+    private final ByteBuffer buffer;
+    private final int songCount;
+    private final int albumCount;
+    private final int songTableOffset;
+    private final int albumTableOffset;
+    private final int stringsOffset;
+
+    private LibrarySnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a library snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+        songCount = buffer.getInt(8);
+        albumCount = buffer.getInt(12);
+        songTableOffset = buffer.getInt(16);
+        albumTableOffset = buffer.getInt(20);
+        stringsOffset = buffer.getInt(24);
+
+        if (songCount < 0 || albumCount < 0
+                || songTableOffset != HEADER_SIZE
+                || albumTableOffset != songTableOffset + (long) songCount * SONG_RECORD_SIZE
+                || stringsOffset != albumTableOffset + (long) albumCount * ALBUM_RECORD_SIZE
+                || stringsOffset > buffer.capacity()) {
+            throw new IOException("Corrupt library snapshot");
+        }
+    }
+
+    public static LibrarySnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return new LibrarySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getSongCount() {
+        return songCount;
+    }
+
+    public int getAlbumCount() {
+        return albumCount;
+    }
+
+    public Song getSong(int index) {
+        int record = songTableOffset + index * SONG_RECORD_SIZE;
+        return new Song(
+                buffer.getLong(record),
+                readString(buffer.getInt(record + 24)),
+                readString(buffer.getInt(record + 28)),
+                readString(buffer.getInt(record + 32)),
+                buffer.getLong(record + 16),
+                buffer.getLong(record + 8));
+    }
+
+    public Album getAlbum(int index) {
+        int record = albumTableOffset + index * ALBUM_RECORD_SIZE;
+        return new Album(
+                readString(buffer.getInt(record)),
+                readString(buffer.getInt(record + 4)),
+                readString(buffer.getInt(record + 8)),
+                readString(buffer.getInt(record + 12)));
+    }
+
+    public List<Song> getSongs(int from, int to) {
+        List<Song> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(getSong(i));
+        }
+        return result;
+    }
+
+    public List<Album> getAlbums(int from, int to) {
+        List<Album> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(getAlbum(i));
+        }
+        return result;
+    }
+
+    private String readString(int ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        int offset = stringsOffset + ref;
+        int length = buffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void write(File file, List<Song> songs, List<Album> albums) throws IOException {
+        StringSection strings = new StringSection();
+        int songTableOffset = HEADER_SIZE;
+        int albumTableOffset = songTableOffset + songs.size() * SONG_RECORD_SIZE;
+        int stringsOffset = albumTableOffset + albums.size() * ALBUM_RECORD_SIZE;
+
+        ByteBuffer tables = ByteBuffer.allocate(stringsOffset);
+        tables.putInt(MAGIC);
+        tables.putInt(VERSION);
+        tables.putInt(songs.size());
+        tables.putInt(albums.size());
+        tables.putInt(songTableOffset);
+        tables.putInt(albumTableOffset);
+        tables.putInt(stringsOffset);
+        tables.putInt(0);
+
+        for (Song song : songs) {
+            tables.putLong(song.getId());
+            tables.putLong(song.getAlbumId());
+            tables.putLong(song.getDuration());
+            tables.putInt(strings.add(song.getTitle()));
+            tables.putInt(strings.add(song.getArtist()));
+            tables.putInt(strings.add(song.getPath()));
+        }
+        for (Album album : albums) {
+            tables.putInt(strings.add(album.getTitle()));
+            tables.putInt(strings.add(album.getArtist()));
+            tables.putInt(strings.add(album.getAlbumArt()));
+            tables.putInt(strings.add(album.getId()));
+        }
+        tables.flip();
+
+        // Write next to the target and swap in, so a crash never leaves a half-written snapshot
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(tables.array(), 0, tables.limit());
+            out.write(strings.bytes(), 0, strings.size());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // The file's deduplicated string section while it is written, references are byte offsets into it
+    private static class StringSection {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private byte[] data = new byte[4096];
+        private int size;
+
+        int add(String value) {
+            if (value == null) {
+                return NULL_REF;
+            }
+            Integer existing = offsets.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(size + 4 + bytes.length);
+            int offset = size;
+            data[size++] = (byte) (bytes.length >>> 24);
+            data[size++] = (byte) (bytes.length >>> 16);
+            data[size++] = (byte) (bytes.length >>> 8);
+            data[size++] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+            offsets.put(value, offset);
+            return offset;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > data.length) {
+                byte[] grown = new byte[Math.max(needed, data.length * 2)];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+        }
+
+        byte[] bytes() {
+            return data;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.marabytes.musicplayernew.library;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.marabytes.musicplayernew.metrics.LatencyHistogram;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the loaded library in step with MediaStore after the initial scan.
+ * Change notifications are debounced, and each sync only reads rows that
+ * changed: on Android 11+ that's rows whose GENERATION_MODIFIED is newer than
+ * the last sync, on older versions rows added or modified since then. A
+ * cheap id-only pass finds deleted songs, and only runs when a delete may
+ * have happened.
+ */
+public class LibrarySync {
+    private static final String TAG = "LibrarySync";
+    // Wait for a quiet period before syncing, but never longer than the max delay during a storm
+    private static final long DEBOUNCE_MS = 1000;
+    private static final long MAX_DELAY_MS = 5000;
+
+    private static final LatencyHistogram SYNC_DURATION = Metrics.getInstance().histogram(Metrics.LIBRARY_SYNC_MS);
+
+    public interface Callback {
+        // Songs are new or updated rows; albums are the rows of the albums those songs belong to
+        void onLibraryChanged(List<Song> changedSongs, Set<Long> removedSongIds, List<Album> changedAlbums);
+        // MediaStore was rebuilt (e.g. a volume was reformatted) and generations mean nothing anymore
+        void onFullRescanNeeded();
+    }
+
+    private final Context context;
+    private final ContentResolver contentResolver;
+    private final LibraryIndex libraryIndex;
+    private final Callback callback;
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+    private final ContentObserver observer;
+    private final Runnable syncRunnable = this::runSync;
+
+    private boolean registered = false;
+    private long firstPendingChange = -1;
+    private boolean deletePending = false;
+
+    // Only touched on the executor thread
+    private String mediaStoreVersion;
+    private final Map<String, Long> generations = new HashMap<>();
+    private long lastSyncSeconds;
+
+    public LibrarySync(Context context, LibraryIndex libraryIndex, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.contentResolver = this.context.getContentResolver();
+        this.libraryIndex = libraryIndex;
+        this.callback = callback;
+        this.executor = Executors.newSingleThreadExecutor();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.observer = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // Without flags we can't tell an insert from a delete
+                onMediaChanged(true);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri, int flags) {
+                onMediaChanged((flags & ContentResolver.NOTIFY_DELETE) != 0 || flags == 0);
+            }
+        };
+    }
+
+    /**
+     * Call right before the initial scan: changes from here on are picked up,
+     * and anything the scan already saw is just reported again as an update.
+     */
+    public void start() {
+        if (!registered) {
+            contentResolver.registerContentObserver(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+            registered = true;
+        }
+        executor.execute(this::takeBaseline);
+    }
+
+    public void stop() {
+        if (registered) {
+            contentResolver.unregisterContentObserver(observer);
+            registered = false;
+        }
+        mainHandler.removeCallbacks(syncRunnable);
+        firstPendingChange = -1;
+        deletePending = false;
+    }
+
+    public void shutdown() {
+        stop();
+        executor.shutdownNow();
+    }
+
+    private void onMediaChanged(boolean mayBeDelete) {
+        deletePending |= mayBeDelete;
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingChange == -1) {
+            firstPendingChange = now;
+        }
+        mainHandler.removeCallbacks(syncRunnable);
+        long delay = Math.min(DEBOUNCE_MS, firstPendingChange + MAX_DELAY_MS - now);
+        mainHandler.postDelayed(syncRunnable, Math.max(0, delay));
+    }
+
+    private void runSync() {
+        boolean checkDeletes = deletePending;
+        firstPendingChange = -1;
+        deletePending = false;
+        executor.execute(() -> sync(checkDeletes));
+    }
+
+    private void takeBaseline() {
+        lastSyncSeconds = System.currentTimeMillis() / 1000;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            mediaStoreVersion = MediaStore.getVersion(context);
+            generations.clear();
+            for (String volume : MediaStore.getExternalVolumeNames(context)) {
+                generations.put(volume, MediaStore.getGeneration(context, volume));
+            }
+        }
+    }
+
+    private void sync(boolean checkDeletes) {
+        long start = SystemClock.elapsedRealtime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && !TextUtils.equals(mediaStoreVersion, MediaStore.getVersion(context))) {
+            takeBaseline();
+            mainHandler.post(callback::onFullRescanNeeded);
+            return;
+        }
+
+        List<Song> changed = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? queryChangedSinceGeneration()
+                : queryChangedSinceTime();
+        Set<Long> removed = checkDeletes ? findRemovedIds() : new HashSet<>();
+        if (changed == null || removed == null) {
+            return;
+        }
+        List<Album> albums = queryAlbumsOf(changed);
+
+        long syncMillis = SystemClock.elapsedRealtime() - start;
+        SYNC_DURATION.record(syncMillis);
+        Log.d(TAG, "Synced " + changed.size() + " changed and " + removed.size() + " removed songs in "
+                + syncMillis + " ms");
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            mainHandler.post(() -> callback.onLibraryChanged(changed, removed, albums));
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.R)
+    private List<Song> queryChangedSinceGeneration() {
+        // One clause per volume, since every volume counts its own generations
+        StringBuilder selection = new StringBuilder(MediaStore.Audio.Media.IS_MUSIC + " != 0 AND (");
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : generations.entrySet()) {
+            if (!args.isEmpty()) {
+                selection.append(" OR ");
+            }
+            selection.append("(" + MediaStore.Audio.Media.VOLUME_NAME + " = ? AND "
+                    + MediaStore.Audio.Media.GENERATION_MODIFIED + " > ?)");
+            args.add(entry.getKey());
+            args.add(String.valueOf(entry.getValue()));
+        }
+        if (args.isEmpty()) {
+            selection.append("1");
+        } else {
+            // Volumes that appeared since the last sync (e.g. an SD card) are new in full
+            selection.append(" OR " + MediaStore.Audio.Media.VOLUME_NAME + " NOT IN (");
+            int volumes = generations.size();
+            for (int i = 0; i < volumes; i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+                args.add(args.get(i * 2));
+            }
+            selection.append(")");
+        }
+        selection.append(")");
+
+        String[] projection = {
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.ALBUM_ID,
+                MediaStore.Audio.Media.VOLUME_NAME,
+                MediaStore.Audio.Media.GENERATION_MODIFIED
+        };
+        try (Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                projection, selection.toString(), args.toArray(new String[0]), null)) {
+            if (cursor == null) {
+                return null;
+            }
+            List<Song> changed = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                changed.add(readSong(cursor));
+                String volume = cursor.getString(6);
+                long generation = cursor.getLong(7);
+                Long known = generations.get(volume);
+                if (known == null || generation > known) {
+                    generations.put(volume, generation);
+                }
+            }
+            return changed;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Pre-Android 11 fallback: no generations, so use the add/modify timestamps (in seconds)
+    private List<Song> queryChangedSinceTime() {
+        long since = lastSyncSeconds - 1;
+        lastSyncSeconds = System.currentTimeMillis() / 1000;
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0 AND ("
+                + MediaStore.Audio.Media.DATE_ADDED + " >= ? OR "
+                + MediaStore.Audio.Media.DATE_MODIFIED + " >= ?)";
+        String[] args = {String.valueOf(since), String.valueOf(since)};
+        String[] projection = {
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.ALBUM_ID
+        };
+        try (Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                projection, selection, args, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            List<Song> changed = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                changed.add(readSong(cursor));
+            }
+            return changed;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Song readSong(Cursor cursor) {
+        return new Song(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), cursor.getLong(4), cursor.getLong(5));
+    }
+
+    // Reads only the _ID column, which is far cheaper than re-reading the songs
+    private Set<Long> findRemovedIds() {
+        String[] projection = {MediaStore.Audio.Media._ID};
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+        try (Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                projection, selection, null, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            Set<Long> present = new HashSet<>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                present.add(cursor.getLong(0));
+            }
+            Set<Long> removed = new HashSet<>();
+            for (long id : libraryIndex.getSongIds()) {
+                if (!present.contains(id)) {
+                    removed.add(id);
+                }
+            }
+            return removed;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private List<Album> queryAlbumsOf(List<Song> songs) {
+        List<Album> albums = new ArrayList<>();
+        Set<Long> albumIds = new HashSet<>();
+        for (Song song : songs) {
+            albumIds.add(song.getAlbumId());
+        }
+        if (albumIds.isEmpty()) {
+            return albums;
+        }
+        String[] projection = {
+                MediaStore.Audio.Albums._ID,
+                MediaStore.Audio.Albums.ALBUM,
+                MediaStore.Audio.Albums.ARTIST,
+                MediaStore.Audio.Albums.ALBUM_ART
+        };
+        String selection = MediaStore.Audio.Albums._ID + " IN (" + TextUtils.join(",", albumIds) + ")";
+        try (Cursor cursor = contentResolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                projection, selection, null, null)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    String id = cursor.getString(0);
+                    String albumArt = cursor.getString(3);
+                    if (albumArt == null) {
+                        // These albums have a song by definition, so the art URI will resolve
+                        albumArt = ContentUris.withAppendedId(LibraryScanner.ALBUM_ART_URI, Long.parseLong(id)).toString();
+                    }
+                    albums.add(new Album(cursor.getString(1), cursor.getString(2), albumArt, id));
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return albums;
+    }
+}
@@ -0,0 +1,270 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search over song titles, artists and album names. Words are
+ * folded to lower case without accents ("Café" matches "cafe"), and every word
+ * of the query must be the start of some word of the song, so results narrow
+ * as the user types. Songs can be added and removed one at a time as the
+ * library changes. Indexed songs are kept in a compact {@link SongCatalog};
+ * only the songs in a result are built as objects.
+ */
+public class SearchIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    // Below this many slots dead ones aren't worth compacting away
+    private static final int MIN_SLOTS_TO_COMPACT = 64;
+
+    // Every distinct word, sorted so a prefix maps to one contiguous range
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    // Songs by slot; removed songs stay in place but drop out of live, so other slots keep their numbers
+    // until dead slots outnumber live ones and compact() renumbers them all
+    private SongCatalog slots = new SongCatalog();
+    private final BitSet live = new BitSet();
+    private int liveCount;
+    private final Map<Long, String> albumTitles = new HashMap<>();
+
+    // Albums should be added before their songs so album names get indexed
+    public synchronized void addAlbums(List<Album> albums) {
+        for (Album album : albums) {
+            try {
+                albumTitles.put(Long.parseLong(album.getId()), album.getTitle());
+            } catch (NumberFormatException e) {
+                // Not a MediaStore album, songs can't refer to it
+            }
+        }
+    }
+
+    public synchronized void addSongs(List<Song> songs) {
+        for (Song song : songs) {
+            addSong(song);
+        }
+    }
+
+    public synchronized void addSong(Song song) {
+        // Re-adding a path replaces the old entry, which makes this an update too
+        removeSong(song.getPath());
+
+        int slot = slots.size();
+        slots.add(song);
+        live.set(slot);
+        liveCount++;
+        for (String word : wordsOf(song)) {
+            IntList list = postings.get(word);
+            if (list == null) {
+                list = new IntList();
+                postings.put(word, list);
+            }
+            list.add(slot);
+        }
+    }
+
+    public synchronized void removeSong(String path) {
+        // The catalog finds the newest slot for a path, which is the live one if any
+        int slot = slots.indexOfPath(path);
+        if (slot == -1 || !live.get(slot)) {
+            return;
+        }
+        live.clear(slot);
+        liveCount--;
+        // Words are worked out again rather than stored per slot; if an album was renamed
+        // since, a stale posting can remain, which search skips because the slot isn't live
+        for (String word : wordsOf(slots.get(slot))) {
+            IntList list = postings.get(word);
+            if (list != null) {
+                list.remove(slot);
+                if (list.size == 0) {
+                    postings.remove(word);
+                }
+            }
+        }
+        if (slots.size() >= MIN_SLOTS_TO_COMPACT && slots.size() > 2 * liveCount) {
+            compact();
+        }
+    }
+
+    // Drops dead slots so memory and the per-term bitsets of search follow the live songs. Runs once
+    // at least half the slots are dead, so its cost spreads to O(1) per removal
+    private void compact() {
+        int[] newSlots = new int[slots.size()];
+        SongCatalog compacted = new SongCatalog();
+        for (int slot = 0; slot < slots.size(); slot++) {
+            if (live.get(slot)) {
+                newSlots[slot] = compacted.size();
+                compacted.add(slots.get(slot));
+            } else {
+                newSlots[slot] = -1;
+            }
+        }
+        // Slot order is kept, so every list stays sorted; stale postings of dead slots go too
+        for (Iterator<IntList> lists = postings.values().iterator(); lists.hasNext(); ) {
+            IntList list = lists.next();
+            int kept = 0;
+            for (int i = 0; i < list.size; i++) {
+                int slot = newSlots[list.items[i]];
+                if (slot != -1) {
+                    list.items[kept++] = slot;
+                }
+            }
+            list.size = kept;
+            if (kept == 0) {
+                lists.remove();
+            }
+        }
+        slots = compacted;
+        live.clear();
+        live.set(0, liveCount);
+    }
+
+    private Set<String> wordsOf(Song song) {
+        Set<String> words = new LinkedHashSet<>();
+        tokenize(song.getTitle(), words);
+        tokenize(song.getArtist(), words);
+        tokenize(albumTitles.get(song.getAlbumId()), words);
+        return words;
+    }
+
+    public synchronized void setCatalog(List<Album> albums, List<Song> songs) {
+        clear();
+        addAlbums(albums);
+        addSongs(songs);
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        slots.clear();
+        live.clear();
+        liveCount = 0;
+        albumTitles.clear();
+    }
+
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    // Live and dead slots together
+    synchronized int slotCount() {
+        return slots.size();
+    }
+
+    // Songs where every query word starts some word of the title, artist or album, in library order
+    public synchronized List<Song> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        tokenize(query, terms);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        long[] matches = null;
+        for (String term : terms) {
+            long[] termMatches = new long[(slots.size() + 63) >>> 6];
+            boolean any = false;
+            // All words starting with term form one range of the sorted map
+            for (IntList list : postings.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                int[] items = list.items;
+                for (int i = 0; i < list.size; i++) {
+                    int slot = items[i];
+                    termMatches[slot >>> 6] |= 1L << slot;
+                }
+                any = true;
+            }
+            if (!any) {
+                return Collections.emptyList();
+            }
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                for (int i = 0; i < matches.length; i++) {
+                    matches[i] &= termMatches[i];
+                }
+            }
+        }
+
+        List<Song> results = new ArrayList<>(Math.min(limit, 64));
+        for (int i = 0; i < matches.length && results.size() < limit; i++) {
+            long bits = matches[i];
+            while (bits != 0 && results.size() < limit) {
+                int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (live.get(slot)) {
+                    results.add(slots.get(slot));
+                }
+            }
+        }
+        return results;
+    }
+
+    // Lower case, accents stripped, split on anything that isn't a letter or digit
+    static void tokenize(String text, Set<String> out) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        String folded = isAscii(text)
+                ? text.toLowerCase(Locale.ROOT)
+                : COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                        .replaceAll("")
+                        .toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i < folded.length(); i++) {
+            if (Character.isLetterOrDigit(folded.charAt(i))) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                out.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start != -1) {
+            out.add(folded.substring(start));
+        }
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Growable int array, so postings don't box every slot number
+    private static class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == value) {
+                    System.arraycopy(items, i + 1, items, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Column-oriented song storage for very large libraries. Instead of one
+ * object and three strings per song, ids and durations live in primitive
+ * arrays, artists and folders are interned in a {@link StringPool}, and titles
+ * and file names are packed into one shared UTF-8 byte array. {@link Song} objects
+ * are only built when a row is read, e.g. when an adapter binds it.
+ *
+ * <p>{@link #snapshot()} returns an immutable list view in constant time.
+ * Appending never disturbs existing snapshots; changing or removing a row
+ * copies the columns first if a snapshot still shares them.
+ */
+public class SongCatalog {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final StringPool pool;
+    private final boolean readOnly;
+
+    private int size;
+    private long[] ids;
+    private long[] albumIds;
+    // Milliseconds; an int covers 24 days
+    private int[] durations;
+    private int[] artistRefs;
+    private int[] directoryRefs;
+    // UTF-8 title and file name of a row sit back to back in text, starting at
+    // textOffsets[row]; lengths are in bytes and a title length of -1 means a null title
+    private int[] textOffsets;
+    private int[] titleLengths;
+    private int[] nameLengths;
+    private int[] pathHashes;
+    private byte[] text;
+    private int textSize;
+    private int wastedText;
+    // Pool array as of the snapshot, so later interns can't affect it
+    private String[] strings;
+    // True while a snapshot uses the arrays above
+    private boolean shared;
+
+    // Open-addressing lookup tables holding row + 1, zero meaning empty
+    private int[] pathTable;
+    private int[] idTable;
+    // Set once a row's path or id hides an older row's; taking the newer row out of the
+    // tables would then have to bring the older one back, which only a rebuild does
+    private boolean shadowedRows;
+
+    public SongCatalog() {
+        pool = new StringPool();
+        readOnly = false;
+        allocate(INITIAL_CAPACITY, INITIAL_CAPACITY * 32);
+    }
+
+    // Read-only view sharing the columns of source as they are right now
+    private SongCatalog(SongCatalog source) {
+        pool = null;
+        readOnly = true;
+        size = source.size;
+        ids = source.ids;
+        albumIds = source.albumIds;
+        durations = source.durations;
+        artistRefs = source.artistRefs;
+        directoryRefs = source.directoryRefs;
+        textOffsets = source.textOffsets;
+        titleLengths = source.titleLengths;
+        nameLengths = source.nameLengths;
+        pathHashes = source.pathHashes;
+        text = source.text;
+        textSize = source.textSize;
+        strings = source.pool.getStrings();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Song get(int row) {
+        checkRow(row);
+        String title = titleLengths[row] >= 0 ? new String(text, textOffsets[row], titleLengths[row], StandardCharsets.UTF_8)
+                : null;
+        return new Song(ids[row], title, string(artistRefs[row]), getPath(row), durations[row], albumIds[row]);
+    }
+
+    public String getPath(int row) {
+        checkRow(row);
+        return string(directoryRefs[row]) + new String(text, nameStart(row), nameLengths[row], StandardCharsets.UTF_8);
+    }
+
+    public long getId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    public void add(Song song) {
+        checkWritable();
+        if (size == ids.length) {
+            grow(size * 3 / 2);
+        }
+        write(size, song);
+        size++;
+        insertIntoTables(size - 1);
+    }
+
+    public void addAll(List<Song> songs) {
+        checkWritable();
+        if (size + songs.size() > ids.length) {
+            grow(Math.max(size * 3 / 2, size + songs.size()));
+        }
+        for (int i = 0; i < songs.size(); i++) {
+            add(songs.get(i));
+        }
+    }
+
+    // Only the row's own table entries change, so a batch of updates stays linear
+    public void set(int row, Song song) {
+        checkWritable();
+        checkRow(row);
+        unshare();
+        wastedText += textLength(row);
+        if (shadowedRows) {
+            write(row, song);
+            rebuildTables();
+        } else {
+            removeFromTables(row);
+            write(row, song);
+            insertIntoTables(row);
+        }
+        compactTextIfWasteful();
+    }
+
+    /**
+     * Removes one row; later rows move up by one. That is a copy of the
+     * columns either way, so use {@link #removeAll} for more than a few rows.
+     */
+    public void remove(int row) {
+        checkWritable();
+        checkRow(row);
+        unshare();
+        wastedText += textLength(row);
+        boolean rebuild = shadowedRows;
+        if (!rebuild) {
+            removeFromTables(row);
+        }
+        int moved = size - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, moved);
+        System.arraycopy(albumIds, row + 1, albumIds, row, moved);
+        System.arraycopy(durations, row + 1, durations, row, moved);
+        System.arraycopy(artistRefs, row + 1, artistRefs, row, moved);
+        System.arraycopy(directoryRefs, row + 1, directoryRefs, row, moved);
+        System.arraycopy(textOffsets, row + 1, textOffsets, row, moved);
+        System.arraycopy(titleLengths, row + 1, titleLengths, row, moved);
+        System.arraycopy(nameLengths, row + 1, nameLengths, row, moved);
+        System.arraycopy(pathHashes, row + 1, pathHashes, row, moved);
+        size--;
+        if (rebuild) {
+            rebuildTables();
+        } else {
+            // Renumbering is a plain scan, no rehashing
+            renumberAfter(row, pathTable);
+            renumberAfter(row, idTable);
+        }
+        compactTextIfWasteful();
+    }
+
+    // Removes the set rows in one pass over the columns and a single table rebuild
+    public void removeAll(BitSet rows) {
+        checkWritable();
+        if (rows.nextSetBit(0) == -1 || rows.nextSetBit(0) >= size) {
+            return;
+        }
+        unshare();
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (rows.get(row)) {
+                wastedText += textLength(row);
+                continue;
+            }
+            if (kept != row) {
+                moveRow(row, kept);
+            }
+            kept++;
+        }
+        size = kept;
+        rebuildTables();
+        compactTextIfWasteful();
+    }
+
+    public void clear() {
+        checkWritable();
+        pool.clear();
+        size = 0;
+        wastedText = 0;
+        shared = false;
+        allocate(INITIAL_CAPACITY, INITIAL_CAPACITY * 32);
+    }
+
+    // Row of the most recently added song with this path, or -1
+    public int indexOfPath(String path) {
+        checkWritable();
+        if (path == null) {
+            return -1;
+        }
+        int hash = path.hashCode();
+        int mask = pathTable.length - 1;
+        for (int i = mix(hash) & mask; pathTable[i] != 0; i = (i + 1) & mask) {
+            int row = pathTable[i] - 1;
+            if (pathHashes[row] == hash && pathEquals(row, path)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // Row of the most recently added song with this MediaStore id, or -1
+    public int indexOfId(long id) {
+        checkWritable();
+        if (id == Song.NO_ID) {
+            return -1;
+        }
+        int mask = idTable.length - 1;
+        for (int i = mix(Long.hashCode(id)) & mask; idTable[i] != 0; i = (i + 1) & mask) {
+            int row = idTable[i] - 1;
+            if (ids[row] == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Immutable list of the current rows. Songs are built on each get(), so
+     * compare them with equals(), not ==.
+     */
+    public List<Song> snapshot() {
+        if (readOnly) {
+            return new SnapshotList(this);
+        }
+        shared = true;
+        return new SnapshotList(new SongCatalog(this));
+    }
+
+    /**
+     * Immutable list of the songs with these MediaStore ids, in that order,
+     * sharing the current rows like {@link #snapshot()}. Ids that aren't in
+     * the catalog are left out.
+     */
+    public List<Song> snapshotOfIds(long[] songIds) {
+        checkWritable();
+        int[] rows = new int[songIds.length];
+        int count = 0;
+        for (long id : songIds) {
+            int row = indexOfId(id);
+            if (row != -1) {
+                rows[count++] = row;
+            }
+        }
+        shared = true;
+        return new RowList(new SongCatalog(this), Arrays.copyOf(rows, count));
+    }
+
+    private void write(int row, Song song) {
+        String path = song.getPath();
+        int slash = path.lastIndexOf('/');
+        String title = song.getTitle();
+        byte[] titleBytes = title != null ? title.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] nameBytes = path.substring(slash + 1).getBytes(StandardCharsets.UTF_8);
+        int titleLength = titleBytes != null ? titleBytes.length : 0;
+        int nameLength = nameBytes.length;
+        ensureText(textSize + titleLength + nameLength);
+
+        ids[row] = song.getId();
+        albumIds[row] = song.getAlbumId();
+        durations[row] = (int) Math.min(Integer.MAX_VALUE, song.getDuration());
+        artistRefs[row] = pool.intern(song.getArtist());
+        // substring() of the folder is only kept the first time we see that folder
+        directoryRefs[row] = pool.intern(path.substring(0, slash + 1));
+        textOffsets[row] = textSize;
+        titleLengths[row] = titleBytes != null ? titleLength : -1;
+        nameLengths[row] = nameLength;
+        pathHashes[row] = path.hashCode();
+        if (titleBytes != null) {
+            System.arraycopy(titleBytes, 0, text, textSize, titleLength);
+        }
+        textSize += titleLength;
+        System.arraycopy(nameBytes, 0, text, textSize, nameLength);
+        textSize += nameLength;
+        strings = pool.getStrings();
+    }
+
+    private boolean pathEquals(int row, String path) {
+        String directory = string(directoryRefs[row]);
+        return path.startsWith(directory) && path.equals(getPath(row));
+    }
+
+    private boolean samePath(int a, int b) {
+        if (pathHashes[a] != pathHashes[b] || directoryRefs[a] != directoryRefs[b]
+                || nameLengths[a] != nameLengths[b]) {
+            return false;
+        }
+        int startA = nameStart(a);
+        int startB = nameStart(b);
+        for (int i = 0; i < nameLengths[a]; i++) {
+            if (text[startA + i] != text[startB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insertIntoTables(int row) {
+        if ((size + 1) * 2 > pathTable.length) {
+            rebuildTables();
+            return;
+        }
+        int mask = pathTable.length - 1;
+        int i = mix(pathHashes[row]) & mask;
+        while (pathTable[i] != 0 && !samePath(pathTable[i] - 1, row)) {
+            i = (i + 1) & mask;
+        }
+        if (pathTable[i] != 0 && pathTable[i] != row + 1) {
+            shadowedRows = true;
+        }
+        // The later row wins, as it would after a rebuild
+        pathTable[i] = Math.max(pathTable[i], row + 1);
+
+        long id = ids[row];
+        if (id != Song.NO_ID) {
+            i = mix(Long.hashCode(id)) & mask;
+            while (idTable[i] != 0 && ids[idTable[i] - 1] != id) {
+                i = (i + 1) & mask;
+            }
+            if (idTable[i] != 0 && idTable[i] != row + 1) {
+                shadowedRows = true;
+            }
+            idTable[i] = Math.max(idTable[i], row + 1);
+        }
+    }
+
+    // Uses the row's current path hash and id, so call before overwriting them
+    private void removeFromTables(int row) {
+        removeEntry(pathTable, row, false);
+        if (ids[row] != Song.NO_ID) {
+            removeEntry(idTable, row, true);
+        }
+    }
+
+    // Linear probing delete: later entries of the same run shift back so no probe stops early
+    private void removeEntry(int[] table, int row, boolean byId) {
+        int mask = table.length - 1;
+        int hole = homeSlot(row, byId) & mask;
+        while (table[hole] != row + 1) {
+            if (table[hole] == 0) {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = homeSlot(table[i] - 1, byId) & mask;
+            // The entry can fill the hole unless its home lies between the hole and where it sits
+            boolean homeAfterHole = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!homeAfterHole) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private int homeSlot(int row, boolean byId) {
+        return mix(byId ? Long.hashCode(ids[row]) : pathHashes[row]);
+    }
+
+    private static void renumberAfter(int removedRow, int[] table) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] > removedRow + 1) {
+                table[i]--;
+            }
+        }
+    }
+
+    // Tables are never shared with snapshots, so they are simply rebuilt from the columns
+    private void rebuildTables() {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (size + 1) * 2) {
+            capacity <<= 1;
+        }
+        pathTable = new int[capacity];
+        idTable = new int[capacity];
+        shadowedRows = false;
+        int count = size;
+        size = 0;
+        while (size < count) {
+            size++;
+            insertIntoTables(size - 1);
+        }
+    }
+
+    private void compactTextIfWasteful() {
+        if (wastedText < 4096 || wastedText < textSize / 2) {
+            return;
+        }
+        byte[] compacted = new byte[Math.max(INITIAL_CAPACITY * 32, (textSize - wastedText) * 3 / 2)];
+        int position = 0;
+        for (int row = 0; row < size; row++) {
+            int length = textLength(row);
+            System.arraycopy(text, textOffsets[row], compacted, position, length);
+            textOffsets[row] = position;
+            position += length;
+        }
+        text = compacted;
+        textSize = position;
+        wastedText = 0;
+    }
+
+    private void moveRow(int from, int to) {
+        ids[to] = ids[from];
+        albumIds[to] = albumIds[from];
+        durations[to] = durations[from];
+        artistRefs[to] = artistRefs[from];
+        directoryRefs[to] = directoryRefs[from];
+        textOffsets[to] = textOffsets[from];
+        titleLengths[to] = titleLengths[from];
+        nameLengths[to] = nameLengths[from];
+        pathHashes[to] = pathHashes[from];
+    }
+
+    // Snapshots read these arrays, so take private copies before changing existing rows
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+        ids = ids.clone();
+        albumIds = albumIds.clone();
+        durations = durations.clone();
+        artistRefs = artistRefs.clone();
+        directoryRefs = directoryRefs.clone();
+        textOffsets = textOffsets.clone();
+        titleLengths = titleLengths.clone();
+        nameLengths = nameLengths.clone();
+        pathHashes = pathHashes.clone();
+        text = text.clone();
+        shared = false;
+    }
+
+    private void allocate(int capacity, int textCapacity) {
+        ids = new long[capacity];
+        albumIds = new long[capacity];
+        durations = new int[capacity];
+        artistRefs = new int[capacity];
+        directoryRefs = new int[capacity];
+        textOffsets = new int[capacity];
+        titleLengths = new int[capacity];
+        nameLengths = new int[capacity];
+        pathHashes = new int[capacity];
+        text = new byte[textCapacity];
+        textSize = 0;
+        strings = pool.getStrings();
+        rebuildTables();
+    }
+
+    // A new array is made on growth, so snapshots keep reading the old one
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        albumIds = Arrays.copyOf(albumIds, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        artistRefs = Arrays.copyOf(artistRefs, capacity);
+        directoryRefs = Arrays.copyOf(directoryRefs, capacity);
+        textOffsets = Arrays.copyOf(textOffsets, capacity);
+        titleLengths = Arrays.copyOf(titleLengths, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        pathHashes = Arrays.copyOf(pathHashes, capacity);
+    }
+
+    private void ensureText(int needed) {
+        if (needed > text.length) {
+            text = Arrays.copyOf(text, Math.max(needed, text.length * 3 / 2));
+        }
+    }
+
+    private int nameStart(int row) {
+        return textOffsets[row] + Math.max(0, titleLengths[row]);
+    }
+
+    private int textLength(int row) {
+        return Math.max(0, titleLengths[row]) + nameLengths[row];
+    }
+
+    private String string(int ref) {
+        return ref >= 0 ? strings[ref] : null;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // A snapshot's rows picked out by number
+    private static class RowList extends AbstractList<Song> implements RandomAccess {
+        private final SongCatalog catalog;
+        private final int[] rows;
+
+        RowList(SongCatalog catalog, int[] rows) {
+            this.catalog = catalog;
+            this.rows = rows;
+        }
+
+        @Override
+        public Song get(int index) {
+            if (index < 0 || index >= rows.length) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + rows.length);
+            }
+            return catalog.get(rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+
+    private static class SnapshotList extends AbstractList<Song> implements RandomAccess {
+        private final SongCatalog catalog;
+
+        SnapshotList(SongCatalog catalog) {
+            this.catalog = catalog;
+        }
+
+        @Override
+        public Song get(int index) {
+            return catalog.get(index);
+        }
+
+        @Override
+        public int size() {
+            return catalog.size;
+        }
+    }
+}
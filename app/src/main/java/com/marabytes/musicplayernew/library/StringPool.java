@@ -0,0 +1,52 @@
+package com.marabytes.musicplayernew.library;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out one small int per distinct string, so a value that repeats across
+ * thousands of songs (an artist, a folder) is stored once. Strings are never
+ * removed, which lets readers keep using an old {@link #getStrings()} array
+ * while new strings are added.
+ */
+class StringPool {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] strings = new String[16];
+    private int count;
+
+    int intern(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (count == strings.length) {
+            strings = Arrays.copyOf(strings, count * 2);
+        }
+        strings[count] = value;
+        ids.put(value, count);
+        return count++;
+    }
+
+    String get(int id) {
+        return id >= 0 ? strings[id] : null;
+    }
+
+    // Entries below the current count never change, even after the array is outgrown
+    String[] getStrings() {
+        return strings;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void clear() {
+        ids.clear();
+        strings = new String[16];
+        count = 0;
+    }
+}
@@ -0,0 +1,251 @@
+package com.marabytes.musicplayernew.loudness;
+
+import com.marabytes.musicplayernew.storage.IdTable;
+import com.marabytes.musicplayernew.storage.RecordFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measured loudness per track, kept in memory and mirrored to a file of
+ * fixed size records (MediaStore id, file modification time, album id,
+ * loudness, peak, gated block count). Every measurement is written as soon
+ * as it's made, so an analysis that gets killed loses at most the tracks it
+ * was working on. Lookups come from the playback thread, so file writes
+ * happen outside the lock they take.
+ *
+ * <p>Album gain isn't stored separately: it's rebuilt from the track records
+ * as they load, as the power mean of the tracks' loudness weighted by their
+ * gated length. That only differs from gating the album as one stream when
+ * a track is far quieter than the rest of its album.
+ */
+public class GainTable {
+    private static final int MAGIC = 0x4C554653; // "LUFS"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = RecordFile.HEADER_SIZE;
+    static final int RECORD_SIZE = 40;
+
+    private final File file;
+    // Orders record writes; taken before this, never while holding it
+    private final Object writeLock = new Object();
+    private RecordFile records;
+    private boolean loaded = false;
+
+    private int count = 0;
+    private long[] ids = new long[0];
+    private long[] lastModifieds = new long[0];
+    private long[] albumIds = new long[0];
+    private float[] loudnesses = new float[0];
+    private float[] peaks = new float[0];
+    private int[] gatedBlocks = new int[0];
+    private IdTable idTable;
+    private final Map<Long, AlbumTotals> albums = new HashMap<>();
+
+    private static class AlbumTotals {
+        // Sum over tracks of gated blocks times block energy
+        double energy;
+        long blocks;
+        double peak;
+        // The album's rows, so a re-measured track only rescans its own album
+        int[] rows = new int[16];
+        int rowCount;
+    }
+
+    public GainTable(File file) {
+        this.file = file;
+    }
+
+    // Reads the file; called on first use otherwise, so callers can do it early on a background thread
+    public synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        RecordFile opened = new RecordFile(file, RECORD_SIZE, MAGIC, VERSION, RECORD_SIZE, 0);
+        ByteBuffer buffer;
+        try {
+            buffer = opened.readAll();
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        int rows = opened.getRecordCount();
+        ensureCapacity(rows);
+        idTable = new IdTable(row -> ids[row], rows);
+        for (int row = 0; row < rows; row++) {
+            ids[row] = buffer.getLong();
+            lastModifieds[row] = buffer.getLong();
+            albumIds[row] = buffer.getLong();
+            loudnesses[row] = buffer.getFloat();
+            peaks[row] = buffer.getFloat();
+            gatedBlocks[row] = buffer.getInt();
+            buffer.getInt();
+            count++;
+            idTable.insert(ids[row], row);
+            addToAlbum(row);
+        }
+        records = opened;
+        loaded = true;
+    }
+
+    // True if the track was measured since its file last changed
+    public synchronized boolean isMeasured(long songId, long lastModified) {
+        if (!ensureLoaded()) {
+            return false;
+        }
+        int row = idTable.find(songId);
+        return row != -1 && lastModifieds[row] == lastModified;
+    }
+
+    public void put(long songId, long lastModified, long albumId, LoudnessMeter meter) throws IOException {
+        put(songId, lastModified, albumId, meter.getIntegratedLoudness(), meter.getSamplePeak(),
+                meter.getGatedBlockCount());
+    }
+
+    void put(long songId, long lastModified, long albumId, double loudness, double peak, long blocks)
+            throws IOException {
+        int gated = (int) Math.min(Integer.MAX_VALUE, blocks);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(songId).putLong(lastModified).putLong(albumId).putFloat((float) loudness)
+                .putFloat((float) peak).putInt(gated).putInt(0).flip();
+        // Rows are handed out under the write lock as well, so appends reach the file in row order
+        synchronized (writeLock) {
+            int row = update(songId, lastModified, albumId, loudness, peak, gated);
+            records.write(row, record);
+        }
+    }
+
+    // The in-memory half of put; returns the track's row
+    private synchronized int update(long songId, long lastModified, long albumId, double loudness, double peak,
+                                    int blocks) throws IOException {
+        load();
+        int row = idTable.find(songId);
+        boolean append = row == -1;
+        if (append) {
+            row = count;
+            ensureCapacity(count + 1);
+        }
+        long previousAlbum = append ? albumId : albumIds[row];
+        ids[row] = songId;
+        lastModifieds[row] = lastModified;
+        albumIds[row] = albumId;
+        loudnesses[row] = (float) loudness;
+        peaks[row] = (float) peak;
+        gatedBlocks[row] = blocks;
+
+        if (append) {
+            count++;
+            idTable.insert(songId, row);
+            addToAlbum(row);
+        } else {
+            // A re-measured track can't be taken out of a running max, so rebuild its album
+            rebuildAlbum(previousAlbum);
+            if (previousAlbum != albumId) {
+                addToAlbum(row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Gain in dB for the track, NaN if it hasn't been measured since its file
+     * last changed: a retagged or re-encoded file plays without gain until
+     * it's measured again.
+     */
+    public synchronized double getTrackGain(long songId, long lastModified) {
+        if (!ensureLoaded()) {
+            return Double.NaN;
+        }
+        int row = idTable.find(songId);
+        return row == -1 || lastModifieds[row] != lastModified ? Double.NaN
+                : ReplayGain.gainDb(loudnesses[row], peaks[row]);
+    }
+
+    // Gain in dB for the album's measured tracks, NaN if none are
+    public synchronized double getAlbumGain(long albumId) {
+        if (!ensureLoaded()) {
+            return Double.NaN;
+        }
+        AlbumTotals album = albums.get(albumId);
+        if (album == null) {
+            return Double.NaN;
+        }
+        double loudness = album.blocks > 0 ? LoudnessMeter.toLufs(album.energy / album.blocks)
+                : Double.NEGATIVE_INFINITY;
+        return ReplayGain.gainDb(loudness, album.peak);
+    }
+
+    public synchronized int size() {
+        return ensureLoaded() ? count : 0;
+    }
+
+    private boolean ensureLoaded() {
+        try {
+            load();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void addToAlbum(int row) {
+        AlbumTotals album = albums.get(albumIds[row]);
+        if (album == null) {
+            album = new AlbumTotals();
+            albums.put(albumIds[row], album);
+        }
+        if (album.rowCount == album.rows.length) {
+            album.rows = Arrays.copyOf(album.rows, album.rowCount * 2);
+        }
+        album.rows[album.rowCount++] = row;
+        addTotals(album, row);
+    }
+
+    private void addTotals(AlbumTotals album, int row) {
+        if (gatedBlocks[row] > 0) {
+            album.energy += gatedBlocks[row] * Math.pow(10, (loudnesses[row] + 0.691) / 10);
+            album.blocks += gatedBlocks[row];
+        }
+        album.peak = Math.max(album.peak, peaks[row]);
+    }
+
+    // Recomputes the album's totals from its rows, dropping rows that moved to another album
+    private void rebuildAlbum(long albumId) {
+        AlbumTotals album = albums.get(albumId);
+        if (album == null) {
+            return;
+        }
+        album.energy = 0;
+        album.blocks = 0;
+        album.peak = 0;
+        int kept = 0;
+        for (int i = 0; i < album.rowCount; i++) {
+            int row = album.rows[i];
+            if (albumIds[row] == albumId) {
+                album.rows[kept++] = row;
+                addTotals(album, row);
+            }
+        }
+        album.rowCount = kept;
+        if (kept == 0) {
+            albums.remove(albumId);
+        }
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(rows, Math.max(256, ids.length * 3 / 2));
+        ids = Arrays.copyOf(ids, capacity);
+        lastModifieds = Arrays.copyOf(lastModifieds, capacity);
+        albumIds = Arrays.copyOf(albumIds, capacity);
+        loudnesses = Arrays.copyOf(loudnesses, capacity);
+        peaks = Arrays.copyOf(peaks, capacity);
+        gatedBlocks = Arrays.copyOf(gatedBlocks, capacity);
+    }
+}
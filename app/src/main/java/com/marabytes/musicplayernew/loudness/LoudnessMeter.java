@@ -0,0 +1,214 @@
+package com.marabytes.musicplayernew.loudness;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Integrated loudness of a track as defined by ITU-R BS.1770 / EBU R128:
+ * K-weighted mean square over 400 ms blocks with 75% overlap, gated at
+ * -70 LUFS and then at 10 LU below the level of the blocks that are left.
+ *
+ * <p>Memory doesn't grow with the length of the track: gated blocks go into
+ * a fixed histogram of loudness bins (exact energy per bin, so only the
+ * relative gate works at bin resolution). Nothing is allocated once the
+ * meter is constructed.
+ */
+public class LoudnessMeter {
+    static final double ABSOLUTE_GATE_LUFS = -70;
+    static final double RELATIVE_GATE_LU = -10;
+    // Blocks louder than the top are counted in the top bin
+    private static final double HISTOGRAM_TOP_LUFS = 5;
+    private static final double BIN_WIDTH_LU = 0.02;
+    private static final int BINS = (int) Math.round((HISTOGRAM_TOP_LUFS - ABSOLUTE_GATE_LUFS) / BIN_WIDTH_LU);
+    private static final double FULL_SCALE = 32768;
+    // Surround channels weigh in at +1.5 dB; the LFE channel doesn't count
+    private static final double[] FIVE_ONE_WEIGHTS = {1, 1, 1, 0, 1.41, 1.41};
+
+    private final int channels;
+    private final double[] weights;
+    // K-weighting: a high shelf followed by a high pass, both biquads
+    private final double shelfB0, shelfB1, shelfB2, shelfA1, shelfA2;
+    private final double passB0, passB1, passB2, passA1, passA2;
+    // Filter state per channel (transposed direct form II)
+    private final double[] shelfZ1, shelfZ2, passZ1, passZ2;
+
+    // 100 ms steps; a block is the last four of them
+    private final int stepFrames;
+    private final double[] stepEnergies = new double[4];
+    private int stepsDone = 0;
+    private double stepEnergy = 0;
+    private int framesInStep = 0;
+    private int channel = 0;
+
+    private final int[] binCounts = new int[BINS];
+    private final double[] binEnergies = new double[BINS];
+    private double peak = 0;
+
+    public LoudnessMeter(int sampleRate, int channels) {
+        if (sampleRate <= 0 || channels < 1) {
+            throw new IllegalArgumentException(sampleRate + " Hz, " + channels + " channels");
+        }
+        this.channels = channels;
+        weights = new double[channels];
+        for (int i = 0; i < channels; i++) {
+            weights[i] = channels == FIVE_ONE_WEIGHTS.length ? FIVE_ONE_WEIGHTS[i] : 1;
+        }
+        double[][] k = kWeighting(sampleRate);
+        shelfB0 = k[0][0];
+        shelfB1 = k[0][1];
+        shelfB2 = k[0][2];
+        shelfA1 = k[0][3];
+        shelfA2 = k[0][4];
+        passB0 = k[1][0];
+        passB1 = k[1][1];
+        passB2 = k[1][2];
+        passA1 = k[1][3];
+        passA2 = k[1][4];
+        shelfZ1 = new double[channels];
+        shelfZ2 = new double[channels];
+        passZ1 = new double[channels];
+        passZ2 = new double[channels];
+        stepFrames = Math.max(1, Math.round(sampleRate / 10f));
+    }
+
+    public void add(short[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            addSample(samples[i]);
+        }
+    }
+
+    // Interleaved samples; consumes the buffer's remaining samples
+    public void add(ShortBuffer samples) {
+        int end = samples.limit();
+        for (int i = samples.position(); i < end; i++) {
+            addSample(samples.get(i));
+        }
+        samples.position(end);
+    }
+
+    private void addSample(short value) {
+        double x = value / FULL_SCALE;
+        double magnitude = Math.abs(x);
+        if (magnitude > peak) {
+            peak = magnitude;
+        }
+        int c = channel;
+        double shelved = shelfB0 * x + shelfZ1[c];
+        shelfZ1[c] = shelfB1 * x - shelfA1 * shelved + shelfZ2[c];
+        shelfZ2[c] = shelfB2 * x - shelfA2 * shelved;
+        double y = passB0 * shelved + passZ1[c];
+        passZ1[c] = passB1 * shelved - passA1 * y + passZ2[c];
+        passZ2[c] = passB2 * shelved - passA2 * y;
+        stepEnergy += weights[c] * y * y;
+
+        if (++channel == channels) {
+            channel = 0;
+            if (++framesInStep == stepFrames) {
+                endStep();
+            }
+        }
+    }
+
+    private void endStep() {
+        stepEnergies[stepsDone & 3] = stepEnergy / stepFrames;
+        stepsDone++;
+        stepEnergy = 0;
+        framesInStep = 0;
+        if (stepsDone >= 4) {
+            double blockEnergy = (stepEnergies[0] + stepEnergies[1] + stepEnergies[2] + stepEnergies[3]) / 4;
+            double loudness = toLufs(blockEnergy);
+            if (loudness >= ABSOLUTE_GATE_LUFS) {
+                int bin = binOf(loudness);
+                binCounts[bin]++;
+                binEnergies[bin] += blockEnergy;
+            }
+        }
+    }
+
+    // Negative infinity when nothing is above the absolute gate (silence, or shorter than one block)
+    public double getIntegratedLoudness() {
+        int firstBin = firstBinAboveRelativeGate();
+        if (firstBin < 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        long count = 0;
+        double energy = 0;
+        for (int bin = firstBin; bin < BINS; bin++) {
+            count += binCounts[bin];
+            energy += binEnergies[bin];
+        }
+        return toLufs(energy / count);
+    }
+
+    // Blocks that passed both gates, which weigh this track against others when measuring an album
+    public long getGatedBlockCount() {
+        int firstBin = firstBinAboveRelativeGate();
+        if (firstBin < 0) {
+            return 0;
+        }
+        long count = 0;
+        for (int bin = firstBin; bin < BINS; bin++) {
+            count += binCounts[bin];
+        }
+        return count;
+    }
+
+    // Largest sample magnitude, 0 to 1 of full scale
+    public double getSamplePeak() {
+        return peak;
+    }
+
+    private int firstBinAboveRelativeGate() {
+        long count = 0;
+        double energy = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            count += binCounts[bin];
+            energy += binEnergies[bin];
+        }
+        if (count == 0) {
+            return -1;
+        }
+        double gate = toLufs(energy / count) + RELATIVE_GATE_LU;
+        return gate < ABSOLUTE_GATE_LUFS ? 0 : binOf(gate);
+    }
+
+    static double toLufs(double energy) {
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    private static int binOf(double loudness) {
+        return Math.min(BINS - 1, (int) ((loudness - ABSOLUTE_GATE_LUFS) / BIN_WIDTH_LU));
+    }
+
+    /**
+     * The two K-weighting biquads for a sample rate, each as {b0, b1, b2, a1, a2}.
+     * BS.1770 only lists them for 48 kHz; these are derived from the analog
+     * prototype the same way libebur128 does, and match the table at 48 kHz.
+     */
+    static double[][] kWeighting(int sampleRate) {
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10, gain / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        double[] shelf = {
+                (vh + vb * k / q + k * k) / a0,
+                2 * (k * k - vh) / a0,
+                (vh - vb * k / q + k * k) / a0,
+                2 * (k * k - 1) / a0,
+                (1 - k / q + k * k) / a0};
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1 + k / q + k * k;
+        double[] highPass = {
+                1,
+                -2,
+                1,
+                2 * (k * k - 1) / a0,
+                (1 - k / q + k * k) / a0};
+        return new double[][]{shelf, highPass};
+    }
+}
@@ -0,0 +1,43 @@
+package com.marabytes.musicplayernew.loudness;
+
+/**
+ * ReplayGain 2.0 arithmetic: tracks are brought to -18 LUFS, and a gain is
+ * never so high that the track's peak would clip.
+ */
+public final class ReplayGain {
+    public enum Mode {
+        OFF,
+        TRACK,
+        // Keeps the level differences between tracks of one album, falls back to TRACK for unmeasured albums
+        ALBUM
+    }
+
+    public static final double REFERENCE_LUFS = -18;
+
+    private ReplayGain() {
+    }
+
+    // Gain in dB; 0 for silence, which has no meaningful loudness
+    public static double gainDb(double loudness, double peak) {
+        if (Double.isInfinite(loudness) || Double.isNaN(loudness)) {
+            return 0;
+        }
+        double gain = REFERENCE_LUFS - loudness;
+        if (peak > 0) {
+            gain = Math.min(gain, -20 * Math.log10(peak));
+        }
+        return gain;
+    }
+
+    /**
+     * Player volume (0 to 1) for a gain. MediaPlayer can only attenuate, so
+     * the few tracks quieter than the reference play at full volume; most
+     * of those would be held back by their peak anyway.
+     */
+    public static float volumeFor(double gainDb) {
+        if (Double.isNaN(gainDb) || gainDb >= 0) {
+            return 1f;
+        }
+        return (float) Math.pow(10, gainDb / 20);
+    }
+}
@@ -0,0 +1,36 @@
+package com.marabytes.musicplayernew.metrics;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A running total, safe to bump from any thread.
+ */
+public class Counter implements Metric {
+    private final AtomicLong count = new AtomicLong();
+
+    Counter() {
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    @Override
+    public void dump(PrintWriter writer) {
+        writer.print(count.get());
+    }
+
+    @Override
+    public void reset() {
+        count.set(0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.marabytes.musicplayernew.metrics;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hits and misses of a cache, printed with the hit rate.
+ */
+public class HitCounter implements Metric {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    HitCounter() {
+    }
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Between 0 and 1, or 0 before the first lookup
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public void dump(PrintWriter writer) {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        writer.print(String.format(Locale.US, "%d hits, %d misses (%.1f%% hit rate)", hitCount, missCount,
+                total == 0 ? 0.0 : 100.0 * hitCount / total));
+    }
+
+    @Override
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
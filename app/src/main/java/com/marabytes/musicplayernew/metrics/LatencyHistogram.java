@@ -0,0 +1,120 @@
+package com.marabytes.musicplayernew.metrics;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Millisecond latencies in fixed log-linear buckets: exact up to 4 ms, then
+ * four buckets per power of two, so a percentile is off by at most a quarter.
+ * Recording is a few atomic adds and never allocates or locks, which keeps it
+ * cheap enough to leave on everywhere.
+ */
+public class LatencyHistogram implements Metric {
+    // Four sub-buckets for each power of two from 4 ms up to 2^31 ms
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (31 - 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    public void record(long millis) {
+        long value = Math.max(0, Math.min(millis, Integer.MAX_VALUE));
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * The value below which the given fraction of samples fall, reported as
+     * the upper end of its bucket (and never above the largest sample).
+     * Returns 0 when nothing has been recorded.
+     */
+    public long getPercentile(double fraction) {
+        long n = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    @Override
+    public void dump(PrintWriter writer) {
+        long n = count.get();
+        if (n == 0) {
+            writer.print("no samples");
+            return;
+        }
+        writer.print("count=" + n
+                + " mean=" + Math.round(getMean())
+                + " p50=" + getPercentile(0.5)
+                + " p90=" + getPercentile(0.9)
+                + " p99=" + getPercentile(0.99)
+                + " max=" + max.get() + " ms");
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,10 @@
+package com.marabytes.musicplayernew.metrics;
+
+import java.io.PrintWriter;
+
+// Anything the registry can print and reset
+interface Metric {
+    void dump(PrintWriter writer);
+
+    void reset();
+}
@@ -0,0 +1,98 @@
+package com.marabytes.musicplayernew.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process-wide registry of counters and latency histograms. Metrics are
+ * looked up by name once, usually into a static field, and recorded on
+ * without touching the registry again. Everything is printed by
+ * {@code adb shell dumpsys activity service .MusicService}.
+ */
+public class Metrics {
+    // Names used across the app, grouped by the prefix before the first dot
+    public static final String LIBRARY_SCANS = "library.scans";
+    public static final String LIBRARY_SCAN_MS = "library.scan_ms";
+    public static final String LIBRARY_FIRST_ROW_MS = "library.first_row_ms";
+    public static final String LIBRARY_QUERIES = "library.queries";
+    public static final String LIBRARY_SYNC_MS = "library.sync_ms";
+    public static final String PLAYBACK_PREPARE_MS = "playback.prepare_ms";
+    public static final String PLAYBACK_TAP_TO_AUDIO_MS = "playback.tap_to_audio_ms";
+    public static final String PLAYBACK_SKIP_MS = "playback.skip_ms";
+    public static final String PLAYBACK_SUPERSEDED = "playback.superseded_requests";
+    public static final String PLAYBACK_CROSSFADES = "playback.crossfades";
+    public static final String PLAYBACK_FADE_JITTER_MS = "playback.fade_jitter_ms";
+    public static final String PLAYBACK_READ_AHEAD_STALLS = "playback.read_ahead_stalls";
+    public static final String PLAYBACK_READ_AHEAD_STALL_MS = "playback.read_ahead_stall_ms";
+    public static final String ART_DECODE_MS = "art.decode_ms";
+    public static final String ART_MEMORY_CACHE = "art.memory_cache";
+    public static final String ART_DISK_CACHE = "art.disk_cache";
+    public static final String NOTIFICATION_BUILDS = "notification.builds";
+    public static final String WAVEFORM_CACHE = "waveform.cache";
+    public static final String ANALYSIS_DECODE_MS = "analysis.decode_ms";
+    public static final String LOUDNESS_TRACKS_MEASURED = "loudness.tracks_measured";
+
+    private static Metrics instance;
+
+    private final Map<String, Metric> metrics = new TreeMap<>();
+
+    // Package-private so tests can use a registry of their own
+    Metrics() {
+    }
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    public Counter counter(String name) {
+        return get(name, Counter.class);
+    }
+
+    public HitCounter hitCounter(String name) {
+        return get(name, HitCounter.class);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return get(name, LatencyHistogram.class);
+    }
+
+    // Returns the metric registered under name, creating it on first use
+    private synchronized <T extends Metric> T get(String name, Class<T> type) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            if (type == Counter.class) {
+                metric = new Counter();
+            } else if (type == HitCounter.class) {
+                metric = new HitCounter();
+            } else {
+                metric = new LatencyHistogram();
+            }
+            metrics.put(name, metric);
+        } else if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is already registered as a "
+                    + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    // One line per metric, sorted by name so related ones sit together
+    public synchronized void dump(PrintWriter writer) {
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": ");
+            entry.getValue().dump(writer);
+            writer.println();
+        }
+    }
+
+    public synchronized void reset() {
+        for (Metric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.marabytes.musicplayernew.model;
 
+import java.util.Objects;
+
 public class Album {
     private String title;
     private String artist;
@@ -28,4 +30,20 @@ public class Album {
     public String getId() {
         return id;
     }
-} 
\ No newline at end of file
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Album)) return false;
+        Album other = (Album) o;
+        return Objects.equals(title, other.title)
+                && Objects.equals(artist, other.artist)
+                && Objects.equals(albumArt, other.albumArt)
+                && Objects.equals(id, other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, artist, albumArt, id);
+    }
+}
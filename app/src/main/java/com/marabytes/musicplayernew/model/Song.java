@@ -1,16 +1,37 @@
 package com.marabytes.musicplayernew.model;
 
+import java.util.Objects;
+
 public class Song {
+    public static final long NO_ID = -1;
+
+    private long id;
+    private long albumId;
     private String title;
     private String artist;
     private String path;
     private long duration;
 
     public Song(String title, String artist, String path, long duration) {
+        this(NO_ID, title, artist, path, duration, NO_ID);
+    }
+
+    public Song(long id, String title, String artist, String path, long duration, long albumId) {
+        this.id = id;
         this.title = title;
         this.artist = artist;
         this.path = path;
         this.duration = duration;
+        this.albumId = albumId;
+    }
+
+    // MediaStore _ID, or NO_ID if the song didn't come from MediaStore
+    public long getId() {
+        return id;
+    }
+
+    public long getAlbumId() {
+        return albumId;
     }
 
     public String getTitle() {
@@ -28,4 +49,22 @@ public class Song {
     public long getDuration() {
         return duration;
     }
-} 
\ No newline at end of file
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Song)) return false;
+        Song other = (Song) o;
+        return id == other.id
+                && albumId == other.albumId
+                && duration == other.duration
+                && Objects.equals(title, other.title)
+                && Objects.equals(artist, other.artist)
+                && Objects.equals(path, other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, albumId, title, artist, path, duration);
+    }
+}
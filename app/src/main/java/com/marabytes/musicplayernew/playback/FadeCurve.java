@@ -0,0 +1,33 @@
+package com.marabytes.musicplayernew.playback;
+
+/**
+ * Volume curves for a crossfade, as a function of progress through the fade
+ * from 0 to 1. The outgoing track's curve is the incoming one played
+ * backwards.
+ */
+public enum FadeCurve {
+    // Constant amplitude: fine for the same material, dips audibly between unrelated tracks
+    LINEAR {
+        @Override
+        public float fadeIn(float progress) {
+            return clamp(progress);
+        }
+    },
+    // Constant power (sin/cos), so two unrelated tracks don't dip in the middle
+    EQUAL_POWER {
+        @Override
+        public float fadeIn(float progress) {
+            return (float) Math.sin(clamp(progress) * Math.PI / 2);
+        }
+    };
+
+    public abstract float fadeIn(float progress);
+
+    public float fadeOut(float progress) {
+        return fadeIn(1 - clamp(progress));
+    }
+
+    private static float clamp(float progress) {
+        return Math.max(0f, Math.min(1f, progress));
+    }
+}
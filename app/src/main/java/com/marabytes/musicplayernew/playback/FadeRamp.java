@@ -0,0 +1,43 @@
+package com.marabytes.musicplayernew.playback;
+
+/**
+ * Timing of one crossfade. Volume steps are due at fixed offsets from the
+ * start rather than a fixed delay after the previous step, so a late step
+ * doesn't push every later one back; the curve is always evaluated at the
+ * time a step actually runs.
+ */
+public class FadeRamp {
+    private final long startTime;
+    private final long duration;
+    private final long stepInterval;
+
+    public FadeRamp(long startTime, long duration, long stepInterval) {
+        if (duration <= 0 || stepInterval <= 0) {
+            throw new IllegalArgumentException("duration " + duration + ", step " + stepInterval);
+        }
+        this.startTime = startTime;
+        this.duration = duration;
+        this.stepInterval = stepInterval;
+    }
+
+    // 0 before the start, 1 from the end on
+    public float progressAt(long time) {
+        if (time <= startTime) {
+            return 0f;
+        }
+        return time >= startTime + duration ? 1f : (float) (time - startTime) / duration;
+    }
+
+    public boolean isFinishedAt(long time) {
+        return time >= startTime + duration;
+    }
+
+    // The first step time after the given time, never past the end of the fade
+    public long nextStepAfter(long time) {
+        if (time < startTime) {
+            return startTime;
+        }
+        long steps = (time - startTime) / stepInterval + 1;
+        return Math.min(startTime + steps * stepInterval, startTime + duration);
+    }
+}
@@ -0,0 +1,67 @@
+package com.marabytes.musicplayernew.playback;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write listener registry. Adding and removing may happen from any
+ * thread, including from inside a callback; dispatch iterates the array
+ * returned by {@link #snapshot()}, which is never modified once published,
+ * so a dispatch loop allocates nothing and sees a consistent set.
+ */
+public class ListenerList<T> {
+    public interface Matcher<T> {
+        boolean matches(T item);
+    }
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] items = EMPTY;
+
+    public synchronized boolean add(T item) {
+        Object[] current = items;
+        for (Object existing : current) {
+            if (existing == item) {
+                return false;
+            }
+        }
+        Object[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = item;
+        items = updated;
+        return true;
+    }
+
+    public synchronized boolean remove(T item) {
+        return removeMatching(existing -> existing == item);
+    }
+
+    public synchronized boolean removeMatching(Matcher<T> matcher) {
+        Object[] current = items;
+        Object[] kept = new Object[current.length];
+        int count = 0;
+        for (Object existing : current) {
+            @SuppressWarnings("unchecked")
+            T typed = (T) existing;
+            if (!matcher.matches(typed)) {
+                kept[count++] = existing;
+            }
+        }
+        if (count == current.length) {
+            return false;
+        }
+        items = count == 0 ? EMPTY : Arrays.copyOf(kept, count);
+        return true;
+    }
+
+    public synchronized void clear() {
+        items = EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return items.length == 0;
+    }
+
+    // Iterate this and cast each element; callers must not modify it
+    public Object[] snapshot() {
+        return items;
+    }
+}
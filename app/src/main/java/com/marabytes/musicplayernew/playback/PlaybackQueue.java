@@ -0,0 +1,257 @@
+package com.marabytes.musicplayernew.playback;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The play order for the current session. Navigation is index based, shuffle
+ * builds one permutation up front instead of picking per skip, and songs
+ * queued with {@link #insertNext} sit in a separate "up next" list that is
+ * played before the rest of the queue. Nothing here searches the queue, so
+ * every operation stays cheap at 100k songs.
+ */
+public class PlaybackQueue {
+    public enum RepeatMode {
+        OFF,
+        ONE,
+        ALL
+    }
+
+    private final Random random;
+    // The caller's list, used as is so a large library isn't copied; see setQueue
+    private List<Song> songs = Collections.emptyList();
+    // Songs appended after setQueue, logically following songs
+    private final List<Song> appended = new ArrayList<>();
+    // Songs the user asked to hear next, played before the queue continues
+    private final ArrayDeque<Song> upNext = new ArrayDeque<>();
+
+    // Shuffled play order as indexes into songs, or null when not shuffled
+    private int[] shuffleOrder;
+    // Position in the play order (the shuffle order if shuffled, otherwise songs itself)
+    private int position = -1;
+    // Set while playing a song taken from upNext
+    private Song upNextCurrent;
+    private boolean shuffleEnabled = false;
+    private RepeatMode repeatMode = RepeatMode.OFF;
+
+    public PlaybackQueue() {
+        this(new Random());
+    }
+
+    public PlaybackQueue(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Replaces the queue and starts at startIndex (an index into newSongs).
+     * The list is kept, not copied, so it must not change afterwards: pass an
+     * immutable snapshot or a copy.
+     */
+    public void setQueue(List<Song> newSongs, int startIndex) {
+        songs = newSongs;
+        appended.clear();
+        upNext.clear();
+        upNextCurrent = null;
+        if (songs.isEmpty()) {
+            position = -1;
+            shuffleOrder = null;
+            return;
+        }
+        int start = Math.max(0, Math.min(startIndex, songCount() - 1));
+        if (shuffleEnabled) {
+            shuffleFrom(start);
+            position = 0;
+        } else {
+            position = start;
+        }
+    }
+
+    public Song getCurrent() {
+        if (upNextCurrent != null) {
+            return upNextCurrent;
+        }
+        return position >= 0 ? song(songAt(position)) : null;
+    }
+
+    /**
+     * Advances to the song that should play next and returns it, or null at the
+     * end of the queue. A skip the user asked for moves on even in repeat-one;
+     * a track simply finishing does not.
+     */
+    public Song moveToNext(boolean userInitiated) {
+        if (position < 0) {
+            return null;
+        }
+        if (repeatMode == RepeatMode.ONE && !userInitiated) {
+            return getCurrent();
+        }
+        if (!upNext.isEmpty()) {
+            upNextCurrent = upNext.pollFirst();
+            return upNextCurrent;
+        }
+        int next = nextPosition();
+        if (next == -1) {
+            return null;
+        }
+        upNextCurrent = null;
+        position = next;
+        return getCurrent();
+    }
+
+    // Goes back one song; at the start of the queue this stays on the first song
+    public Song moveToPrevious() {
+        if (position < 0) {
+            return null;
+        }
+        if (upNextCurrent != null) {
+            // Back to the queue song that was playing before the up-next songs
+            upNextCurrent = null;
+            return getCurrent();
+        }
+        if (position > 0) {
+            position--;
+        } else if (repeatMode == RepeatMode.ALL) {
+            position = songCount() - 1;
+        }
+        return getCurrent();
+    }
+
+    // What moveToNext(false) would return, without moving; used to prepare gapless playback
+    public Song peekNext() {
+        if (position < 0) {
+            return null;
+        }
+        if (repeatMode == RepeatMode.ONE) {
+            return getCurrent();
+        }
+        if (!upNext.isEmpty()) {
+            return upNext.peekFirst();
+        }
+        int next = nextPosition();
+        return next != -1 ? song(songAt(next)) : null;
+    }
+
+    // Plays the song right after the current one; the latest call plays first
+    public void insertNext(Song song) {
+        if (position < 0) {
+            setQueue(Collections.singletonList(song), 0);
+            return;
+        }
+        upNext.addFirst(song);
+    }
+
+    public void append(Song song) {
+        if (position < 0) {
+            setQueue(Collections.singletonList(song), 0);
+            return;
+        }
+        appended.add(song);
+        int count = songCount();
+        if (shuffleOrder != null) {
+            // Goes at the end of the shuffled order too; the order array grows like an ArrayList
+            if (shuffleOrder.length < count) {
+                shuffleOrder = Arrays.copyOf(shuffleOrder, Math.max(count, shuffleOrder.length * 3 / 2));
+            }
+            shuffleOrder[count - 1] = count - 1;
+        }
+    }
+
+    /**
+     * Turning shuffle on shuffles everything except the current song, which
+     * stays first so playback isn't interrupted. Turning it off continues in
+     * queue order from the current song.
+     */
+    public void setShuffleEnabled(boolean enabled) {
+        if (enabled == shuffleEnabled) {
+            return;
+        }
+        shuffleEnabled = enabled;
+        if (position < 0) {
+            return;
+        }
+        if (enabled) {
+            shuffleFrom(position);
+            position = 0;
+        } else {
+            position = songAt(position);
+            shuffleOrder = null;
+        }
+    }
+
+    public boolean isShuffleEnabled() {
+        return shuffleEnabled;
+    }
+
+    public void setRepeatMode(RepeatMode mode) {
+        repeatMode = mode;
+    }
+
+    public RepeatMode getRepeatMode() {
+        return repeatMode;
+    }
+
+    public int size() {
+        return songCount() + upNext.size();
+    }
+
+    public boolean isEmpty() {
+        return position < 0;
+    }
+
+    public void clear() {
+        songs = Collections.emptyList();
+        appended.clear();
+        upNext.clear();
+        upNextCurrent = null;
+        shuffleOrder = null;
+        position = -1;
+    }
+
+    private int songCount() {
+        return songs.size() + appended.size();
+    }
+
+    private Song song(int index) {
+        return index < songs.size() ? songs.get(index) : appended.get(index - songs.size());
+    }
+
+    private int songAt(int orderPosition) {
+        return shuffleOrder != null ? shuffleOrder[orderPosition] : orderPosition;
+    }
+
+    private int nextPosition() {
+        if (position + 1 < songCount()) {
+            return position + 1;
+        }
+        return repeatMode == RepeatMode.ALL ? 0 : -1;
+    }
+
+    // Fisher-Yates over all songs, then the song at firstIndex is swapped to the front
+    private void shuffleFrom(int firstIndex) {
+        int size = songCount();
+        int[] order = new int[Math.max(size, 16)];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int i = 0; i < size; i++) {
+            if (order[i] == firstIndex) {
+                order[i] = order[0];
+                order[0] = firstIndex;
+                break;
+            }
+        }
+        shuffleOrder = order;
+    }
+}
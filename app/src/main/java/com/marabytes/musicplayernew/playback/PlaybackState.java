@@ -0,0 +1,67 @@
+package com.marabytes.musicplayernew.playback;
+
+import android.net.Uri;
+
+/**
+ * Immutable picture of what the player is doing. A new instance is published
+ * on every change, so any thread can read a consistent song and play state
+ * without locking.
+ */
+public final class PlaybackState {
+    public static final PlaybackState IDLE = new PlaybackState(null, null, null, null, false, false,
+            false, PlaybackQueue.RepeatMode.OFF);
+
+    private final String songPath;
+    private final String title;
+    private final String artist;
+    private final Uri albumArtUri;
+    private final boolean playing;
+    private final boolean preparing;
+    private final boolean shuffleEnabled;
+    private final PlaybackQueue.RepeatMode repeatMode;
+
+    public PlaybackState(String songPath, String title, String artist, Uri albumArtUri, boolean playing,
+                         boolean preparing, boolean shuffleEnabled, PlaybackQueue.RepeatMode repeatMode) {
+        this.songPath = songPath;
+        this.title = title;
+        this.artist = artist;
+        this.albumArtUri = albumArtUri;
+        this.playing = playing;
+        this.preparing = preparing;
+        this.shuffleEnabled = shuffleEnabled;
+        this.repeatMode = repeatMode;
+    }
+
+    public String getSongPath() {
+        return songPath;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public Uri getAlbumArtUri() {
+        return albumArtUri;
+    }
+
+    // True also while the song is still preparing, as long as it will start once ready
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public boolean isPreparing() {
+        return preparing;
+    }
+
+    public boolean isShuffleEnabled() {
+        return shuffleEnabled;
+    }
+
+    public PlaybackQueue.RepeatMode getRepeatMode() {
+        return repeatMode;
+    }
+}
@@ -0,0 +1,74 @@
+package com.marabytes.musicplayernew.storage;
+
+/**
+ * Finds a record by its 64 bit id. Open addressing over record numbers + 1,
+ * with the ids themselves left wherever the caller keeps its records, so the
+ * table costs 4 bytes a slot. Records are numbered from 0 and inserted in
+ * order. Not thread safe, callers synchronize.
+ */
+public class IdTable {
+    public interface Ids {
+        long idAt(int record);
+    }
+
+    private final Ids ids;
+    private int[] slots;
+    private int size;
+
+    public IdTable(Ids ids, int expectedRecords) {
+        this.ids = ids;
+        slots = new int[capacityFor(expectedRecords)];
+    }
+
+    // The record with the id, or -1
+    public int find(long id) {
+        int mask = slots.length - 1;
+        for (int i = mix(Long.hashCode(id)) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int record = slots[i] - 1;
+            if (ids.idAt(record) == id) {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    // Only called for ids that aren't in the table yet, with record the next number up
+    public void insert(long id, int record) {
+        size++;
+        if (size * 2 > slots.length) {
+            // The new record is included, its id must already be readable
+            slots = new int[capacityFor(size)];
+            for (int r = 0; r < size; r++) {
+                put(ids.idAt(r), r);
+            }
+        } else {
+            put(id, record);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void put(long id, int record) {
+        int mask = slots.length - 1;
+        int i = mix(Long.hashCode(id)) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = record + 1;
+    }
+
+    // A quarter full after a resize, resized again at half full
+    private static int capacityFor(int records) {
+        int capacity = 64;
+        while (capacity < records * 4) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
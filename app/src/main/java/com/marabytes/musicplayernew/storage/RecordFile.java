@@ -0,0 +1,120 @@
+package com.marabytes.musicplayernew.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of fixed size records behind a 16 byte header of four ints. A file
+ * whose header doesn't match is started over, and a record torn by a crash
+ * in the middle of a write is dropped when the file is opened. Not thread
+ * safe, callers synchronize.
+ */
+public class RecordFile implements Closeable {
+    public static final int HEADER_SIZE = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int recordSize;
+    private int recordCount;
+
+    // header holds the four ints written at the start of the file, e.g. magic, version and layout
+    public RecordFile(File path, int recordSize, int... header) throws IOException {
+        if (header.length != HEADER_SIZE / 4) {
+            throw new IllegalArgumentException("Header must be " + HEADER_SIZE / 4 + " ints");
+        }
+        this.recordSize = recordSize;
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        try {
+            open(header);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void open(int[] header) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE || !hasHeader(header)) {
+            // New, or written by another version: start over
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            for (int value : header) {
+                buffer.putInt(value);
+            }
+            buffer.flip();
+            write(buffer, 0);
+            length = HEADER_SIZE;
+        }
+        // Drop a record torn by a crash in the middle of a write
+        recordCount = (int) ((length - HEADER_SIZE) / recordSize);
+        if (length != offsetOf(recordCount)) {
+            channel.truncate(offsetOf(recordCount));
+        }
+    }
+
+    private boolean hasHeader(int[] header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(buffer, 0);
+        buffer.flip();
+        for (int value : header) {
+            if (buffer.getInt() != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public long offsetOf(int record) {
+        return HEADER_SIZE + (long) record * recordSize;
+    }
+
+    // Every record in order, positioned at the first
+    public ByteBuffer readAll() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(recordCount * recordSize);
+        while (buffer.hasRemaining() && channel.read(buffer, HEADER_SIZE + buffer.position()) > 0) {
+            // Keep reading
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Overwrites the record, or appends it when record is the current count.
+     * Appends have to come in record order: a gap would be read back as a
+     * zero-filled record.
+     */
+    public void write(int record, ByteBuffer buffer) throws IOException {
+        if (record > recordCount) {
+            throw new IllegalArgumentException("Record " + record + " past the end (" + recordCount + ")");
+        }
+        write(buffer, offsetOf(record));
+        if (record == recordCount) {
+            recordCount++;
+        }
+    }
+
+    private void write(ByteBuffer buffer, long offset) throws IOException {
+        long start = offset - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
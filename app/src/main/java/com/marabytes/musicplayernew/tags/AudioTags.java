@@ -0,0 +1,146 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What {@link TagReader} found in a file: text fields under Vorbis-comment
+ * style lowercase names (whatever the container calls them), the stream
+ * properties taken from headers, and the location of the cover picture.
+ * Fields without a fixed name, like ID3 TXXX or MP4 freeform atoms, are
+ * kept under their own description, e.g. "replaygain_track_gain".
+ */
+public class AudioTags {
+    public enum Format {
+        MP3,
+        FLAC,
+        MP4
+    }
+
+    public static final String TITLE = "title";
+    public static final String ARTIST = "artist";
+    public static final String ALBUM = "album";
+    public static final String ALBUM_ARTIST = "albumartist";
+    public static final String GENRE = "genre";
+    public static final String DATE = "date";
+    public static final String TRACK_NUMBER = "tracknumber";
+    public static final String DISC_NUMBER = "discnumber";
+
+    private final Format format;
+    private final Map<String, String> fields = new LinkedHashMap<>();
+    private EmbeddedPicture picture;
+    private long durationMillis;
+    private int bitrate;
+    private int sampleRate;
+    private int channels;
+
+    AudioTags(Format format) {
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    // Field by lowercase name, or null
+    public String get(String name) {
+        return fields.get(name);
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    public String getTitle() {
+        return fields.get(TITLE);
+    }
+
+    public String getArtist() {
+        return fields.get(ARTIST);
+    }
+
+    public String getAlbum() {
+        return fields.get(ALBUM);
+    }
+
+    // "3" or "3/12" in the file, 0 when missing
+    public int getTrackNumber() {
+        return leadingNumber(fields.get(TRACK_NUMBER));
+    }
+
+    public int getDiscNumber() {
+        return leadingNumber(fields.get(DISC_NUMBER));
+    }
+
+    public EmbeddedPicture getPicture() {
+        return picture;
+    }
+
+    // 0 when the headers don't say
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    // Average bits per second of the audio data
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // The first value of a field wins, so a later ID3v1 tag doesn't override ID3v2
+    void put(String name, String value) {
+        if (value == null) {
+            return;
+        }
+        value = value.trim();
+        if (!value.isEmpty()) {
+            String key = name.toLowerCase(Locale.ROOT);
+            if (!fields.containsKey(key)) {
+                fields.put(key, value);
+            }
+        }
+    }
+
+    // Keeps the front cover if there is one, otherwise the first picture
+    void offerPicture(EmbeddedPicture candidate) {
+        if (picture == null || (picture.getPictureType() != EmbeddedPicture.TYPE_FRONT_COVER
+                && candidate.getPictureType() == EmbeddedPicture.TYPE_FRONT_COVER)) {
+            picture = candidate;
+        }
+    }
+
+    void setStreamInfo(long durationMillis, int bitrate, int sampleRate, int channels) {
+        this.durationMillis = durationMillis;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    static int bitrateOf(long audioBytes, long durationMillis) {
+        return durationMillis > 0 ? (int) Math.min(Integer.MAX_VALUE, audioBytes * 8000 / durationMillis) : 0;
+    }
+
+    private static int leadingNumber(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int number = 0;
+        for (int i = 0; i < value.length() && number < 100_000; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
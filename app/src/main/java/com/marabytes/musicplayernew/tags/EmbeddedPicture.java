@@ -0,0 +1,46 @@
+package com.marabytes.musicplayernew.tags;
+
+/**
+ * Where a tag's picture sits in the file. Only the location is kept; the
+ * bytes are read with {@link TagReader#readPicture} when actually needed.
+ */
+public class EmbeddedPicture {
+    // ID3/FLAC picture type of the front cover
+    public static final int TYPE_FRONT_COVER = 3;
+
+    private final String mimeType;
+    private final int pictureType;
+    private final long offset;
+    private final int length;
+    // ID3v2 unsynchronisation was applied, the raw bytes need undoing
+    private final boolean unsynchronized;
+
+    EmbeddedPicture(String mimeType, int pictureType, long offset, int length, boolean unsynchronized) {
+        this.mimeType = mimeType;
+        this.pictureType = pictureType;
+        this.offset = offset;
+        this.length = length;
+        this.unsynchronized = unsynchronized;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getPictureType() {
+        return pictureType;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    // Bytes in the file, which is more than the picture itself when unsynchronized
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isUnsynchronized() {
+        return unsynchronized;
+    }
+}
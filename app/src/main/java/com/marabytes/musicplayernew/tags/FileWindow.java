@@ -0,0 +1,127 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Random access to a file through a small sliding buffer. Every accessor
+ * takes an absolute position and pulls in the bytes around it on demand, so a
+ * parser can hop from header to header (skipping pictures and audio) with one
+ * positional read per hop. Can also wrap bytes already in memory.
+ */
+final class FileWindow {
+    private static final int MIN_WINDOW = 16 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private byte[] buffer;
+    // The buffer holds the bytes at [start, start + valid)
+    private long start;
+    private int valid;
+
+    FileWindow(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.buffer = new byte[0];
+    }
+
+    FileWindow(byte[] data) {
+        this.channel = null;
+        this.size = data.length;
+        this.buffer = data;
+        this.valid = data.length;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int u8(long position) throws IOException {
+        return buffer[index(position, 1)] & 0xFF;
+    }
+
+    int u16(long position) throws IOException {
+        int i = index(position, 2);
+        return (buffer[i] & 0xFF) << 8 | buffer[i + 1] & 0xFF;
+    }
+
+    int u24(long position) throws IOException {
+        int i = index(position, 3);
+        return (buffer[i] & 0xFF) << 16 | (buffer[i + 1] & 0xFF) << 8 | buffer[i + 2] & 0xFF;
+    }
+
+    long u32(long position) throws IOException {
+        int i = index(position, 4);
+        return (long) (buffer[i] & 0xFF) << 24 | (buffer[i + 1] & 0xFF) << 16
+                | (buffer[i + 2] & 0xFF) << 8 | buffer[i + 3] & 0xFF;
+    }
+
+    long u64(long position) throws IOException {
+        return u32(position) << 32 | u32(position + 4);
+    }
+
+    long u32le(long position) throws IOException {
+        int i = index(position, 4);
+        return (long) (buffer[i + 3] & 0xFF) << 24 | (buffer[i + 2] & 0xFF) << 16
+                | (buffer[i + 1] & 0xFF) << 8 | buffer[i] & 0xFF;
+    }
+
+    // ID3v2 sizes: four bytes with seven significant bits each
+    int syncsafe(long position) throws IOException {
+        int i = index(position, 4);
+        return (buffer[i] & 0x7F) << 21 | (buffer[i + 1] & 0x7F) << 14
+                | (buffer[i + 2] & 0x7F) << 7 | buffer[i + 3] & 0x7F;
+    }
+
+    boolean matches(long position, String ascii) throws IOException {
+        if (position < 0 || position + ascii.length() > size) {
+            return false;
+        }
+        int i = index(position, ascii.length());
+        for (int j = 0; j < ascii.length(); j++) {
+            if (buffer[i + j] != (byte) ascii.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String string(long position, int length, Charset charset) throws IOException {
+        return new String(buffer, index(position, length), length, charset);
+    }
+
+    byte[] bytes(long position, int length) throws IOException {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, index(position, length), copy, 0, length);
+        return copy;
+    }
+
+    // Makes [position, position + length) available and returns where it starts in buffer
+    private int index(long position, int length) throws IOException {
+        if (position >= start && position + length <= start + valid) {
+            return (int) (position - start);
+        }
+        if (position < 0 || length < 0 || position + length > size || channel == null) {
+            throw new EOFException("Read of " + length + " bytes at " + position + " past the end (" + size + ")");
+        }
+        int capacity = Math.max(MIN_WINDOW, length);
+        if (buffer.length < capacity) {
+            buffer = new byte[capacity];
+        }
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(capacity, size - position));
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                break;
+            }
+        }
+        start = position;
+        valid = target.position();
+        if (valid < length) {
+            throw new EOFException("File shrank while reading at " + position);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,120 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * FLAC metadata blocks: STREAMINFO for the stream properties, Vorbis comments
+ * for the text fields and PICTURE blocks for the cover. Audio frames start
+ * after the last metadata block and are never touched.
+ */
+final class FlacParser {
+    private static final int STREAMINFO = 0;
+    private static final int VORBIS_COMMENT = 4;
+    private static final int PICTURE = 6;
+    // Comments are short text, skip anything absurd (some taggers put base64 images there)
+    private static final int MAX_COMMENT = 64 * 1024;
+
+    private FlacParser() {
+    }
+
+    static boolean isFlacAt(FileWindow file, long position) throws IOException {
+        return file.matches(position, "fLaC");
+    }
+
+    static void read(FileWindow file, long position, AudioTags tags) throws IOException {
+        long block = position + 4;
+        long totalSamples = 0;
+        int sampleRate = 0;
+        int channels = 0;
+        boolean last = false;
+        while (!last && block + 4 <= file.size()) {
+            int header = file.u8(block);
+            last = (header & 0x80) != 0;
+            int type = header & 0x7F;
+            int length = file.u24(block + 1);
+            long body = block + 4;
+            if (body + length > file.size()) {
+                break;
+            }
+            if (type == STREAMINFO && length >= 18) {
+                // 20 bits sample rate, 3 bits channels - 1, 5 bits bits per sample - 1, 36 bits samples
+                sampleRate = file.u24(body + 10) >>> 4;
+                channels = ((file.u8(body + 12) >>> 1) & 7) + 1;
+                totalSamples = (long) (file.u8(body + 13) & 0x0F) << 32 | file.u32(body + 14);
+            } else if (type == VORBIS_COMMENT) {
+                readComments(file, body, body + length, tags);
+            } else if (type == PICTURE) {
+                readPicture(file, body, body + length, tags);
+            }
+            block = body + length;
+        }
+        long durationMillis = sampleRate > 0 ? totalSamples * 1000 / sampleRate : 0;
+        tags.setStreamInfo(durationMillis, AudioTags.bitrateOf(file.size() - block, durationMillis),
+                sampleRate, channels);
+    }
+
+    // Vorbis comments are little endian, unlike the rest of FLAC
+    static void readComments(FileWindow file, long position, long end, AudioTags tags) throws IOException {
+        long vendorLength = file.u32le(position);
+        position += 4 + vendorLength;
+        if (position + 4 > end) {
+            return;
+        }
+        long count = file.u32le(position);
+        position += 4;
+        for (long i = 0; i < count && position + 4 <= end; i++) {
+            long length = file.u32le(position);
+            position += 4;
+            if (position + length > end) {
+                return;
+            }
+            if (length <= MAX_COMMENT) {
+                String comment = file.string(position, (int) length, StandardCharsets.UTF_8);
+                int separator = comment.indexOf('=');
+                if (separator > 0) {
+                    tags.put(commentName(comment.substring(0, separator)), comment.substring(separator + 1));
+                }
+            }
+            position += length;
+        }
+    }
+
+    private static void readPicture(FileWindow file, long position, long end, AudioTags tags) throws IOException {
+        int pictureType = (int) file.u32(position);
+        long mimeLength = file.u32(position + 4);
+        if (mimeLength > 256) {
+            return;
+        }
+        String mimeType = file.string(position + 8, (int) mimeLength, StandardCharsets.US_ASCII);
+        long description = position + 8 + mimeLength;
+        // Description, then width, height, colour depth and palette size
+        long dataLengthAt = description + 4 + file.u32(description) + 16;
+        if (dataLengthAt + 4 > end) {
+            return;
+        }
+        long dataLength = file.u32(dataLengthAt);
+        if (dataLength == 0 || dataLengthAt + 4 + dataLength > end) {
+            return;
+        }
+        tags.offerPicture(new EmbeddedPicture(mimeType.toLowerCase(Locale.ROOT), pictureType,
+                dataLengthAt + 4, (int) dataLength, false));
+    }
+
+    // A few spellings of the same thing are common in the wild
+    private static String commentName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        switch (lower) {
+            case "album artist":
+            case "album_artist":
+                return AudioTags.ALBUM_ARTIST;
+            case "year":
+                return AudioTags.DATE;
+            case "track":
+                return AudioTags.TRACK_NUMBER;
+            default:
+                return lower;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * ID3v2.2/2.3/2.4 and ID3v1 tags. Only the bodies of text frames are read;
+ * for a picture just enough of the frame is read to find where the image
+ * data starts, the image itself stays in the file.
+ */
+final class Id3Parser {
+    static final int V1_SIZE = 128;
+    // Text frames are tiny, anything bigger is corrupt or something we don't use
+    private static final int MAX_TEXT_FRAME = 64 * 1024;
+    // Enough for the encoding, MIME type and description in front of the picture data
+    private static final int PICTURE_HEADER_BYTES = 4 * 1024;
+    // A tag-wide unsynchronised tag is read into memory whole, within reason
+    private static final int MAX_UNSYNCHRONISED_TAG = 16 * 1024 * 1024;
+
+    // The ID3v1 genre list, which ID3v2 and MP4 refer to by number
+    private static final String[] GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz",
+            "Metal", "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno",
+            "Industrial", "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno",
+            "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk", "Fusion", "Trance", "Classical", "Instrumental",
+            "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise", "AlternRock", "Bass", "Soul",
+            "Punk", "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic",
+            "Darkwave", "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream",
+            "Southern Rock", "Comedy", "Cult", "Gangsta", "Top 40", "Christian Rap", "Pop/Funk",
+            "Jungle", "Native American", "Cabaret", "New Wave", "Psychadelic", "Rave", "Showtunes",
+            "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical",
+            "Rock & Roll", "Hard Rock"
+    };
+
+    private Id3Parser() {
+    }
+
+    static boolean hasV2(FileWindow file, long position) throws IOException {
+        return file.matches(position, "ID3");
+    }
+
+    // Reads the ID3v2 tag at position and returns the offset right after it
+    static long readV2(FileWindow file, long position, AudioTags tags) throws IOException {
+        int major = file.u8(position + 3);
+        int flags = file.u8(position + 5);
+        int size = file.syncsafe(position + 6);
+        long framesStart = position + 10;
+        long end = framesStart + size + ((flags & 0x10) != 0 ? 10 : 0);
+        if (major < 2 || major > 4 || framesStart + size > file.size()) {
+            return end;
+        }
+        if (major < 4 && (flags & 0x80) != 0) {
+            // Unsynchronisation over the whole tag: frame headers are affected too, so undo it
+            // in memory and remember where each byte came from to locate the picture in the file
+            if (size > MAX_UNSYNCHRONISED_TAG) {
+                return end;
+            }
+            Unsynchronised tag = undoUnsynchronisation(file.bytes(framesStart, size));
+            readFrames(new FileWindow(tag.bytes), 0, tag.bytes.length, major, flags, tags,
+                    tag.sourceOffsets, framesStart);
+        } else {
+            readFrames(file, framesStart, framesStart + size, major, flags, tags, null, 0);
+        }
+        return end;
+    }
+
+    /**
+     * Walks the frames in [position, end). When sourceOffsets is set, tag is an
+     * in-memory copy with unsynchronisation undone and sourceOffsets maps its
+     * positions back to the file, relative to sourceBase.
+     */
+    private static void readFrames(FileWindow tag, long position, long end, int major, int flags, AudioTags tags,
+                                   int[] sourceOffsets, long sourceBase) throws IOException {
+        if ((flags & 0x40) != 0 && major >= 3) {
+            // Extended header; its size excludes itself in 2.3 and includes itself in 2.4
+            position += major == 3 ? 4 + tag.u32(position) : tag.syncsafe(position);
+        }
+        int headerSize = major == 2 ? 6 : 10;
+        while (position + headerSize <= end) {
+            if (tag.u8(position) == 0) {
+                // Padding
+                break;
+            }
+            String id;
+            long size;
+            int formatFlags = 0;
+            if (major == 2) {
+                id = tag.string(position, 3, StandardCharsets.ISO_8859_1);
+                size = tag.u24(position + 3);
+            } else {
+                id = tag.string(position, 4, StandardCharsets.ISO_8859_1);
+                size = major == 4 ? tag.syncsafe(position + 4) : tag.u32(position + 4);
+                formatFlags = tag.u8(position + 9);
+            }
+            long body = position + headerSize;
+            long next = body + size;
+            if (size <= 0 || next > end) {
+                break;
+            }
+
+            boolean frameUnsynchronised = false;
+            boolean readable = true;
+            if (major == 3) {
+                // Compressed or encrypted frames aren't worth supporting; grouping adds a byte
+                readable = (formatFlags & 0xC0) == 0;
+                body += (formatFlags & 0x20) != 0 ? 1 : 0;
+            } else if (major == 4) {
+                readable = (formatFlags & 0x0C) == 0;
+                body += (formatFlags & 0x40) != 0 ? 1 : 0;
+                // Data length indicator
+                body += (formatFlags & 0x01) != 0 ? 4 : 0;
+                frameUnsynchronised = (formatFlags & 0x02) != 0;
+            }
+            int length = (int) Math.min(Integer.MAX_VALUE, next - body);
+            if (readable && length > 0) {
+                if (id.equals("APIC") || id.equals("PIC")) {
+                    readPicture(tag, body, length, major, frameUnsynchronised, tags, sourceOffsets, sourceBase);
+                } else if (id.charAt(0) == 'T' && length <= MAX_TEXT_FRAME) {
+                    readText(id, tag.bytes(body, length), frameUnsynchronised, tags);
+                }
+            }
+            position = next;
+        }
+    }
+
+    private static void readText(String id, byte[] data, boolean unsynchronised, AudioTags tags) {
+        if (unsynchronised) {
+            data = undoUnsynchronisation(data).bytes;
+        }
+        if (data.length < 2) {
+            return;
+        }
+        int encoding = data[0];
+        if (id.equals("TXXX") || id.equals("TXX")) {
+            // User defined: description, then value
+            int descriptionEnd = findTerminator(data, 1, data.length, encoding);
+            int valueStart = Math.min(data.length, descriptionEnd + terminatorLength(encoding));
+            String description = decode(data, 1, descriptionEnd, encoding);
+            if (!description.isEmpty()) {
+                tags.put(description, decode(data, valueStart, data.length, encoding));
+            }
+            return;
+        }
+        String name = fieldName(id);
+        if (name == null) {
+            return;
+        }
+        String value = decode(data, 1, data.length, encoding);
+        tags.put(name, name.equals(AudioTags.GENRE) ? resolveGenre(value) : value);
+    }
+
+    private static void readPicture(FileWindow tag, long body, int length, int major, boolean unsynchronised,
+                                    AudioTags tags, int[] sourceOffsets, long sourceBase) throws IOException {
+        byte[] head = tag.bytes(body, Math.min(length, PICTURE_HEADER_BYTES));
+        int[] headOffsets = null;
+        if (unsynchronised) {
+            Unsynchronised undone = undoUnsynchronisation(head);
+            head = undone.bytes;
+            headOffsets = undone.sourceOffsets;
+        }
+        int n = head.length;
+        if (n < 6) {
+            return;
+        }
+        int encoding = head[0];
+        String mimeType;
+        int position;
+        if (major == 2) {
+            // Three letter image format instead of a MIME type
+            mimeType = "PNG".equalsIgnoreCase(new String(head, 1, 3, StandardCharsets.ISO_8859_1))
+                    ? "image/png" : "image/jpeg";
+            position = 4;
+        } else {
+            int mimeEnd = findTerminator(head, 1, n, 0);
+            if (mimeEnd >= n) {
+                return;
+            }
+            mimeType = normalizeMimeType(new String(head, 1, mimeEnd - 1, StandardCharsets.ISO_8859_1));
+            position = mimeEnd + 1;
+        }
+        if (position >= n || "-->".equals(mimeType)) {
+            // "-->" means the frame holds a URL rather than an image
+            return;
+        }
+        int pictureType = head[position] & 0xFF;
+        int descriptionEnd = findTerminator(head, position + 1, n, encoding);
+        int dataStart = descriptionEnd + terminatorLength(encoding);
+        if (dataStart > n) {
+            return;
+        }
+        long dataOffset = body + (headOffsets != null ? headOffsets[dataStart] : dataStart);
+        long dataEnd = body + length;
+        if (dataOffset >= dataEnd) {
+            return;
+        }
+        if (sourceOffsets != null) {
+            tags.offerPicture(new EmbeddedPicture(mimeType, pictureType,
+                    sourceBase + sourceOffsets[(int) dataOffset],
+                    sourceOffsets[(int) dataEnd] - sourceOffsets[(int) dataOffset], true));
+        } else {
+            tags.offerPicture(new EmbeddedPicture(mimeType, pictureType, dataOffset,
+                    (int) (dataEnd - dataOffset), unsynchronised));
+        }
+    }
+
+    // Returns false if there is no ID3v1 tag at the end of the file
+    static boolean readV1(FileWindow file, AudioTags tags) throws IOException {
+        long position = file.size() - V1_SIZE;
+        if (position < 0 || !file.matches(position, "TAG")) {
+            return false;
+        }
+        byte[] tag = file.bytes(position, V1_SIZE);
+        tags.put(AudioTags.TITLE, latin1(tag, 3, 30));
+        tags.put(AudioTags.ARTIST, latin1(tag, 33, 30));
+        tags.put(AudioTags.ALBUM, latin1(tag, 63, 30));
+        tags.put(AudioTags.DATE, latin1(tag, 93, 4));
+        // ID3v1.1 keeps the track number in the last byte of a null-terminated comment
+        if (tag[125] == 0 && tag[126] != 0) {
+            tags.put(AudioTags.TRACK_NUMBER, String.valueOf(tag[126] & 0xFF));
+        }
+        tags.put(AudioTags.GENRE, genreName(tag[127] & 0xFF));
+        return true;
+    }
+
+    static String genreName(int index) {
+        return index >= 0 && index < GENRES.length ? GENRES[index] : null;
+    }
+
+    // ID3v2 genres may be "(17)", "(17)Rock" or plain "17" referring to the ID3v1 list
+    static String resolveGenre(String value) {
+        String text = value.trim();
+        if (text.startsWith("(")) {
+            int close = text.indexOf(')');
+            if (close > 1) {
+                String rest = text.substring(close + 1).trim();
+                if (!rest.isEmpty()) {
+                    return rest;
+                }
+                text = text.substring(1, close);
+            }
+        }
+        if (isSmallNumber(text)) {
+            String name = genreName(Integer.parseInt(text));
+            return name != null ? name : value;
+        }
+        return value;
+    }
+
+    private static boolean isSmallNumber(String text) {
+        if (text.isEmpty() || text.length() > 3) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fieldName(String id) {
+        switch (id) {
+            case "TIT2":
+            case "TT2":
+                return AudioTags.TITLE;
+            case "TPE1":
+            case "TP1":
+                return AudioTags.ARTIST;
+            case "TALB":
+            case "TAL":
+                return AudioTags.ALBUM;
+            case "TPE2":
+            case "TP2":
+                return AudioTags.ALBUM_ARTIST;
+            case "TCON":
+            case "TCO":
+                return AudioTags.GENRE;
+            case "TDRC":
+            case "TYER":
+            case "TYE":
+                return AudioTags.DATE;
+            case "TRCK":
+            case "TRK":
+                return AudioTags.TRACK_NUMBER;
+            case "TPOS":
+            case "TPA":
+                return AudioTags.DISC_NUMBER;
+            case "TCOM":
+            case "TCM":
+                return "composer";
+            default:
+                return null;
+        }
+    }
+
+    private static String normalizeMimeType(String mimeType) {
+        String lower = mimeType.trim().toLowerCase(Locale.ROOT);
+        if (lower.isEmpty() || lower.equals("jpg") || lower.equals("image/jpg")) {
+            return "image/jpeg";
+        }
+        return lower.indexOf('/') < 0 && !lower.equals("-->") ? "image/" + lower : lower;
+    }
+
+    private static Charset charsetOf(int encoding) {
+        switch (encoding) {
+            case 1:
+                // With a byte order mark
+                return StandardCharsets.UTF_16;
+            case 2:
+                return StandardCharsets.UTF_16BE;
+            case 3:
+                return StandardCharsets.UTF_8;
+            default:
+                return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private static int terminatorLength(int encoding) {
+        return encoding == 1 || encoding == 2 ? 2 : 1;
+    }
+
+    // Index of the null terminator in [from, to), or to if there is none
+    private static int findTerminator(byte[] data, int from, int to, int encoding) {
+        if (terminatorLength(encoding) == 2) {
+            for (int i = from; i + 1 < to; i += 2) {
+                if (data[i] == 0 && data[i + 1] == 0) {
+                    return i;
+                }
+            }
+            return to;
+        }
+        for (int i = from; i < to; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // Decodes up to the first terminator, so only the first of several ID3v2.4 values is kept
+    private static String decode(byte[] data, int from, int to, int encoding) {
+        int end = findTerminator(data, from, to, encoding);
+        return end > from ? new String(data, from, end - from, charsetOf(encoding)) : "";
+    }
+
+    private static String latin1(byte[] data, int from, int length) {
+        int end = from;
+        while (end < from + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, from, end - from, StandardCharsets.ISO_8859_1);
+    }
+
+    static final class Unsynchronised {
+        final byte[] bytes;
+        // Index in the original bytes of each byte, plus one entry for the end
+        final int[] sourceOffsets;
+
+        Unsynchronised(byte[] bytes, int[] sourceOffsets) {
+            this.bytes = bytes;
+            this.sourceOffsets = sourceOffsets;
+        }
+    }
+
+    // Drops the 0x00 that unsynchronisation inserts after every 0xFF
+    static Unsynchronised undoUnsynchronisation(byte[] raw) {
+        byte[] bytes = new byte[raw.length];
+        int[] offsets = new int[raw.length + 1];
+        int n = 0;
+        for (int i = 0; i < raw.length; i++) {
+            bytes[n] = raw[i];
+            offsets[n] = i;
+            n++;
+            if (raw[i] == (byte) 0xFF && i + 1 < raw.length && raw[i + 1] == 0) {
+                i++;
+            }
+        }
+        offsets[n] = raw.length;
+        byte[] trimmed = new byte[n];
+        System.arraycopy(bytes, 0, trimmed, 0, n);
+        int[] trimmedOffsets = new int[n + 1];
+        System.arraycopy(offsets, 0, trimmedOffsets, 0, n + 1);
+        return new Unsynchronised(trimmed, trimmedOffsets);
+    }
+}
@@ -0,0 +1,272 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MP4/M4A files: iTunes-style metadata from moov/udta/meta/ilst, duration
+ * and sample rate from the first sound track's mdhd, channels from its
+ * sample description. Only atom headers are read on the way there, so
+ * mdat and the sample tables are skipped however large they are.
+ */
+final class Mp4Parser {
+    private static final int MAX_TEXT = 64 * 1024;
+
+    // Data atom payload types
+    private static final int TYPE_UTF8 = 1;
+    private static final int TYPE_UTF16 = 2;
+    private static final int TYPE_JPEG = 13;
+    private static final int TYPE_PNG = 14;
+    private static final int TYPE_BMP = 27;
+
+    private Mp4Parser() {
+    }
+
+    // One atom: 32-bit size and type, or size 1 with a 64-bit size after the type, or size 0 up to the end
+    private static final class Atom {
+        final String type;
+        final long body;
+        final long end;
+
+        Atom(String type, long body, long end) {
+            this.type = type;
+            this.body = body;
+            this.end = end;
+        }
+    }
+
+    static boolean isMp4(FileWindow file) throws IOException {
+        return file.matches(4, "ftyp");
+    }
+
+    static void read(FileWindow file, AudioTags tags) throws IOException {
+        long mediaBytes = 0;
+        Atom moov = null;
+        for (Atom atom = atomAt(file, 0, file.size()); atom != null; atom = atomAt(file, atom.end, file.size())) {
+            if (atom.type.equals("moov")) {
+                moov = atom;
+            } else if (atom.type.equals("mdat")) {
+                mediaBytes += atom.end - atom.body;
+            }
+        }
+        if (moov == null) {
+            return;
+        }
+
+        long durationMillis = 0;
+        int sampleRate = 0;
+        int channels = 0;
+        boolean soundTrackFound = false;
+        for (Atom atom = atomAt(file, moov.body, moov.end); atom != null; atom = atomAt(file, atom.end, moov.end)) {
+            if (atom.type.equals("mvhd") && durationMillis == 0) {
+                durationMillis = readDuration(file, atom);
+            } else if (atom.type.equals("trak") && !soundTrackFound) {
+                Atom mdia = child(file, atom, "mdia");
+                Atom hdlr = mdia != null ? child(file, mdia, "hdlr") : null;
+                // Handler type follows version/flags and a predefined field
+                if (hdlr == null || !file.matches(hdlr.body + 8, "soun")) {
+                    continue;
+                }
+                soundTrackFound = true;
+                Atom mdhd = child(file, mdia, "mdhd");
+                if (mdhd != null) {
+                    durationMillis = readDuration(file, mdhd);
+                    sampleRate = (int) timescaleOf(file, mdhd);
+                }
+                Atom stsd = descendant(file, mdia, "minf", "stbl", "stsd");
+                if (stsd != null && stsd.body + 8 + 36 <= stsd.end) {
+                    // First sample entry: 8 header bytes, 16 reserved/version bytes, then channels,
+                    // sample size, 4 more bytes and a 16.16 fixed point sample rate
+                    long entry = stsd.body + 8;
+                    channels = file.u16(entry + 24);
+                    int entryRate = file.u16(entry + 32);
+                    if (entryRate > 0) {
+                        sampleRate = entryRate;
+                    }
+                }
+            } else if (atom.type.equals("udta")) {
+                Atom meta = child(file, atom, "meta");
+                if (meta != null) {
+                    readMeta(file, meta, tags);
+                }
+            } else if (atom.type.equals("meta")) {
+                readMeta(file, atom, tags);
+            }
+        }
+        tags.setStreamInfo(durationMillis, AudioTags.bitrateOf(mediaBytes, durationMillis), sampleRate, channels);
+    }
+
+    private static void readMeta(FileWindow file, Atom meta, AudioTags tags) throws IOException {
+        // Usually a full atom with version and flags first, but QuickTime writes it without
+        long children = file.u32(meta.body) == 0 ? meta.body + 4 : meta.body;
+        Atom ilst = null;
+        for (Atom atom = atomAt(file, children, meta.end); atom != null; atom = atomAt(file, atom.end, meta.end)) {
+            if (atom.type.equals("ilst")) {
+                ilst = atom;
+                break;
+            }
+        }
+        if (ilst == null) {
+            return;
+        }
+        for (Atom item = atomAt(file, ilst.body, ilst.end); item != null; item = atomAt(file, item.end, ilst.end)) {
+            readItem(file, item, tags);
+        }
+    }
+
+    private static void readItem(FileWindow file, Atom item, AudioTags tags) throws IOException {
+        String freeformName = null;
+        for (Atom atom = atomAt(file, item.body, item.end); atom != null; atom = atomAt(file, atom.end, item.end)) {
+            if (atom.type.equals("name")) {
+                freeformName = text(file, atom.body + 4, atom.end, TYPE_UTF8);
+                continue;
+            }
+            if (!atom.type.equals("data") || atom.body + 8 > atom.end) {
+                continue;
+            }
+            // Version byte and 24-bit type, then a locale
+            int type = (int) (file.u32(atom.body) & 0xFFFFFF);
+            long payload = atom.body + 8;
+            int length = (int) Math.min(Integer.MAX_VALUE, atom.end - payload);
+
+            switch (item.type) {
+                case "covr":
+                    if (length > 0) {
+                        tags.offerPicture(new EmbeddedPicture(pictureMimeType(type), EmbeddedPicture.TYPE_FRONT_COVER,
+                                payload, length, false));
+                    }
+                    break;
+                case "trkn":
+                case "disk":
+                    // Two padding bytes, the number and the total
+                    if (length >= 4) {
+                        int number = file.u16(payload + 2);
+                        int total = length >= 6 ? file.u16(payload + 4) : 0;
+                        tags.put(item.type.equals("trkn") ? AudioTags.TRACK_NUMBER : AudioTags.DISC_NUMBER,
+                                total > 0 ? number + "/" + total : String.valueOf(number));
+                    }
+                    break;
+                case "gnre":
+                    if (length >= 2) {
+                        tags.put(AudioTags.GENRE, Id3Parser.genreName(file.u16(payload) - 1));
+                    }
+                    break;
+                case "----":
+                    if (freeformName != null) {
+                        tags.put(freeformName, text(file, payload, atom.end, type));
+                    }
+                    break;
+                default:
+                    String name = fieldName(item.type);
+                    if (name != null) {
+                        tags.put(name, text(file, payload, atom.end, type));
+                    }
+                    break;
+            }
+            // Only the first value of an item is used
+            return;
+        }
+    }
+
+    private static String fieldName(String type) {
+        switch (type) {
+            case "©nam":
+                return AudioTags.TITLE;
+            case "©ART":
+                return AudioTags.ARTIST;
+            case "©alb":
+                return AudioTags.ALBUM;
+            case "aART":
+                return AudioTags.ALBUM_ARTIST;
+            case "©gen":
+                return AudioTags.GENRE;
+            case "©day":
+                return AudioTags.DATE;
+            case "©wrt":
+                return "composer";
+            default:
+                return null;
+        }
+    }
+
+    private static String pictureMimeType(int type) {
+        switch (type) {
+            case TYPE_PNG:
+                return "image/png";
+            case TYPE_BMP:
+                return "image/bmp";
+            case TYPE_JPEG:
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    private static String text(FileWindow file, long position, long end, int type) throws IOException {
+        long length = end - position;
+        if (length <= 0 || length > MAX_TEXT || (type != TYPE_UTF8 && type != TYPE_UTF16)) {
+            return null;
+        }
+        return file.string(position, (int) length,
+                type == TYPE_UTF16 ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_8);
+    }
+
+    // mvhd and mdhd share the layout up to the duration
+    private static long readDuration(FileWindow file, Atom atom) throws IOException {
+        long timescale = timescaleOf(file, atom);
+        if (timescale <= 0) {
+            return 0;
+        }
+        boolean version1 = file.u8(atom.body) == 1;
+        long duration = version1 ? file.u64(atom.body + 24) : file.u32(atom.body + 16);
+        return duration * 1000 / timescale;
+    }
+
+    private static long timescaleOf(FileWindow file, Atom atom) throws IOException {
+        // Version and flags, creation and modification times (64 bits each in version 1)
+        return file.u32(atom.body + (file.u8(atom.body) == 1 ? 20 : 12));
+    }
+
+    private static Atom child(FileWindow file, Atom parent, String type) throws IOException {
+        for (Atom atom = atomAt(file, parent.body, parent.end); atom != null; atom = atomAt(file, atom.end, parent.end)) {
+            if (atom.type.equals(type)) {
+                return atom;
+            }
+        }
+        return null;
+    }
+
+    private static Atom descendant(FileWindow file, Atom parent, String... path) throws IOException {
+        Atom atom = parent;
+        for (String type : path) {
+            atom = child(file, atom, type);
+            if (atom == null) {
+                return null;
+            }
+        }
+        return atom;
+    }
+
+    // The atom starting at position, or null at the end of the parent or on a malformed header
+    private static Atom atomAt(FileWindow file, long position, long parentEnd) throws IOException {
+        if (position + 8 > parentEnd) {
+            return null;
+        }
+        long size = file.u32(position);
+        String type = file.string(position + 4, 4, StandardCharsets.ISO_8859_1);
+        long body = position + 8;
+        if (size == 1) {
+            if (position + 16 > parentEnd) {
+                return null;
+            }
+            size = file.u64(position + 8);
+            body = position + 16;
+        } else if (size == 0) {
+            size = parentEnd - position;
+        }
+        long end = position + size;
+        if (end < body || end > parentEnd) {
+            return null;
+        }
+        return new Atom(type, body, end);
+    }
+}
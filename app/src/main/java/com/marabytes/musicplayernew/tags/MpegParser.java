@@ -0,0 +1,142 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.IOException;
+
+/**
+ * Stream properties of MPEG audio (MP3 and friends) from frame headers. VBR
+ * files are timed from the Xing/Info or VBRI header in the first frame,
+ * constant bitrate files from their size, so nothing is decoded and at most
+ * two frame headers are read.
+ */
+final class MpegParser {
+    // How far past the tag to look for the first frame, some files have junk in between
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;
+
+    // Kilobits per second, by [version is MPEG-1 ? 0 : 1][layer - 1][index]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private MpegParser() {
+    }
+
+    // A decoded four byte frame header
+    static final class FrameHeader {
+        final boolean mpeg1;
+        final int layer;
+        final int bitrate;
+        final int sampleRate;
+        final int channels;
+        final int samplesPerFrame;
+        final int frameLength;
+
+        private FrameHeader(int header) {
+            int version = (header >>> 19) & 3;
+            mpeg1 = version == 3;
+            layer = 4 - ((header >>> 17) & 3);
+            bitrate = BITRATES[mpeg1 ? 0 : 1][layer - 1][(header >>> 12) & 0xF] * 1000;
+            // MPEG-2 halves the MPEG-1 rates, MPEG-2.5 quarters them
+            sampleRate = SAMPLE_RATES[(header >>> 10) & 3] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+            channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+            int padding = (header >>> 9) & 1;
+            if (layer == 1) {
+                samplesPerFrame = 384;
+                frameLength = (12 * bitrate / sampleRate + padding) * 4;
+            } else {
+                samplesPerFrame = layer == 3 && !mpeg1 ? 576 : 1152;
+                frameLength = samplesPerFrame / 8 * bitrate / sampleRate + padding;
+            }
+        }
+
+        // Null if these four bytes can't be a frame header we can time (free format is skipped)
+        static FrameHeader parse(int header) {
+            if ((header >>> 21) != 0x7FF) {
+                return null;
+            }
+            int version = (header >>> 19) & 3;
+            int layer = (header >>> 17) & 3;
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int sampleRateIndex = (header >>> 10) & 3;
+            if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null;
+            }
+            return new FrameHeader(header);
+        }
+    }
+
+    static boolean isFrameAt(FileWindow file, long position) throws IOException {
+        return position + 4 <= file.size() && FrameHeader.parse((int) file.u32(position)) != null;
+    }
+
+    /**
+     * Finds the first frame at or after audioStart and fills in duration and
+     * bitrate. audioEnd excludes trailing tags. Returns false if no frame was found.
+     */
+    static boolean readStreamInfo(FileWindow file, long audioStart, long audioEnd, AudioTags tags)
+            throws IOException {
+        long limit = Math.min(audioEnd - 4, audioStart + MAX_SYNC_SEARCH);
+        for (long position = audioStart; position <= limit; position++) {
+            if (file.u8(position) != 0xFF) {
+                continue;
+            }
+            FrameHeader frame = FrameHeader.parse((int) file.u32(position));
+            if (frame == null) {
+                continue;
+            }
+            // A real frame is followed by another one; this rules out stray 0xFF bytes
+            long next = position + frame.frameLength;
+            if (next + 4 <= audioEnd && !isFrameAt(file, next)) {
+                continue;
+            }
+            readStreamInfo(file, position, audioEnd, frame, tags);
+            return true;
+        }
+        return false;
+    }
+
+    private static void readStreamInfo(FileWindow file, long position, long audioEnd, FrameHeader frame,
+                                       AudioTags tags) throws IOException {
+        long frames = -1;
+        long audioBytes = audioEnd - position;
+        // Side information size decides where the Xing header sits
+        int sideInfo = frame.mpeg1 ? (frame.channels == 1 ? 17 : 32) : (frame.channels == 1 ? 9 : 17);
+        long xing = position + 4 + sideInfo;
+        long vbri = position + 4 + 32;
+        if (file.matches(xing, "Xing") || file.matches(xing, "Info")) {
+            long flags = file.u32(xing + 4);
+            long field = xing + 8;
+            if ((flags & 1) != 0) {
+                frames = file.u32(field);
+                field += 4;
+            }
+            if ((flags & 2) != 0) {
+                audioBytes = file.u32(field);
+            }
+        } else if (file.matches(vbri, "VBRI")) {
+            audioBytes = file.u32(vbri + 10);
+            frames = file.u32(vbri + 14);
+        }
+
+        long durationMillis;
+        int bitrate;
+        if (frames > 0) {
+            durationMillis = frames * frame.samplesPerFrame * 1000 / frame.sampleRate;
+            bitrate = AudioTags.bitrateOf(audioBytes, durationMillis);
+        } else {
+            // Constant bitrate: the size tells the duration
+            bitrate = frame.bitrate;
+            durationMillis = audioBytes * 8000 / bitrate;
+        }
+        tags.setStreamInfo(durationMillis, bitrate, frame.sampleRate, frame.channels);
+    }
+}
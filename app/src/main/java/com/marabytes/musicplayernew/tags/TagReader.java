@@ -0,0 +1,77 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads tags and stream properties of MP3 (ID3v2/ID3v1), FLAC and MP4 files
+ * in plain Java. Only headers and the byte ranges holding tags are read;
+ * audio is never decoded and pictures are only located, so this is much
+ * cheaper than a MediaMetadataRetriever, which starts a native extractor
+ * for every file. Other formats return null so callers can fall back.
+ */
+public final class TagReader {
+    private TagReader() {
+    }
+
+    // Null if the format isn't one we parse
+    public static AudioTags read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return read(in.getChannel());
+        }
+    }
+
+    public static AudioTags read(FileChannel channel) throws IOException {
+        FileWindow file = new FileWindow(channel);
+        if (file.size() < 8) {
+            return null;
+        }
+        if (Mp4Parser.isMp4(file)) {
+            AudioTags tags = new AudioTags(AudioTags.Format.MP4);
+            Mp4Parser.read(file, tags);
+            return tags;
+        }
+
+        // MP3s start with an ID3v2 tag or a frame; some FLAC taggers put an ID3v2 tag in front too
+        AudioTags id3 = new AudioTags(AudioTags.Format.MP3);
+        long audioStart = 0;
+        if (Id3Parser.hasV2(file, 0)) {
+            audioStart = Id3Parser.readV2(file, 0, id3);
+        }
+        if (FlacParser.isFlacAt(file, audioStart)) {
+            AudioTags tags = new AudioTags(AudioTags.Format.FLAC);
+            FlacParser.read(file, audioStart, tags);
+            return tags;
+        }
+        boolean hasV1 = Id3Parser.readV1(file, id3);
+        long audioEnd = file.size() - (hasV1 ? Id3Parser.V1_SIZE : 0);
+        if (audioStart >= audioEnd) {
+            return null;
+        }
+        boolean found = MpegParser.readStreamInfo(file, audioStart, audioEnd, id3);
+        // Without a recognisable frame this is some other format, unless a tag said otherwise
+        return found || audioStart > 0 ? id3 : null;
+    }
+
+    // The picture's bytes, as stored in the file (usually JPEG or PNG)
+    public static byte[] readPicture(File file, EmbeddedPicture picture) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return readPicture(in.getChannel(), picture);
+        }
+    }
+
+    public static byte[] readPicture(FileChannel channel, EmbeddedPicture picture) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(picture.getLength());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, picture.getOffset() + buffer.position()) < 0) {
+                throw new EOFException("Picture runs past the end of the file");
+            }
+        }
+        byte[] bytes = buffer.array();
+        return picture.isUnsynchronized() ? Id3Parser.undoUnsynchronisation(bytes).bytes : bytes;
+    }
+}
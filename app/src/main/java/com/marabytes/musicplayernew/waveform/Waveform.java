@@ -0,0 +1,39 @@
+package com.marabytes.musicplayernew.waveform;
+
+/**
+ * Peak and RMS level of a track in {@link #BUCKETS} equal slices, quantised
+ * to a byte each, which is all a seek bar needs to draw its outline.
+ */
+public final class Waveform {
+    public static final int BUCKETS = 128;
+
+    private final byte[] peaks;
+    private final byte[] rms;
+
+    // Takes ownership of both arrays
+    Waveform(byte[] peaks, byte[] rms) {
+        if (peaks.length != BUCKETS || rms.length != BUCKETS) {
+            throw new IllegalArgumentException("Expected " + BUCKETS + " buckets, got " + peaks.length);
+        }
+        this.peaks = peaks;
+        this.rms = rms;
+    }
+
+    // Loudest sample in the bucket, 0 to 1 of full scale
+    public float getPeak(int bucket) {
+        return (peaks[bucket] & 0xFF) / 255f;
+    }
+
+    // Root mean square level of the bucket, 0 to 1 of full scale
+    public float getRms(int bucket) {
+        return (rms[bucket] & 0xFF) / 255f;
+    }
+
+    byte[] peakBytes() {
+        return peaks;
+    }
+
+    byte[] rmsBytes() {
+        return rms;
+    }
+}
@@ -0,0 +1,96 @@
+package com.marabytes.musicplayernew.waveform;
+
+import com.marabytes.musicplayernew.storage.IdTable;
+import com.marabytes.musicplayernew.storage.RecordFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Waveforms on disk, one fixed size record per track in a single file that
+ * is memory mapped for reading. A record is the MediaStore id, the file's
+ * modification time and the waveform bytes ({@value #RECORD_SIZE} bytes in
+ * all), so a lookup is a hash probe plus a copy out of the mapping. The only
+ * thing kept on the heap is the id hash table.
+ *
+ * <p>A track whose file changed gets its record overwritten in place; records
+ * of deleted tracks simply stay behind.
+ */
+class WaveformCache implements Closeable {
+    private static final int MAGIC = 0x5746524D; // "WFRM"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = RecordFile.HEADER_SIZE;
+    static final int RECORD_SIZE = 8 + 8 + 2 * Waveform.BUCKETS;
+
+    private final RecordFile records;
+    // Always covers every record, appends remap it
+    private MappedByteBuffer mapped;
+    private final IdTable idTable;
+
+    WaveformCache(File path) throws IOException {
+        records = new RecordFile(path, RECORD_SIZE, MAGIC, VERSION, Waveform.BUCKETS, RECORD_SIZE);
+        try {
+            remap();
+        } catch (IOException e) {
+            records.close();
+            throw e;
+        }
+        int recordCount = records.getRecordCount();
+        idTable = new IdTable(record -> mapped.getLong((int) records.offsetOf(record)), recordCount);
+        for (int record = 0; record < recordCount; record++) {
+            idTable.insert(mapped.getLong((int) records.offsetOf(record)), record);
+        }
+    }
+
+    // Null if the track has no record or its file has changed since
+    synchronized Waveform get(long mediaId, long lastModified) {
+        int record = idTable.find(mediaId);
+        if (record == -1) {
+            return null;
+        }
+        int offset = (int) records.offsetOf(record);
+        if (mapped.getLong(offset + 8) != lastModified) {
+            return null;
+        }
+        byte[] peaks = new byte[Waveform.BUCKETS];
+        byte[] rms = new byte[Waveform.BUCKETS];
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset + 16);
+        view.get(peaks).get(rms);
+        return new Waveform(peaks, rms);
+    }
+
+    synchronized void put(long mediaId, long lastModified, Waveform waveform) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putLong(mediaId).putLong(lastModified).put(waveform.peakBytes()).put(waveform.rmsBytes()).flip();
+        int record = idTable.find(mediaId);
+        boolean append = record == -1;
+        if (append) {
+            record = records.getRecordCount();
+        }
+        records.write(record, buffer);
+        if (append) {
+            // Once per analysed track, so mapping again each time is cheap next to the decode
+            remap();
+            idTable.insert(mediaId, record);
+        }
+    }
+
+    synchronized int size() {
+        return records.getRecordCount();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        records.close();
+    }
+
+    private void remap() throws IOException {
+        FileChannel channel = records.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+}
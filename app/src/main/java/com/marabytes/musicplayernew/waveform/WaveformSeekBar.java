@@ -0,0 +1,133 @@
+package com.marabytes.musicplayernew.waveform;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+
+import androidx.appcompat.widget.AppCompatSeekBar;
+import androidx.core.content.ContextCompat;
+
+import com.marabytes.musicplayernew.R;
+
+/**
+ * A SeekBar that draws the track's waveform in place of the progress line:
+ * the RMS level as a solid bar inside the fainter peak level, brighter up to
+ * the current position. Without a waveform it looks and
+ * behaves like a plain SeekBar. Bar heights are worked out when the waveform
+ * or the size changes, so drawing a frame is one rect per bar.
+ */
+public class WaveformSeekBar extends AppCompatSeekBar {
+    private final Paint playedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint playedPeakPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint unplayedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint unplayedPeakPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float barWidth;
+    private final float barGap;
+    private final Drawable transparentTrack = new ColorDrawable(Color.TRANSPARENT);
+    private Drawable normalTrack;
+
+    private Waveform waveform;
+    // Per bar, peak and RMS as a fraction of half the content height
+    private float[] barPeaks = new float[0];
+    private float[] barRms = new float[0];
+
+    public WaveformSeekBar(Context context) {
+        this(context, null);
+    }
+
+    public WaveformSeekBar(Context context, AttributeSet attrs) {
+        this(context, attrs, androidx.appcompat.R.attr.seekBarStyle);
+    }
+
+    public WaveformSeekBar(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        playedPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        unplayedPaint.setColor(ContextCompat.getColor(context, R.color.waveform_unplayed));
+        playedPeakPaint.setColor(playedPaint.getColor());
+        playedPeakPaint.setAlpha(playedPaint.getAlpha() / 2);
+        unplayedPeakPaint.setColor(unplayedPaint.getColor());
+        unplayedPeakPaint.setAlpha(unplayedPaint.getAlpha() / 2);
+        barWidth = getResources().getDimension(R.dimen.waveform_bar_width);
+        barGap = getResources().getDimension(R.dimen.waveform_bar_gap);
+    }
+
+    // Null goes back to the plain progress line
+    public void setWaveform(Waveform waveform) {
+        if (waveform == this.waveform) {
+            return;
+        }
+        if (waveform != null && this.waveform == null) {
+            normalTrack = getProgressDrawable();
+            setProgressDrawable(transparentTrack);
+        } else if (waveform == null) {
+            setProgressDrawable(normalTrack);
+        }
+        this.waveform = waveform;
+        computeBars();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        computeBars();
+    }
+
+    @Override
+    protected synchronized void onDraw(Canvas canvas) {
+        if (waveform != null && getMax() > 0) {
+            drawWaveform(canvas);
+        }
+        // Draws the thumb; the track itself is transparent while a waveform is shown
+        super.onDraw(canvas);
+    }
+
+    private void drawWaveform(Canvas canvas) {
+        float left = getPaddingLeft();
+        float centre = getPaddingTop() + (getHeight() - getPaddingTop() - getPaddingBottom()) / 2f;
+        float maxHalfHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / 2f;
+        float playedX = left + (getWidth() - getPaddingLeft() - getPaddingRight()) * getProgress() / (float) getMax();
+        for (int bar = 0; bar < barPeaks.length; bar++) {
+            float x = left + bar * (barWidth + barGap);
+            boolean played = x < playedX;
+            float peak = barPeaks[bar] * maxHalfHeight;
+            canvas.drawRect(x, centre - peak, x + barWidth, centre + peak,
+                    played ? playedPeakPaint : unplayedPeakPaint);
+            // At least a hairline so silence still reads as part of the track
+            float rms = Math.max(barWidth / 2, barRms[bar] * maxHalfHeight);
+            canvas.drawRect(x, centre - rms, x + barWidth, centre + rms, played ? playedPaint : unplayedPaint);
+        }
+    }
+
+    // Each bar shows the loudest bucket it covers, scaled so the loudest part of the track fills the height
+    private void computeBars() {
+        int contentWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (waveform == null || contentWidth <= 0) {
+            barPeaks = new float[0];
+            barRms = new float[0];
+            return;
+        }
+        int bars = (int) ((contentWidth + barGap) / (barWidth + barGap));
+        float loudest = 0;
+        for (int bucket = 0; bucket < Waveform.BUCKETS; bucket++) {
+            loudest = Math.max(loudest, waveform.getPeak(bucket));
+        }
+        float scale = loudest > 0 ? 1 / loudest : 0;
+        float[] peaks = new float[bars];
+        float[] rms = new float[bars];
+        for (int bar = 0; bar < bars; bar++) {
+            int first = bar * Waveform.BUCKETS / bars;
+            int end = Math.max(first + 1, (bar + 1) * Waveform.BUCKETS / bars);
+            for (int bucket = first; bucket < end; bucket++) {
+                peaks[bar] = Math.max(peaks[bar], waveform.getPeak(bucket) * scale);
+                rms[bar] = Math.max(rms[bar], waveform.getRms(bucket) * scale);
+            }
+        }
+        barPeaks = peaks;
+        barRms = rms;
+    }
+}
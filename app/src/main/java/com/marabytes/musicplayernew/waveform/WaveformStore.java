@@ -0,0 +1,129 @@
+package com.marabytes.musicplayernew.waveform;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.marabytes.musicplayernew.audio.LibraryAnalyzer;
+import com.marabytes.musicplayernew.metrics.HitCounter;
+import com.marabytes.musicplayernew.metrics.Metrics;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a waveform for every track in the library so the player screen can
+ * draw one as soon as it opens. Waveforms are worked out by
+ * {@link LibraryAnalyzer} along with the track's loudness and kept in a
+ * {@link WaveformCache} keyed by MediaStore id and file modification time, so
+ * each track is only decoded once. Lookups for the UI run on a thread of
+ * their own, since the cache can be busy writing for the library run and
+ * finding the file's modification time means a stat.
+ */
+public class WaveformStore {
+    private static final String CACHE_FILE = "waveforms.bin";
+
+    private static final HitCounter CACHE = Metrics.getInstance().hitCounter(Metrics.WAVEFORM_CACHE);
+
+    private static WaveformStore instance;
+
+    public interface Listener {
+        // Called on the main thread
+        void onWaveformReady(long songId, Waveform waveform);
+    }
+
+    private final Context context;
+    private final WaveformCache cache;
+    private final Set<Listener> listeners = new HashSet<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService lookups = Executors.newSingleThreadExecutor();
+
+    private WaveformStore(Context context) {
+        this.context = context;
+        WaveformCache opened = null;
+        try {
+            opened = new WaveformCache(new File(context.getFilesDir(), CACHE_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        cache = opened;
+    }
+
+    public static synchronized WaveformStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new WaveformStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Looks the song's waveform up off the main thread and hands it to the
+     * listeners. If it hasn't been summarised yet the song is decoded ahead
+     * of the library run, and listeners hear once that's done.
+     */
+    public void request(Song song) {
+        if (cache == null || song.getId() == Song.NO_ID) {
+            return;
+        }
+        lookups.execute(() -> {
+            Waveform waveform = get(song, new File(song.getPath()).lastModified());
+            if (waveform != null) {
+                CACHE.hit();
+                deliver(song.getId(), waveform);
+            } else {
+                CACHE.miss();
+                LibraryAnalyzer.getInstance(context).request(song);
+            }
+        });
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // False if the cache file couldn't be opened; then there's nowhere to keep waveforms
+    public boolean isAvailable() {
+        return cache != null;
+    }
+
+    // Null if the track has no waveform for this version of its file
+    public Waveform get(Song song, long lastModified) {
+        if (cache == null || song.getId() == Song.NO_ID) {
+            return null;
+        }
+        return cache.get(song.getId(), lastModified);
+    }
+
+    // Stores a freshly summarised waveform and tells the listeners
+    public void put(Song song, long lastModified, Waveform waveform) {
+        if (cache == null || song.getId() == Song.NO_ID) {
+            return;
+        }
+        try {
+            cache.put(song.getId(), lastModified, waveform);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        deliver(song.getId(), waveform);
+    }
+
+    // Tells the listeners, on the main thread, that the song's waveform is ready
+    public void deliver(long songId, Waveform waveform) {
+        mainHandler.post(() -> notifyReady(songId, waveform));
+    }
+
+    private synchronized void notifyReady(long songId, Waveform waveform) {
+        for (Listener listener : listeners) {
+            listener.onWaveformReady(songId, waveform);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.marabytes.musicplayernew.waveform;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Reduces a stream of interleaved 16-bit PCM to a {@link Waveform}. The
+ * length of the track doesn't have to be known up front: levels are kept
+ * per block of {@link #BLOCK_FRAMES} frames while decoding (a few KB for a
+ * long track) and only spread over the buckets in {@link #finish()}.
+ */
+public class WaveformSummarizer {
+    static final int BLOCK_FRAMES = 1024;
+    private static final float FULL_SCALE = 32768f;
+
+    private final int channels;
+    // Per finished block: loudest sample and sum of squared samples (normalised to full scale)
+    private float[] blockPeaks = new float[256];
+    private double[] blockSquares = new double[256];
+    private int blockCount = 0;
+
+    // The block being filled
+    private float peak = 0;
+    private double squares = 0;
+    private int framesInBlock = 0;
+    // Samples of a frame split across two add() calls
+    private int channel = 0;
+    private long totalFrames = 0;
+
+    public WaveformSummarizer(int channels) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels = " + channels);
+        }
+        this.channels = channels;
+    }
+
+    public void add(short[] samples, int offset, int length) {
+        add(ShortBuffer.wrap(samples, offset, length));
+    }
+
+    // Consumes the buffer's remaining samples
+    public void add(ShortBuffer samples) {
+        int end = samples.limit();
+        for (int i = samples.position(); i < end; i++) {
+            float sample = samples.get(i) / FULL_SCALE;
+            float magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            squares += sample * sample;
+            if (++channel == channels) {
+                channel = 0;
+                totalFrames++;
+                if (++framesInBlock == BLOCK_FRAMES) {
+                    endBlock();
+                }
+            }
+        }
+        samples.position(end);
+    }
+
+    public long getFrameCount() {
+        return totalFrames;
+    }
+
+    // Silence if nothing was added; a trailing partial frame is dropped
+    public Waveform finish() {
+        // The last, partial block is weighted by the frames it actually has
+        int lastBlockFrames = framesInBlock;
+        if (framesInBlock > 0) {
+            endBlock();
+        }
+        byte[] peakBytes = new byte[Waveform.BUCKETS];
+        byte[] rmsBytes = new byte[Waveform.BUCKETS];
+        if (blockCount == 0) {
+            return new Waveform(peakBytes, rmsBytes);
+        }
+        for (int bucket = 0; bucket < Waveform.BUCKETS; bucket++) {
+            // With fewer blocks than buckets a block covers several buckets
+            int first = (int) ((long) bucket * blockCount / Waveform.BUCKETS);
+            int end = Math.max(first + 1, (int) ((long) (bucket + 1) * blockCount / Waveform.BUCKETS));
+            float bucketPeak = 0;
+            double bucketSquares = 0;
+            long samples = 0;
+            for (int block = first; block < end; block++) {
+                bucketPeak = Math.max(bucketPeak, blockPeaks[block]);
+                bucketSquares += blockSquares[block];
+                int frames = block == blockCount - 1 && lastBlockFrames > 0 ? lastBlockFrames : BLOCK_FRAMES;
+                samples += (long) frames * channels;
+            }
+            peakBytes[bucket] = quantise(bucketPeak);
+            rmsBytes[bucket] = quantise((float) Math.sqrt(bucketSquares / samples));
+        }
+        return new Waveform(peakBytes, rmsBytes);
+    }
+
+    private void endBlock() {
+        if (blockCount == blockPeaks.length) {
+            blockPeaks = Arrays.copyOf(blockPeaks, blockCount * 2);
+            blockSquares = Arrays.copyOf(blockSquares, blockCount * 2);
+        }
+        blockPeaks[blockCount] = peak;
+        blockSquares[blockCount] = squares;
+        blockCount++;
+        peak = 0;
+        squares = 0;
+        framesInBlock = 0;
+    }
+
+    private static byte quantise(float level) {
+        return (byte) Math.round(Math.min(1f, level) * 255);
+    }
+}
@@ -0,0 +1,278 @@
+package com.marabytes.musicplayernew.tags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds small but structurally valid MP3, FLAC and M4A files byte by byte,
+ * so the parsers can be tested without binary fixtures. MPEG frames are
+ * real (silent) MPEG-1 Layer III frames at 128 kbps, 44.1 kHz stereo.
+ */
+final class SampleFiles {
+    static final int MPEG_FRAME_LENGTH = 417;
+    static final int SAMPLES_PER_FRAME = 1152;
+
+    private SampleFiles() {
+    }
+
+    // A cover with the byte patterns unsynchronisation has to deal with
+    static byte[] picture(int size) {
+        byte[] picture = new byte[size];
+        picture[0] = (byte) 0xFF;
+        picture[1] = (byte) 0xD8;
+        for (int i = 2; i < size - 2; i++) {
+            picture[i] = (byte) (i % 7 == 0 ? 0xFF : i % 7 == 1 ? 0x00 : i % 7 == 3 ? 0xE1 : i * 31);
+        }
+        picture[size - 2] = (byte) 0xFF;
+        picture[size - 1] = (byte) 0xD9;
+        return picture;
+    }
+
+    static File write(File file, byte[]... parts) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        }
+        return file;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    // ---- MP3
+
+    static byte[] mpegFrames(int count) {
+        byte[] frames = new byte[count * MPEG_FRAME_LENGTH];
+        for (int i = 0; i < count; i++) {
+            writeFrameHeader(frames, i * MPEG_FRAME_LENGTH);
+        }
+        return frames;
+    }
+
+    // A first frame carrying a Xing header with the frame and byte counts of the frames after it
+    static byte[] xingFrame(int frames, int bytes) {
+        byte[] frame = new byte[MPEG_FRAME_LENGTH];
+        writeFrameHeader(frame, 0);
+        int xing = 4 + 32;
+        put(frame, xing, "Xing".getBytes(StandardCharsets.US_ASCII));
+        put(frame, xing + 4, int32(3));
+        put(frame, xing + 8, int32(frames));
+        put(frame, xing + 12, int32(bytes));
+        return frame;
+    }
+
+    private static void writeFrameHeader(byte[] target, int offset) {
+        target[offset] = (byte) 0xFF;
+        target[offset + 1] = (byte) 0xFB;
+        target[offset + 2] = (byte) 0x90;
+        target[offset + 3] = 0x00;
+    }
+
+    static byte[] id3v2(int major, boolean unsynchronise, byte[]... frames) {
+        byte[] body = concat(frames);
+        if (unsynchronise) {
+            body = unsynchronise(body);
+        }
+        byte[] header = new byte[10];
+        put(header, 0, "ID3".getBytes(StandardCharsets.US_ASCII));
+        header[3] = (byte) major;
+        header[5] = (byte) (unsynchronise ? 0x80 : 0);
+        put(header, 6, syncsafe(body.length + 64));
+        // Some padding after the frames, like real taggers leave
+        return concat(header, body, new byte[64]);
+    }
+
+    static byte[] frame(int major, String id, byte[] body) {
+        return frame(major, id, body, false);
+    }
+
+    // unsynchronise only applies to ID3v2.4, where it's a per-frame flag
+    static byte[] frame(int major, String id, byte[] body, boolean unsynchronise) {
+        if (unsynchronise) {
+            body = unsynchronise(body);
+        }
+        byte[] idBytes = id.getBytes(StandardCharsets.ISO_8859_1);
+        if (major == 2) {
+            return concat(idBytes, new byte[]{(byte) (body.length >> 16), (byte) (body.length >> 8),
+                    (byte) body.length}, body);
+        }
+        byte[] size = major == 4 ? syncsafe(body.length) : int32(body.length);
+        byte[] flags = {0, (byte) (unsynchronise ? 0x02 : 0)};
+        return concat(idBytes, size, flags, body);
+    }
+
+    static byte[] text(int encoding, String value) {
+        return concat(new byte[]{(byte) encoding}, encode(value, encoding));
+    }
+
+    static byte[] userText(int encoding, String description, String value) {
+        return concat(new byte[]{(byte) encoding}, encode(description, encoding), terminator(encoding),
+                encode(value, encoding));
+    }
+
+    static byte[] apic(int encoding, String mimeType, int pictureType, String description, byte[] data) {
+        return concat(new byte[]{(byte) encoding}, mimeType.getBytes(StandardCharsets.ISO_8859_1), new byte[1],
+                new byte[]{(byte) pictureType}, encode(description, encoding), terminator(encoding), data);
+    }
+
+    // ID3v2.2 PIC: three letter format instead of a MIME type
+    static byte[] pic(String format, int pictureType, byte[] data) {
+        return concat(new byte[]{0}, format.getBytes(StandardCharsets.ISO_8859_1),
+                new byte[]{(byte) pictureType, 0}, data);
+    }
+
+    static byte[] id3v1(String title, String artist, String album, String year, int track, int genre) {
+        byte[] tag = new byte[128];
+        put(tag, 0, "TAG".getBytes(StandardCharsets.US_ASCII));
+        put(tag, 3, title.getBytes(StandardCharsets.ISO_8859_1));
+        put(tag, 33, artist.getBytes(StandardCharsets.ISO_8859_1));
+        put(tag, 63, album.getBytes(StandardCharsets.ISO_8859_1));
+        put(tag, 93, year.getBytes(StandardCharsets.ISO_8859_1));
+        tag[126] = (byte) track;
+        tag[127] = (byte) genre;
+        return tag;
+    }
+
+    private static byte[] encode(String value, int encoding) {
+        Charset charset = encoding == 1 ? StandardCharsets.UTF_16
+                : encoding == 2 ? StandardCharsets.UTF_16BE
+                : encoding == 3 ? StandardCharsets.UTF_8
+                : StandardCharsets.ISO_8859_1;
+        return value.getBytes(charset);
+    }
+
+    private static byte[] terminator(int encoding) {
+        return new byte[encoding == 1 || encoding == 2 ? 2 : 1];
+    }
+
+    static byte[] unsynchronise(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; i++) {
+            out.write(data[i]);
+            if (data[i] == (byte) 0xFF && (i + 1 == data.length || data[i + 1] == 0
+                    || (data[i + 1] & 0xE0) == 0xE0)) {
+                out.write(0);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // ---- FLAC
+
+    static byte[] flac(int sampleRate, int channels, long totalSamples, String[] comments, byte[] picture,
+                       int audioBytes) {
+        byte[] streamInfo = new byte[34];
+        streamInfo[0] = 0x10;
+        streamInfo[2] = 0x10;
+        streamInfo[10] = (byte) (sampleRate >> 12);
+        streamInfo[11] = (byte) (sampleRate >> 4);
+        // 16 bits per sample
+        streamInfo[12] = (byte) ((sampleRate & 0x0F) << 4 | (channels - 1) << 1);
+        streamInfo[13] = (byte) (0xF0 | (totalSamples >> 32) & 0x0F);
+        put(streamInfo, 14, int32((int) totalSamples));
+
+        ByteArrayOutputStream vorbis = new ByteArrayOutputStream();
+        byte[] vendor = "reference libFLAC 1.4.3".getBytes(StandardCharsets.UTF_8);
+        writeLe(vorbis, vendor.length);
+        vorbis.write(vendor, 0, vendor.length);
+        writeLe(vorbis, comments.length);
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+            writeLe(vorbis, bytes.length);
+            vorbis.write(bytes, 0, bytes.length);
+        }
+
+        byte[] mime = "image/png".getBytes(StandardCharsets.US_ASCII);
+        byte[] pictureBlock = concat(int32(3), int32(mime.length), mime, int32(0), new byte[16],
+                int32(picture.length), picture);
+
+        return concat("fLaC".getBytes(StandardCharsets.US_ASCII),
+                flacBlock(0, false, streamInfo),
+                flacBlock(4, false, vorbis.toByteArray()),
+                flacBlock(6, true, pictureBlock),
+                new byte[audioBytes]);
+    }
+
+    private static byte[] flacBlock(int type, boolean last, byte[] body) {
+        return concat(new byte[]{(byte) ((last ? 0x80 : 0) | type), (byte) (body.length >> 16),
+                (byte) (body.length >> 8), (byte) body.length}, body);
+    }
+
+    private static void writeLe(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    // ---- MP4
+
+    static byte[] atom(String type, byte[]... children) {
+        byte[] body = concat(children);
+        return concat(int32(body.length + 8), type.getBytes(StandardCharsets.ISO_8859_1), body);
+    }
+
+    // An ilst item holding one data atom
+    static byte[] item(String type, int dataType, byte[] payload) {
+        return atom(type, atom("data", int32(dataType), int32(0), payload));
+    }
+
+    static byte[] freeform(String name, String value) {
+        return atom("----",
+                atom("mean", int32(0), "com.apple.iTunes".getBytes(StandardCharsets.UTF_8)),
+                atom("name", int32(0), name.getBytes(StandardCharsets.UTF_8)),
+                atom("data", int32(1), int32(0), value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static byte[] m4a(int sampleRate, int channels, long totalSamples, int mediaBytes, boolean moovFirst,
+                      byte[]... ilstItems) {
+        byte[] mvhd = atom("mvhd", int32(0), int32(0), int32(0), int32(1000),
+                int32((int) (totalSamples * 1000 / sampleRate)), new byte[80]);
+        byte[] mdhd = atom("mdhd", int32(0), int32(0), int32(0), int32(sampleRate), int32((int) totalSamples),
+                new byte[4]);
+        byte[] hdlr = atom("hdlr", int32(0), int32(0), "soun".getBytes(StandardCharsets.US_ASCII), new byte[13]);
+        byte[] mp4a = atom("mp4a", new byte[6], new byte[]{0, 1}, new byte[8],
+                new byte[]{0, (byte) channels, 0, 16}, new byte[4], int32(sampleRate << 16));
+        byte[] stbl = atom("stbl", atom("stsd", int32(0), int32(1), mp4a), atom("stts", new byte[8]));
+        byte[] trak = atom("trak", atom("tkhd", new byte[84]),
+                atom("mdia", mdhd, hdlr, atom("minf", atom("smhd", new byte[8]), stbl)));
+        byte[] metaHdlr = atom("hdlr", int32(0), int32(0), "mdir".getBytes(StandardCharsets.US_ASCII),
+                new byte[13]);
+        byte[] udta = atom("udta", atom("meta", int32(0), metaHdlr, atom("ilst", ilstItems)));
+        byte[] moov = atom("moov", mvhd, trak, udta);
+
+        byte[] ftyp = atom("ftyp", "M4A ".getBytes(StandardCharsets.US_ASCII), int32(0),
+                "M4A mp42isom".getBytes(StandardCharsets.US_ASCII));
+        byte[] mdat = atom("mdat", new byte[mediaBytes]);
+        return moovFirst ? concat(ftyp, moov, mdat) : concat(ftyp, mdat, moov);
+    }
+
+    // ---- helpers
+
+    static byte[] int32(int value) {
+        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+
+    static byte[] int16(int value) {
+        return new byte[]{(byte) (value >> 8), (byte) value};
+    }
+
+    private static byte[] syncsafe(int value) {
+        return new byte[]{(byte) (value >> 21 & 0x7F), (byte) (value >> 14 & 0x7F), (byte) (value >> 7 & 0x7F),
+                (byte) (value & 0x7F)};
+    }
+
+    private static void put(byte[] target, int offset, byte[] source) {
+        System.arraycopy(source, 0, target, offset, source.length);
+    }
+}
@@ -0,0 +1,67 @@
+package com.marabytes.musicplayernew.art;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiskCacheTrimmerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void staysUnderBudgetDroppingLeastRecentlyUsed() throws IOException {
+        File dir = folder.newFolder("thumbs");
+        DiskCacheTrimmer trimmer = new DiskCacheTrimmer(dir, 10_000);
+        // Times an hour apart, oldest first, so ordering doesn't depend on filesystem resolution
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            File file = write(dir, i + ".jpg", 1000, now - (10 - i) * 3_600_000L);
+            trimmer.onWritten(file);
+        }
+        assertEquals(10_000, trimmer.size());
+
+        // Using the oldest file makes it the newest
+        trimmer.touch(new File(dir, "0.jpg"));
+        trimmer.onWritten(write(dir, "10.jpg", 1000, now));
+
+        assertTrue(trimmer.size() <= 7_500);
+        assertTrue(new File(dir, "0.jpg").exists());
+        assertTrue(new File(dir, "10.jpg").exists());
+        assertFalse(new File(dir, "1.jpg").exists());
+        assertFalse(new File(dir, "4.jpg").exists());
+        assertTrue(new File(dir, "5.jpg").exists());
+    }
+
+    @Test
+    public void countsFilesLeftByEarlierRuns() throws IOException {
+        File dir = folder.newFolder("thumbs");
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            write(dir, i + ".jpg", 1000, now - (20 - i) * 3_600_000L);
+        }
+        DiskCacheTrimmer trimmer = new DiskCacheTrimmer(dir, 10_000);
+        trimmer.onWritten(write(dir, "new.jpg", 1000, now));
+
+        assertEquals(7_000, trimmer.size());
+        assertEquals(7, dir.listFiles().length);
+        assertTrue(new File(dir, "new.jpg").exists());
+        assertTrue(new File(dir, "19.jpg").exists());
+    }
+
+    private static File write(File dir, String name, int length, long lastModified) throws IOException {
+        File file = new File(dir, name);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+        }
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
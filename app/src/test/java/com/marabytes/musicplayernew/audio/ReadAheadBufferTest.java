@@ -0,0 +1,123 @@
+package com.marabytes.musicplayernew.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadAheadBufferTest {
+    private static final int AHEAD = 256 * 1024;
+    private static final int FILE_SIZE = 5 * 1024 * 1024 + 123;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sequentialReadsReturnTheWholeFile() throws IOException {
+        byte[] content = randomBytes(FILE_SIZE);
+        Random random = new Random(1);
+        try (ReadAheadBuffer buffer = open(content)) {
+            assertEquals(FILE_SIZE, buffer.size());
+            byte[] copy = new byte[FILE_SIZE];
+            int position = 0;
+            while (position < FILE_SIZE) {
+                int read = buffer.read(position, copy, position, Math.min(1 + random.nextInt(20_000),
+                        FILE_SIZE - position));
+                assertTrue(read > 0);
+                position += read;
+            }
+            assertArrayEquals(content, copy);
+            assertEquals(-1, buffer.read(FILE_SIZE, copy, 0, 10));
+        }
+    }
+
+    @Test
+    public void warmedBufferServesTheStartWithoutStalling() throws Exception {
+        byte[] content = randomBytes(FILE_SIZE);
+        try (ReadAheadBuffer buffer = open(content)) {
+            waitForBuffered(buffer, AHEAD);
+            byte[] start = readFully(buffer, 0, AHEAD);
+            assertArrayEquals(Arrays.copyOf(content, AHEAD), start);
+            assertEquals(0, buffer.getStallCount());
+        }
+    }
+
+    @Test
+    public void shortBackwardSeeksStayInTheBufferAndLongOnesRefill() throws Exception {
+        byte[] content = randomBytes(FILE_SIZE);
+        try (ReadAheadBuffer buffer = open(content)) {
+            readFully(buffer, 0, 1024 * 1024);
+            waitForBuffered(buffer, 1024 * 1024 + AHEAD);
+            int stalls = buffer.getStallCount();
+
+            // Demuxers step back a little now and then, that's still in the ring
+            int back = 1024 * 1024 - ReadAheadBuffer.BEHIND_BYTES + 10;
+            assertArrayEquals(Arrays.copyOfRange(content, back, back + 1000), readFully(buffer, back, 1000));
+            assertEquals(stalls, buffer.getStallCount());
+
+            // A jump has nothing buffered yet
+            int far = 4 * 1024 * 1024;
+            assertArrayEquals(Arrays.copyOfRange(content, far, far + 5000), readFully(buffer, far, 5000));
+            assertEquals(stalls + 1, buffer.getStallCount());
+            assertArrayEquals(Arrays.copyOf(content, 100), readFully(buffer, 0, 100));
+            assertEquals(stalls + 2, buffer.getStallCount());
+        }
+    }
+
+    @Test
+    public void readingAfterCloseFails() throws IOException {
+        ReadAheadBuffer buffer = open(randomBytes(1000));
+        buffer.close();
+        buffer.close();
+        try {
+            buffer.read(0, new byte[10], 0, 10);
+            fail();
+        } catch (IOException expected) {
+            // Closed
+        }
+    }
+
+    private ReadAheadBuffer open(byte[] content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return new ReadAheadBuffer(new RandomAccessFile(file, "r").getChannel(), AHEAD);
+    }
+
+    private static byte[] readFully(ReadAheadBuffer buffer, long position, int length) throws IOException {
+        byte[] result = new byte[length];
+        int done = 0;
+        while (done < length) {
+            int read = buffer.read(position + done, result, done, length - done);
+            assertTrue(read > 0);
+            done += read;
+        }
+        return result;
+    }
+
+    private static void waitForBuffered(ReadAheadBuffer buffer, long end) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (buffer.getBufferedEnd() < end) {
+            assertTrue("Read-ahead never reached " + end, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LibraryIndexTest {
+    private final Song first = new Song(1, "First", "A", "/m/first.mp3", 1000, 10);
+    private final Song second = new Song(2, "Second", "B", "/m/second.mp3", 2000, 10);
+    private final Song third = new Song(3, "Third", "C", "/m/third.mp3", 3000, 11);
+
+    @Test
+    public void findsSongsByPathIdAndPosition() {
+        LibraryIndex index = new LibraryIndex();
+        index.addSongs(Arrays.asList(first, second));
+        index.addSongs(Collections.singletonList(third));
+
+        assertEquals(second, index.findByPath("/m/second.mp3"));
+        assertEquals(third, index.findById(3));
+        assertEquals(2, index.positionOf("/m/third.mp3"));
+        assertEquals(-1, index.positionOf("/m/missing.mp3"));
+        assertNull(index.findById(99));
+    }
+
+    @Test
+    public void removingShiftsLaterPositions() {
+        LibraryIndex index = new LibraryIndex();
+        index.setSongs(Arrays.asList(first, second, third));
+
+        index.removeSong(first);
+
+        assertNull(index.findByPath("/m/first.mp3"));
+        assertNull(index.findById(1));
+        assertEquals(0, index.positionOf("/m/second.mp3"));
+        assertEquals(1, index.positionOf("/m/third.mp3"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void removeSongsTakesOutABatch() {
+        LibraryIndex index = new LibraryIndex();
+        index.setSongs(Arrays.asList(first, second, third));
+
+        index.removeSongs(Arrays.asList(third, first, new Song(9, "Gone", "D", "/m/gone.mp3", 1, 1)));
+
+        assertEquals(1, index.size());
+        assertNull(index.findById(1));
+        assertNull(index.findByPath("/m/third.mp3"));
+        assertEquals(0, index.positionOf("/m/second.mp3"));
+    }
+
+    @Test
+    public void setSongsReplacesPreviousContents() {
+        LibraryIndex index = new LibraryIndex();
+        index.setSongs(Arrays.asList(first, second));
+        index.setSongs(Collections.singletonList(third));
+
+        assertNull(index.findByPath("/m/first.mp3"));
+        assertEquals(0, index.positionOf("/m/third.mp3"));
+    }
+
+    @Test
+    public void putSongUpdatesInPlaceOrAppends() {
+        LibraryIndex index = new LibraryIndex();
+        index.setSongs(Arrays.asList(first, second));
+
+        Song moved = new Song(1, "First", "A", "/m/moved/first.mp3", 1000, 10);
+        index.putSong(moved);
+        index.putSong(third);
+
+        assertNull(index.findByPath("/m/first.mp3"));
+        assertEquals(moved, index.findById(1));
+        assertEquals(0, index.positionOf("/m/moved/first.mp3"));
+        assertEquals(2, index.positionOf("/m/third.mp3"));
+        assertEquals(3, index.size());
+        assertEquals(3, index.getSongIds().length);
+    }
+}
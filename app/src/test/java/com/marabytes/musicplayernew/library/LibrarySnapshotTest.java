@@ -0,0 +1,113 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LibrarySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsSongsAndAlbums() throws IOException {
+        List<Song> songs = Arrays.asList(
+                new Song(41, "Moonlight", "Someone", "/music/moonlight.mp3", 215_000, 7),
+                new Song("Café del Mar", "Énergie", "/music/café.flac", 431_512),
+                new Song(null, null, "/music/untagged.ogg", 0),
+                new Song("日本語のタイトル", "Someone", "/music/jp.m4a", Long.MAX_VALUE));
+        List<Album> albums = Arrays.asList(
+                new Album("Nights", "Someone", "content://media/external/audio/albumart/7", "7"),
+                new Album("Untitled", null, null, "12"));
+
+        File file = folder.newFile("library.snapshot");
+        LibrarySnapshot.write(file, songs, albums);
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(songs.size(), snapshot.getSongCount());
+        assertEquals(albums.size(), snapshot.getAlbumCount());
+        assertEquals(songs, snapshot.getSongs(0, snapshot.getSongCount()));
+        assertEquals(albums, snapshot.getAlbums(0, snapshot.getAlbumCount()));
+        assertEquals(songs.get(2), snapshot.getSong(2));
+    }
+
+    @Test
+    public void roundTripsEmptyLibrary() throws IOException {
+        File file = folder.newFile("empty.snapshot");
+        LibrarySnapshot.write(file, Collections.<Song>emptyList(), Collections.<Album>emptyList());
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(0, snapshot.getSongCount());
+        assertEquals(0, snapshot.getAlbumCount());
+    }
+
+    @Test
+    public void repeatedStringsAreStoredOnce() throws IOException {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            songs.add(new Song("Track " + i, "A rather long artist name that repeats", "/m/" + i, i));
+        }
+        File file = folder.newFile("dedupe.snapshot");
+        LibrarySnapshot.write(file, songs, Collections.<Album>emptyList());
+
+        // About 45 bytes per song with the artist stored once, nearly double if it were repeated
+        assertTrue("Snapshot is " + file.length() + " bytes", file.length() < 1000 * 60);
+        assertEquals(songs, LibrarySnapshot.open(file).getSongs(0, 1000));
+    }
+
+    @Test
+    public void overwritesExistingSnapshot() throws IOException {
+        File file = folder.newFile("library.snapshot");
+        LibrarySnapshot.write(file, Collections.singletonList(new Song("Old", "A", "/old", 1)),
+                Collections.<Album>emptyList());
+        LibrarySnapshot.write(file, Collections.singletonList(new Song("New", "B", "/new", 2)),
+                Collections.<Album>emptyList());
+
+        assertEquals(new Song("New", "B", "/new", 2), LibrarySnapshot.open(file).getSong(0));
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotSnapshots() throws IOException {
+        File file = folder.newFile("garbage.snapshot");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("definitely not a snapshot, just some text".getBytes("UTF-8"));
+        }
+        try {
+            LibrarySnapshot.open(file);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    // How long this takes is measured by SnapshotBenchmark in the benchmark module
+    @Test
+    public void firstPageOfLargeLibraryReadsBack() throws IOException {
+        List<Song> songs = new ArrayList<>(50_000);
+        for (int i = 0; i < 50_000; i++) {
+            songs.add(new Song("Track " + i, "Artist " + (i % 500), "/storage/emulated/0/Music/" + i + ".mp3", i));
+        }
+        File file = folder.newFile("large.snapshot");
+        LibrarySnapshot.write(file, songs, Collections.<Album>emptyList());
+
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(50_000, snapshot.getSongCount());
+        assertEquals(songs.subList(0, 30), snapshot.getSongs(0, 30));
+        assertEquals(songs.subList(49_970, 50_000), snapshot.getSongs(49_970, 50_000));
+    }
+}
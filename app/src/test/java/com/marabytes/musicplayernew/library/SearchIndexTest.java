@@ -0,0 +1,148 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+    private final Song moonlight = new Song(1, "Moonlight Sonata", "Beethoven", "/m/1.mp3", 1000, 10);
+    private final Song cafe = new Song(2, "Café del Mar", "Énergie", "/m/2.mp3", 1000, 11);
+    private final Song moon = new Song(3, "Blue Moon", "Someone Else", "/m/3.mp3", 1000, 10);
+    private final List<Album> albums = Arrays.asList(
+            new Album("Night Music", "Beethoven", null, "10"),
+            new Album("Ibiza Sunsets", "Various", null, "11"));
+
+    @Test
+    public void matchesWordPrefixesInTitleArtistAndAlbum() {
+        SearchIndex index = new SearchIndex();
+        index.setCatalog(albums, Arrays.asList(moonlight, cafe, moon));
+
+        assertEquals(Arrays.asList(moonlight, moon), index.search("moo", 10));
+        assertEquals(Collections.singletonList(moonlight), index.search("beet", 10));
+        assertEquals(Collections.singletonList(cafe), index.search("ibiza", 10));
+        assertEquals(Collections.singletonList(moonlight), index.search("moon SON", 10));
+        assertEquals(Collections.emptyList(), index.search("oon", 10));
+        assertEquals(Collections.emptyList(), index.search("  ", 10));
+    }
+
+    @Test
+    public void ignoresAccentsOnBothSides() {
+        SearchIndex index = new SearchIndex();
+        index.setCatalog(albums, Arrays.asList(moonlight, cafe, moon));
+
+        assertEquals(Collections.singletonList(cafe), index.search("cafe", 10));
+        assertEquals(Collections.singletonList(cafe), index.search("ENERGIE", 10));
+        assertEquals(Collections.singletonList(cafe), index.search("énerg", 10));
+    }
+
+    @Test
+    public void updatesIncrementally() {
+        SearchIndex index = new SearchIndex();
+        index.setCatalog(albums, Arrays.asList(moonlight, cafe));
+
+        index.addSong(moon);
+        assertEquals(Arrays.asList(moonlight, moon), index.search("moon", 10));
+
+        index.removeSong(moonlight.getPath());
+        assertEquals(Collections.singletonList(moon), index.search("moon", 10));
+
+        // Same path again replaces the entry
+        index.addSong(new Song(3, "Harvest Moon", "Someone Else", "/m/3.mp3", 1000, 10));
+        assertEquals("Harvest Moon", index.search("moon", 10).get(0).getTitle());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void respectsLimit() {
+        SearchIndex index = new SearchIndex();
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            songs.add(new Song(i, "Track " + i, "Artist", "/m/" + i, 1000, 1));
+        }
+        index.addSongs(songs);
+
+        assertEquals(songs.subList(0, 25), index.search("track", 25));
+    }
+
+    // Timing lives in the benchmark module (SearchBenchmark); this only checks what typing returns
+    @Test
+    public void keystrokeResultsNarrowOnLargeLibrary() {
+        List<Song> songs = syntheticLibrary(20_000);
+        SearchIndex index = new SearchIndex();
+        index.addSongs(songs);
+
+        for (String query : new String[]{"moonlight so", "beeth", "cafe del", "track 4240", "énergie"}) {
+            List<Song> previous = songs;
+            for (int i = 1; i <= query.length(); i++) {
+                List<Song> results = index.search(query.substring(0, i), Integer.MAX_VALUE);
+                assertTrue(query.substring(0, i), new HashSet<>(previous).containsAll(results));
+                previous = results;
+            }
+            assertFalse(query, previous.isEmpty());
+        }
+        assertEquals(Collections.singletonList(songs.get(4240)), index.search("track 4240", 10));
+    }
+
+    @Test
+    public void churnDoesNotGrowTheIndex() {
+        List<Song> songs = syntheticLibrary(1000);
+        SearchIndex index = new SearchIndex();
+        index.addSongs(songs);
+        List<Song> current = new ArrayList<>(songs);
+
+        // Retagged, removed and re-added songs, like a long run of LibrarySync updates
+        Random random = new Random(5);
+        for (int round = 0; round < 50_000; round++) {
+            int i = random.nextInt(songs.size());
+            Song song = songs.get(i);
+            if (random.nextInt(4) == 0) {
+                index.removeSong(song.getPath());
+                current.set(i, null);
+            } else {
+                Song updated = new Song(song.getId(), "Retagged " + round, song.getArtist(), song.getPath(),
+                        song.getDuration(), song.getAlbumId());
+                index.addSong(updated);
+                current.set(i, updated);
+            }
+            assertTrue(index.slotCount() <= Math.max(64, 2 * index.size() + 1));
+        }
+
+        int live = 0;
+        for (Song song : current) {
+            if (song != null) {
+                live++;
+                List<Song> results = index.search(song.getTitle(), Integer.MAX_VALUE);
+                assertEquals(song.getTitle(), Collections.singletonList(song), results);
+            }
+        }
+        assertEquals(live, index.size());
+        assertEquals(live, index.search("retagged", Integer.MAX_VALUE).size());
+    }
+
+    private static List<Song> syntheticLibrary(int count) {
+        String[] words = {"moon", "moonlight", "sonata", "blue", "night", "love", "cafe", "café", "del",
+                "mar", "summer", "rain", "fire", "heart", "dream", "river", "song", "dance", "road", "home"};
+        String[] artists = {"Beethoven", "Énergie", "Someone", "The Band", "Orchestra", "DJ Night"};
+        Random random = new Random(1);
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]
+                    + (i % 10 == 0 ? " track " + i : "");
+            String artist = artists[random.nextInt(artists.length)] + " " + (i % 2000);
+            songs.add(new Song(i, title, artist, "/music/" + i + ".mp3", 180_000, i % 5000));
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,185 @@
+package com.marabytes.musicplayernew.library;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SongCatalogTest {
+    @Test
+    public void readsBackWhatWasAdded() {
+        List<Song> songs = Arrays.asList(
+                new Song(1, "Moonlight Sonata", "Beethoven", "/music/Beethoven/01 Moonlight.mp3", 1000, 10),
+                new Song(2, null, null, "no-folder.mp3", 2000, Song.NO_ID),
+                new Song(Song.NO_ID, "Café", "Énergie", "/music/Énergie/Café.flac", 3000, 11));
+        SongCatalog catalog = new SongCatalog();
+        catalog.addAll(songs);
+
+        assertEquals(songs, catalog.snapshot());
+        assertEquals("/music/Énergie/Café.flac", catalog.getPath(2));
+        assertNull(catalog.get(1).getTitle());
+    }
+
+    @Test
+    public void findsRowsByPathAndId() {
+        SongCatalog catalog = new SongCatalog();
+        List<Song> songs = syntheticLibrary(1000);
+        catalog.addAll(songs);
+
+        for (int i = 0; i < songs.size(); i += 37) {
+            assertEquals(i, catalog.indexOfPath(songs.get(i).getPath()));
+            assertEquals(i, catalog.indexOfId(songs.get(i).getId()));
+        }
+        assertEquals(-1, catalog.indexOfPath("/storage/emulated/0/Music/missing.mp3"));
+        assertEquals(-1, catalog.indexOfId(123_456));
+
+        catalog.remove(10);
+        assertEquals(-1, catalog.indexOfId(songs.get(10).getId()));
+        assertEquals(10, catalog.indexOfPath(songs.get(11).getPath()));
+
+        Song renamed = new Song(songs.get(20).getId(), "Renamed", "Someone", "/new/place.mp3", 1, 1);
+        catalog.set(19, renamed);
+        assertEquals(19, catalog.indexOfId(renamed.getId()));
+        assertEquals(19, catalog.indexOfPath("/new/place.mp3"));
+        assertEquals(-1, catalog.indexOfPath(songs.get(20).getPath()));
+    }
+
+    @Test
+    public void lookupsFollowRandomEdits() {
+        // Songs drawn from a small pool, so rows keep sharing paths and ids
+        List<Song> pool = syntheticLibrary(400);
+        randomEdits(new Random(17), pool, false, new ArrayList<>(pool.subList(0, 200)));
+    }
+
+    @Test
+    public void lookupsFollowRandomEditsWithoutDuplicates() {
+        // Every song used once, so updates only ever touch their own table entries
+        List<Song> pool = syntheticLibrary(4000);
+        List<Song> unused = new ArrayList<>(pool.subList(200, pool.size()));
+        Collections.shuffle(unused, new Random(3));
+        randomEdits(new Random(23), unused, true, new ArrayList<>(pool.subList(0, 200)));
+    }
+
+    // Unique draws take songs off the end of source, so none is used twice
+    private static void randomEdits(Random random, List<Song> source, boolean unique, List<Song> expected) {
+        List<Song> pool = new ArrayList<>(source);
+        pool.addAll(expected);
+        SongCatalog catalog = new SongCatalog();
+        catalog.addAll(expected);
+
+        for (int step = 0; step < 3000; step++) {
+            int action = random.nextInt(10);
+            if (action < 6 && !expected.isEmpty()) {
+                // Mostly in-place updates, sometimes onto a path or id another row has
+                int row = random.nextInt(expected.size());
+                Song song = next(random, source, unique);
+                expected.set(row, song);
+                catalog.set(row, song);
+            } else if (action < 8 && !expected.isEmpty()) {
+                int row = random.nextInt(expected.size());
+                expected.remove(row);
+                catalog.remove(row);
+            } else if (action < 9) {
+                Song song = next(random, source, unique);
+                expected.add(song);
+                catalog.add(song);
+            } else {
+                BitSet rows = new BitSet();
+                for (int i = 0; i < 3 && !expected.isEmpty(); i++) {
+                    rows.set(random.nextInt(expected.size()));
+                }
+                for (int row = rows.length() - 1; row >= 0; row = rows.previousSetBit(row - 1)) {
+                    expected.remove(row);
+                }
+                catalog.removeAll(rows);
+            }
+            if (step % 50 == 0) {
+                assertLookupsMatch(expected, pool, catalog);
+            }
+        }
+        assertLookupsMatch(expected, pool, catalog);
+    }
+
+    private static Song next(Random random, List<Song> source, boolean unique) {
+        return unique ? source.remove(source.size() - 1) : source.get(random.nextInt(source.size()));
+    }
+
+    // Lookups find the last row with the path or id, as if the catalog were built from scratch
+    private static void assertLookupsMatch(List<Song> expected, List<Song> pool, SongCatalog catalog) {
+        assertEquals(expected, catalog.snapshot());
+        for (Song song : pool) {
+            int lastWithPath = -1;
+            int lastWithId = -1;
+            for (int row = 0; row < expected.size(); row++) {
+                if (expected.get(row).getPath().equals(song.getPath())) {
+                    lastWithPath = row;
+                }
+                if (expected.get(row).getId() == song.getId()) {
+                    lastWithId = row;
+                }
+            }
+            assertEquals(lastWithPath, catalog.indexOfPath(song.getPath()));
+            assertEquals(lastWithId, catalog.indexOfId(song.getId()));
+        }
+    }
+
+    @Test
+    public void snapshotOfIdsKeepsTheirOrder() {
+        SongCatalog catalog = new SongCatalog();
+        List<Song> songs = syntheticLibrary(100);
+        catalog.addAll(songs);
+
+        long[] ids = {songs.get(42).getId(), 123_456, songs.get(7).getId(), songs.get(99).getId()};
+        List<Song> picked = catalog.snapshotOfIds(ids);
+        assertEquals(Arrays.asList(songs.get(42), songs.get(7), songs.get(99)), picked);
+
+        catalog.remove(7);
+        catalog.set(0, songs.get(1));
+        assertEquals(Arrays.asList(songs.get(42), songs.get(7), songs.get(99)), picked);
+    }
+
+    @Test
+    public void snapshotsDoNotSeeLaterChanges() {
+        SongCatalog catalog = new SongCatalog();
+        List<Song> songs = syntheticLibrary(500);
+        catalog.addAll(songs.subList(0, 300));
+        List<Song> snapshot = catalog.snapshot();
+
+        catalog.addAll(songs.subList(300, 500));
+        catalog.set(0, songs.get(499));
+        catalog.remove(1);
+        // Enough churn to force the packed text to be compacted
+        for (int i = 0; i < 2000; i++) {
+            catalog.set(5, songs.get(i % 500));
+        }
+
+        assertEquals(songs.subList(0, 300), snapshot);
+        assertEquals(499, catalog.size());
+        assertEquals(songs.get(499), catalog.get(0));
+        assertEquals(songs.get(2), catalog.get(1));
+    }
+
+    // Strings are built per row like a Cursor would, so nothing is shared by accident
+    private static List<Song> syntheticLibrary(int count) {
+        String[] words = {"Moon", "Light", "Blue", "Night", "Love", "Summer", "Rain", "Fire", "Heart", "Dream"};
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int album = i / 12;
+            String artist = "Artist " + (album / 4);
+            String title = words[i % words.length] + " " + words[(i / 7) % words.length] + " " + i;
+            String path = "/storage/emulated/0/Music/" + artist + "/Album " + album + "/"
+                    + (i % 12 + 1) + " " + title + ".mp3";
+            songs.add(new Song(i + 1, title, artist, path, 180_000 + i, album));
+        }
+        return songs;
+    }
+}
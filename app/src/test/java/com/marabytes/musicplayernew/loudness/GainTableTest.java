@@ -0,0 +1,159 @@
+package com.marabytes.musicplayernew.loudness;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GainTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void trackGainBringsTracksToTheReference() throws IOException {
+        GainTable table = new GainTable(folder.newFile("loudness.bin"));
+        table.put(1, 100, 10, -9, 0.1, 1000);
+        table.put(2, 100, 10, -25, 0.1, 1000);
+        table.put(3, 100, 10, -12, 0.9, 1000);
+
+        assertEquals(-9, table.getTrackGain(1, 100), 1e-6);
+        assertEquals(7, table.getTrackGain(2, 100), 1e-6);
+        // A cut can't clip, so the high peak doesn't matter
+        assertEquals(-6, table.getTrackGain(3, 100), 1e-6);
+        assertTrue(Double.isNaN(table.getTrackGain(4, 100)));
+    }
+
+    @Test
+    public void positiveGainIsLimitedByThePeak() throws IOException {
+        GainTable table = new GainTable(folder.newFile("loudness.bin"));
+        table.put(1, 100, 10, -30, 0.5, 1000);
+        // +12 dB wanted, but a 0.5 peak only has 6 dB of headroom
+        assertEquals(20 * Math.log10(2), table.getTrackGain(1, 100), 1e-4);
+    }
+
+    @Test
+    public void changedFileHasNoTrackGain() throws IOException {
+        GainTable table = new GainTable(folder.newFile("loudness.bin"));
+        table.put(1, 100, 10, -9, 0.1, 1000);
+        assertTrue(Double.isNaN(table.getTrackGain(1, 101)));
+        table.put(1, 101, 10, -20, 0.1, 1000);
+        assertEquals(2, table.getTrackGain(1, 101), 1e-6);
+    }
+
+    @Test
+    public void albumGainIsThePowerMeanWeightedByLength() throws IOException {
+        GainTable table = new GainTable(folder.newFile("loudness.bin"));
+        // Same length, 10 dB apart: the mean energy is (1 + 0.1) / 2 of the loud track's
+        table.put(1, 100, 10, -10, 0.5, 1000);
+        table.put(2, 100, 10, -20, 0.5, 1000);
+        // A silent track counts for its peak only
+        table.put(3, 100, 10, Double.NEGATIVE_INFINITY, 0, 0);
+        table.put(4, 100, 11, -14, 0.5, 1000);
+
+        double albumLoudness = -10 + 10 * Math.log10(1.1 / 2);
+        assertEquals(ReplayGain.REFERENCE_LUFS - albumLoudness, table.getAlbumGain(10), 1e-4);
+        assertEquals(-4, table.getAlbumGain(11), 1e-4);
+        assertEquals(0, table.getTrackGain(3, 100), 0);
+        assertTrue(Double.isNaN(table.getAlbumGain(12)));
+    }
+
+    @Test
+    public void remeasuredTrackMovesBetweenAlbums() throws IOException {
+        GainTable table = new GainTable(folder.newFile("loudness.bin"));
+        table.put(1, 100, 10, -10, 0.5, 1000);
+        table.put(2, 100, 10, -20, 0.5, 1000);
+        table.put(2, 101, 11, -16, 0.5, 1000);
+
+        assertEquals(-8, table.getAlbumGain(10), 1e-4);
+        assertEquals(-2, table.getAlbumGain(11), 1e-4);
+        table.put(1, 101, 11, -16, 0.5, 1000);
+        assertTrue(Double.isNaN(table.getAlbumGain(10)));
+        assertEquals(-2, table.getAlbumGain(11), 1e-4);
+    }
+
+    @Test
+    public void survivesReopeningAndRemeasuring() throws IOException {
+        File file = folder.newFile("loudness.bin");
+        GainTable table = new GainTable(file);
+        for (int id = 1; id <= 2000; id++) {
+            table.put(id, id * 10L, id % 50, -10 - id % 7, 0.5, 100);
+        }
+        table.put(7, 999, 7, -30, 0.01, 100);
+
+        GainTable reopened = new GainTable(file);
+        assertEquals(2000, reopened.size());
+        assertTrue(reopened.isMeasured(1234, 12340));
+        assertFalse(reopened.isMeasured(1234, 12341));
+        assertTrue(reopened.isMeasured(7, 999));
+        assertEquals(12, reopened.getTrackGain(7, 999), 1e-4);
+        assertEquals(table.getAlbumGain(7), reopened.getAlbumGain(7), 1e-6);
+        assertEquals(table.getAlbumGain(20), reopened.getAlbumGain(20), 1e-6);
+        assertEquals(GainTable.HEADER_SIZE + 2000L * GainTable.RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void concurrentAppendsLandInRowOrder() throws Exception {
+        File file = folder.newFile("loudness.bin");
+        GainTable table = new GainTable(file);
+        Thread[] workers = new Thread[4];
+        for (int w = 0; w < workers.length; w++) {
+            int first = w * 500 + 1;
+            workers[w] = new Thread(() -> {
+                for (int id = first; id < first + 500; id++) {
+                    try {
+                        table.put(id, id, id % 20, -10 - id % 7, 0.5, 100);
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            workers[w].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // No row was left zero-filled for a later append to skip over
+        try (RandomAccessFile raw = new RandomAccessFile(file, "r")) {
+            for (int row = 0; row < 2000; row++) {
+                raw.seek(GainTable.HEADER_SIZE + (long) row * GainTable.RECORD_SIZE);
+                assertTrue(raw.readLong() != 0);
+            }
+        }
+        GainTable reopened = new GainTable(file);
+        assertEquals(2000, reopened.size());
+        for (int id = 1; id <= 2000; id++) {
+            assertTrue(reopened.isMeasured(id, id));
+        }
+    }
+
+    @Test
+    public void tornRecordFromAKilledRunIsDropped() throws IOException {
+        File file = folder.newFile("loudness.bin");
+        GainTable table = new GainTable(file);
+        table.put(1, 1, 1, -10, 0.5, 100);
+        table.put(2, 2, 1, -10, 0.5, 100);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 7);
+        }
+
+        GainTable reopened = new GainTable(file);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.isMeasured(1, 1));
+        assertFalse(reopened.isMeasured(2, 2));
+    }
+
+    @Test
+    public void volumeOnlyEverAttenuates() {
+        assertEquals(1f, ReplayGain.volumeFor(Double.NaN), 0);
+        assertEquals(1f, ReplayGain.volumeFor(3), 0);
+        assertEquals(0.5f, ReplayGain.volumeFor(20 * Math.log10(0.5)), 1e-6f);
+    }
+}
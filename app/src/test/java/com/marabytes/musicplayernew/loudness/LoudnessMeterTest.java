@@ -0,0 +1,124 @@
+package com.marabytes.musicplayernew.loudness;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reference cases from EBU Tech 3341 (stereo 1 kHz tones), which a meter
+ * has to read within 0.1 LU, generated here as 16-bit PCM.
+ */
+public class LoudnessMeterTest {
+    private static final int SAMPLE_RATE = 48_000;
+    private static final double TOLERANCE_LU = 0.1;
+
+    @Test
+    public void kWeightingMatchesTheBs1770TableAt48k() {
+        double[][] k = LoudnessMeter.kWeighting(SAMPLE_RATE);
+        assertArrayEquals(new double[]{1.53512485958697, -2.69169618940638, 1.19839281085285,
+                -1.69065929318241, 0.73248077421585}, k[0], 1e-9);
+        assertArrayEquals(new double[]{1, -2, 1, -1.99004745483398, 0.99007225036621}, k[1], 1e-9);
+    }
+
+    @Test
+    public void toneAtMinus23DbfsReadsMinus23Lufs() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        addTone(meter, SAMPLE_RATE, -23, 20);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE_LU);
+        assertEquals(Math.pow(10, -23 / 20.0), meter.getSamplePeak(), 0.001);
+    }
+
+    @Test
+    public void toneAtMinus33DbfsReadsMinus33Lufs() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        addTone(meter, SAMPLE_RATE, -33, 20);
+        assertEquals(-33, meter.getIntegratedLoudness(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void otherSampleRatesReadTheSame() {
+        LoudnessMeter meter = new LoudnessMeter(44_100, 2);
+        addTone(meter, 44_100, -23, 20);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void relativeGateDropsQuietPassages() {
+        // Tech 3341 case 3: -36, -23, -36 dBFS for 10, 60 and 10 seconds
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        addTone(meter, SAMPLE_RATE, -36, 10);
+        addTone(meter, SAMPLE_RATE, -23, 60);
+        addTone(meter, SAMPLE_RATE, -36, 10);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void absoluteGateDropsNearSilence() {
+        // Tech 3341 case 4: -72, -36, -23, -36, -72 dBFS for 10, 10, 60, 10 and 10 seconds
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        addTone(meter, SAMPLE_RATE, -72, 10);
+        addTone(meter, SAMPLE_RATE, -36, 10);
+        addTone(meter, SAMPLE_RATE, -23, 60);
+        addTone(meter, SAMPLE_RATE, -36, 10);
+        addTone(meter, SAMPLE_RATE, -72, 10);
+        assertEquals(-23, meter.getIntegratedLoudness(), TOLERANCE_LU);
+    }
+
+    @Test
+    public void silenceAndTheLfeChannelHaveNoLoudness() {
+        LoudnessMeter silent = new LoudnessMeter(SAMPLE_RATE, 2);
+        silent.add(new short[SAMPLE_RATE * 2 * 5], 0, SAMPLE_RATE * 2 * 5);
+        assertEquals(Double.NEGATIVE_INFINITY, silent.getIntegratedLoudness(), 0);
+        assertEquals(0, silent.getGatedBlockCount());
+
+        // 5.1 with a loud tone on the LFE channel only
+        LoudnessMeter lfeOnly = new LoudnessMeter(SAMPLE_RATE, 6);
+        short[] pcm = new short[SAMPLE_RATE * 6 * 5];
+        for (int frame = 0; frame < SAMPLE_RATE * 5; frame++) {
+            pcm[frame * 6 + 3] = (short) Math.round(16000 * Math.sin(2 * Math.PI * 60 * frame / SAMPLE_RATE));
+        }
+        lfeOnly.add(pcm, 0, pcm.length);
+        assertEquals(Double.NEGATIVE_INFINITY, lfeOnly.getIntegratedLoudness(), 0);
+    }
+
+    @Test
+    public void measuringAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        short[] block = tone(SAMPLE_RATE, -20, 4096);
+        // Warm up so the loop is compiled before we measure
+        for (int i = 0; i < 2000; i++) {
+            meter.add(block, 0, block.length);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 2000; i++) {
+            meter.add(block, 0, block.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void addTone(LoudnessMeter meter, int sampleRate, double dbfs, int seconds) {
+        short[] pcm = tone(sampleRate, dbfs, sampleRate * seconds);
+        meter.add(pcm, 0, pcm.length);
+    }
+
+    // Stereo 1 kHz sine, the same on both channels
+    private static short[] tone(int sampleRate, double dbfs, int frames) {
+        double amplitude = Math.pow(10, dbfs / 20) * 32768;
+        short[] pcm = new short[frames * 2];
+        for (int frame = 0; frame < frames; frame++) {
+            short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * frame / sampleRate));
+            pcm[frame * 2] = sample;
+            pcm[frame * 2 + 1] = sample;
+        }
+        return pcm;
+    }
+}
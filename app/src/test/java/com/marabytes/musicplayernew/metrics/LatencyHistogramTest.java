@@ -0,0 +1,84 @@
+package com.marabytes.musicplayernew.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(value + " above its bucket", value <= upper);
+            assertTrue(value + " reported as " + upper, upper <= Math.max(value, value + value / 4));
+            if (bucket > 0) {
+                assertTrue(value + " below its bucket", value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+        assertEquals(Integer.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void reportsPercentilesCountAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertWithinQuarter(500, histogram.getPercentile(0.5));
+        assertWithinQuarter(900, histogram.getPercentile(0.9));
+        assertEquals(1000, histogram.getPercentile(1.0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void clampsOutOfRangeSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(Integer.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void registryReturnsTheSameMetricAndDumpsIt() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test.count").add(3);
+        metrics.histogram("test.latency").record(12);
+        metrics.hitCounter("test.cache").hit();
+        metrics.hitCounter("test.cache").miss();
+
+        assertEquals(3, metrics.counter("test.count").get());
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out, true));
+        assertEquals("  test.cache: 1 hits, 1 misses (50.0% hit rate)\n"
+                + "  test.count: 3\n"
+                + "  test.latency: count=1 mean=12 p50=12 p90=12 p99=12 max=12 ms\n",
+                out.toString().replace(System.lineSeparator(), "\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANameRegisteredWithAnotherType() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test.metric");
+        metrics.histogram("test.metric");
+    }
+
+    private static void assertWithinQuarter(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 4);
+    }
+}
@@ -0,0 +1,67 @@
+package com.marabytes.musicplayernew.playback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FadeRampTest {
+    @Test
+    public void curvesRunFromSilenceToFullVolume() {
+        for (FadeCurve curve : FadeCurve.values()) {
+            assertEquals(curve.name(), 0f, curve.fadeIn(0f), 1e-6f);
+            assertEquals(curve.name(), 1f, curve.fadeIn(1f), 1e-6f);
+            assertEquals(curve.name(), 1f, curve.fadeOut(0f), 1e-6f);
+            assertEquals(curve.name(), 0f, curve.fadeOut(1f), 1e-6f);
+            // Overshooting progress, e.g. a late last step, is held at the ends
+            assertEquals(curve.name(), 1f, curve.fadeIn(1.3f), 1e-6f);
+            assertEquals(curve.name(), 0f, curve.fadeIn(-0.2f), 1e-6f);
+
+            float previous = -1;
+            for (int i = 0; i <= 100; i++) {
+                float level = curve.fadeIn(i / 100f);
+                assertTrue(curve.name() + " goes down at " + i, level >= previous);
+                assertEquals(curve.fadeIn(i / 100f), curve.fadeOut(1 - i / 100f), 1e-6f);
+                previous = level;
+            }
+        }
+    }
+
+    @Test
+    public void linearKeepsAmplitudeAndEqualPowerKeepsPower() {
+        for (int i = 0; i <= 100; i++) {
+            float t = i / 100f;
+            assertEquals(1f, FadeCurve.LINEAR.fadeIn(t) + FadeCurve.LINEAR.fadeOut(t), 1e-6f);
+            float in = FadeCurve.EQUAL_POWER.fadeIn(t);
+            float out = FadeCurve.EQUAL_POWER.fadeOut(t);
+            assertEquals(1f, in * in + out * out, 1e-5f);
+        }
+        // Half way through, equal power is at -3 dB rather than linear's -6 dB
+        assertEquals(Math.sqrt(0.5), FadeCurve.EQUAL_POWER.fadeIn(0.5f), 1e-6);
+    }
+
+    @Test
+    public void stepsStayOnTheirGridWhenOneRunsLate() {
+        FadeRamp ramp = new FadeRamp(1000, 6000, 20);
+
+        assertEquals(1000, ramp.nextStepAfter(500));
+        assertEquals(1020, ramp.nextStepAfter(1000));
+        // A step that ran 13 ms late is followed by the next one on the grid, not 20 ms later
+        assertEquals(1040, ramp.nextStepAfter(1033));
+        assertEquals(7000, ramp.nextStepAfter(6995));
+        assertEquals(7000, ramp.nextStepAfter(7100));
+    }
+
+    @Test
+    public void progressFollowsTheClock() {
+        FadeRamp ramp = new FadeRamp(1000, 4000, 20);
+
+        assertEquals(0f, ramp.progressAt(0), 0f);
+        assertEquals(0.25f, ramp.progressAt(2000), 1e-6f);
+        assertEquals(1f, ramp.progressAt(5000), 0f);
+        assertEquals(1f, ramp.progressAt(9000), 0f);
+        assertFalse(ramp.isFinishedAt(4999));
+        assertTrue(ramp.isFinishedAt(5000));
+    }
+}
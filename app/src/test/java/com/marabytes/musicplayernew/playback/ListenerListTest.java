@@ -0,0 +1,104 @@
+package com.marabytes.musicplayernew.playback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ListenerListTest {
+
+    @Test
+    public void ignoresDuplicateAdds() {
+        ListenerList<Runnable> list = new ListenerList<>();
+        Runnable listener = () -> { };
+
+        assertTrue(list.add(listener));
+        assertFalse(list.add(listener));
+        assertEquals(1, list.snapshot().length);
+    }
+
+    @Test
+    public void changesDuringDispatchDoNotAffectTheRunningLoop() {
+        ListenerList<Runnable> list = new ListenerList<>();
+        List<String> calls = new ArrayList<>();
+        Runnable late = () -> calls.add("late");
+        Runnable second = () -> calls.add("second");
+        Runnable first = () -> {
+            calls.add("first");
+            list.remove(second);
+            list.add(late);
+        };
+        list.add(first);
+        list.add(second);
+
+        for (Object listener : list.snapshot()) {
+            ((Runnable) listener).run();
+        }
+
+        assertEquals(2, calls.size());
+        assertEquals("second", calls.get(1));
+        Object[] now = list.snapshot();
+        assertEquals(2, now.length);
+        assertSame(first, now[0]);
+        assertSame(late, now[1]);
+    }
+
+    @Test
+    public void removeMatchingDropsAllMatches() {
+        ListenerList<String> list = new ListenerList<>();
+        list.add("a");
+        list.add("bb");
+        list.add("cc");
+
+        assertTrue(list.removeMatching(item -> item.length() == 2));
+        assertFalse(list.removeMatching(item -> item.length() == 2));
+        assertEquals(1, list.snapshot().length);
+        list.remove("a");
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void concurrentRegistrationLosesNothing() throws InterruptedException {
+        ListenerList<Object> list = new ListenerList<>();
+        int threads = 8;
+        int perThread = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    Object listener = new Object();
+                    list.add(listener);
+                    // Dispatch concurrently with registration must always see a full array
+                    for (Object item : list.snapshot()) {
+                        if (item == null) {
+                            throw new AssertionError("Saw a half-built snapshot");
+                        }
+                    }
+                    if (i % 2 == 0) {
+                        list.remove(listener);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread / 2, list.snapshot().length);
+    }
+}
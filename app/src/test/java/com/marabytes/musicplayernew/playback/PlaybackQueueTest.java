@@ -0,0 +1,189 @@
+package com.marabytes.musicplayernew.playback;
+
+import com.marabytes.musicplayernew.model.Song;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackQueueTest {
+    private static final int LARGE_QUEUE = 100_000;
+
+    @Test
+    public void walksForwardAndBackInOrder() {
+        List<Song> songs = songs(5);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setQueue(songs, 2);
+
+        assertSame(songs.get(2), queue.getCurrent());
+        assertSame(songs.get(3), queue.peekNext());
+        assertSame(songs.get(3), queue.moveToNext(true));
+        assertSame(songs.get(4), queue.moveToNext(false));
+        assertNull(queue.moveToNext(false));
+        assertSame(songs.get(4), queue.getCurrent());
+        assertSame(songs.get(3), queue.moveToPrevious());
+    }
+
+    @Test
+    public void previousStaysOnFirstSongUnlessRepeatingAll() {
+        List<Song> songs = songs(3);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setQueue(songs, 0);
+
+        assertSame(songs.get(0), queue.moveToPrevious());
+        queue.setRepeatMode(PlaybackQueue.RepeatMode.ALL);
+        assertSame(songs.get(2), queue.moveToPrevious());
+    }
+
+    @Test
+    public void repeatAllWrapsAround() {
+        List<Song> songs = songs(3);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setRepeatMode(PlaybackQueue.RepeatMode.ALL);
+        queue.setQueue(songs, 2);
+
+        assertSame(songs.get(0), queue.peekNext());
+        assertSame(songs.get(0), queue.moveToNext(false));
+    }
+
+    @Test
+    public void repeatOneRepeatsUntilUserSkips() {
+        List<Song> songs = songs(3);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setRepeatMode(PlaybackQueue.RepeatMode.ONE);
+        queue.setQueue(songs, 1);
+
+        assertSame(songs.get(1), queue.peekNext());
+        assertSame(songs.get(1), queue.moveToNext(false));
+        assertSame(songs.get(2), queue.moveToNext(true));
+    }
+
+    @Test
+    public void insertedSongsPlayNextThenQueueContinues() {
+        List<Song> songs = songs(3);
+        Song first = song(100);
+        Song second = song(101);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setQueue(songs, 0);
+
+        queue.insertNext(first);
+        queue.insertNext(second);
+
+        assertEquals(5, queue.size());
+        assertSame(second, queue.peekNext());
+        assertSame(second, queue.moveToNext(false));
+        assertSame(first, queue.moveToNext(false));
+        assertSame(songs.get(1), queue.moveToNext(false));
+    }
+
+    @Test
+    public void appendedSongsPlayAfterTheRest() {
+        List<Song> songs = songs(2);
+        Song extra = song(100);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.setQueue(songs, 1);
+
+        queue.append(extra);
+
+        assertSame(extra, queue.moveToNext(false));
+    }
+
+    @Test
+    public void shuffleVisitsEverySongOnceStartingWithCurrent() {
+        List<Song> songs = songs(1000);
+        PlaybackQueue queue = new PlaybackQueue(new Random(42));
+        queue.setQueue(songs, 500);
+        queue.setShuffleEnabled(true);
+
+        assertSame(songs.get(500), queue.getCurrent());
+        Set<Song> seen = new HashSet<>();
+        seen.add(queue.getCurrent());
+        List<Song> order = new ArrayList<>();
+        Song song;
+        while ((song = queue.moveToNext(false)) != null) {
+            assertTrue("Played twice: " + song.getTitle(), seen.add(song));
+            order.add(song);
+        }
+        assertEquals(songs.size(), seen.size());
+        assertNotEquals(songs.subList(501, 1000), order.subList(0, 499));
+    }
+
+    @Test
+    public void turningShuffleOffContinuesFromCurrentSong() {
+        List<Song> songs = songs(100);
+        PlaybackQueue queue = new PlaybackQueue(new Random(7));
+        queue.setShuffleEnabled(true);
+        queue.setQueue(songs, 10);
+        queue.moveToNext(false);
+        Song current = queue.getCurrent();
+
+        queue.setShuffleEnabled(false);
+
+        int index = songs.indexOf(current);
+        assertSame(current, queue.getCurrent());
+        if (index < songs.size() - 1) {
+            assertSame(songs.get(index + 1), queue.peekNext());
+        }
+    }
+
+    @Test
+    public void appendWhileShuffledIsStillPlayed() {
+        List<Song> songs = songs(20);
+        Song extra = song(100);
+        PlaybackQueue queue = new PlaybackQueue(new Random(3));
+        queue.setShuffleEnabled(true);
+        queue.setQueue(songs, 0);
+        queue.append(extra);
+
+        boolean played = false;
+        Song song;
+        while ((song = queue.moveToNext(false)) != null) {
+            played |= song == extra;
+        }
+        assertTrue(played);
+    }
+
+    @Test
+    public void largeQueueOperationsDoNotScan() {
+        List<Song> songs = songs(LARGE_QUEUE);
+        PlaybackQueue queue = new PlaybackQueue(new Random(1));
+
+        long start = System.nanoTime();
+        queue.setQueue(songs, LARGE_QUEUE / 2);
+        queue.setShuffleEnabled(true);
+        for (int i = 0; i < LARGE_QUEUE; i++) {
+            queue.insertNext(songs.get(i));
+            queue.moveToNext(true);
+            queue.moveToNext(true);
+            queue.moveToPrevious();
+            queue.peekNext();
+        }
+        queue.setShuffleEnabled(false);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // A linear scan per operation would take minutes here
+        assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 2000);
+    }
+
+    private static List<Song> songs(int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(song(i));
+        }
+        return songs;
+    }
+
+    private static Song song(int i) {
+        return new Song(i, "Song " + i, "Artist", "/music/" + i + ".mp3", 1000, 1);
+    }
+}
@@ -0,0 +1,246 @@
+package com.marabytes.musicplayernew.tags;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.marabytes.musicplayernew.tags.SampleFiles.apic;
+import static com.marabytes.musicplayernew.tags.SampleFiles.atom;
+import static com.marabytes.musicplayernew.tags.SampleFiles.concat;
+import static com.marabytes.musicplayernew.tags.SampleFiles.frame;
+import static com.marabytes.musicplayernew.tags.SampleFiles.freeform;
+import static com.marabytes.musicplayernew.tags.SampleFiles.id3v1;
+import static com.marabytes.musicplayernew.tags.SampleFiles.id3v2;
+import static com.marabytes.musicplayernew.tags.SampleFiles.int16;
+import static com.marabytes.musicplayernew.tags.SampleFiles.int32;
+import static com.marabytes.musicplayernew.tags.SampleFiles.item;
+import static com.marabytes.musicplayernew.tags.SampleFiles.mpegFrames;
+import static com.marabytes.musicplayernew.tags.SampleFiles.text;
+import static com.marabytes.musicplayernew.tags.SampleFiles.userText;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsId3v23TagsAndPrefersTheFrontCover() throws IOException {
+        byte[] back = SampleFiles.picture(300);
+        byte[] front = SampleFiles.picture(2000);
+        File file = SampleFiles.write(folder.newFile("v23.mp3"),
+                id3v2(3, false,
+                        frame(3, "TIT2", text(0, "Café del Mar")),
+                        frame(3, "TPE1", text(1, "Énergie ♫")),
+                        frame(3, "TALB", text(0, "Nights")),
+                        frame(3, "TRCK", text(0, "4/12")),
+                        frame(3, "TCON", text(0, "(17)")),
+                        frame(3, "TXXX", userText(1, "REPLAYGAIN_TRACK_GAIN", "-6.20 dB")),
+                        frame(3, "APIC", apic(0, "image/jpeg", 4, "", back)),
+                        frame(3, "APIC", apic(1, "image/jpeg", 3, "Cover", front))),
+                mpegFrames(100),
+                id3v1("Other title", "Other artist", "", "1999", 9, 0));
+
+        AudioTags tags = TagReader.read(file);
+
+        assertEquals(AudioTags.Format.MP3, tags.getFormat());
+        assertEquals("Café del Mar", tags.getTitle());
+        assertEquals("Énergie ♫", tags.getArtist());
+        assertEquals("Nights", tags.getAlbum());
+        assertEquals(4, tags.getTrackNumber());
+        assertEquals("Rock", tags.get(AudioTags.GENRE));
+        assertEquals("-6.20 dB", tags.get("replaygain_track_gain"));
+        // Only what ID3v2 lacks comes from ID3v1
+        assertEquals("1999", tags.get(AudioTags.DATE));
+
+        assertEquals(EmbeddedPicture.TYPE_FRONT_COVER, tags.getPicture().getPictureType());
+        assertEquals("image/jpeg", tags.getPicture().getMimeType());
+        assertArrayEquals(front, TagReader.readPicture(file, tags.getPicture()));
+
+        // Constant bitrate, so the duration comes from the size
+        assertEquals(128_000, tags.getBitrate());
+        assertEquals(44_100, tags.getSampleRate());
+        assertEquals(2, tags.getChannels());
+        assertEquals(100L * SampleFiles.MPEG_FRAME_LENGTH * 8 / 128, tags.getDurationMillis());
+    }
+
+    @Test
+    public void readsId3v24WithUnsynchronisedPictureAndXingDuration() throws IOException {
+        byte[] cover = SampleFiles.picture(5000);
+        int frames = 2000;
+        File file = SampleFiles.write(folder.newFile("v24.mp3"),
+                id3v2(4, false,
+                        frame(4, "TIT2", text(3, "日本語のタイトル")),
+                        frame(4, "TDRC", text(3, "2021-05-01")),
+                        frame(4, "APIC", apic(3, "image/png", 3, "ä", cover), true)),
+                // The Xing frame claims far more audio than is in the file, as VBR timing comes from it
+                SampleFiles.xingFrame(frames, frames * 300),
+                mpegFrames(3));
+
+        AudioTags tags = TagReader.read(file);
+
+        assertEquals("日本語のタイトル", tags.getTitle());
+        assertEquals("2021-05-01", tags.get(AudioTags.DATE));
+        assertEquals("image/png", tags.getPicture().getMimeType());
+        assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+        assertEquals((long) frames * SampleFiles.SAMPLES_PER_FRAME * 1000 / 44_100, tags.getDurationMillis());
+        assertEquals(300 * 8 * 44_100 / SampleFiles.SAMPLES_PER_FRAME, tags.getBitrate(), 10);
+    }
+
+    @Test
+    public void undoesTagWideUnsynchronisation() throws IOException {
+        byte[] cover = SampleFiles.picture(3000);
+        File file = SampleFiles.write(folder.newFile("unsync.mp3"),
+                id3v2(3, true,
+                        frame(3, "TIT2", text(1, "ÿÿ Unsynced")),
+                        frame(3, "APIC", apic(0, "jpg", 3, "", cover)),
+                        frame(3, "TPE1", text(0, "After the picture"))),
+                mpegFrames(10));
+
+        AudioTags tags = TagReader.read(file);
+
+        assertEquals("ÿÿ Unsynced", tags.getTitle());
+        assertEquals("After the picture", tags.getArtist());
+        assertEquals("image/jpeg", tags.getPicture().getMimeType());
+        assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+    }
+
+    @Test
+    public void readsId3v22() throws IOException {
+        byte[] cover = SampleFiles.picture(700);
+        File file = SampleFiles.write(folder.newFile("v22.mp3"),
+                id3v2(2, false,
+                        frame(2, "TT2", text(0, "Old tagger")),
+                        frame(2, "TCO", text(0, "Ambient")),
+                        frame(2, "PIC", SampleFiles.pic("PNG", 3, cover))),
+                mpegFrames(10));
+
+        AudioTags tags = TagReader.read(file);
+
+        assertEquals("Old tagger", tags.getTitle());
+        assertEquals("Ambient", tags.get(AudioTags.GENRE));
+        assertEquals("image/png", tags.getPicture().getMimeType());
+        assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+    }
+
+    @Test
+    public void readsId3v1OnlyFiles() throws IOException {
+        File file = SampleFiles.write(folder.newFile("v1.mp3"),
+                mpegFrames(50),
+                id3v1("Plain title", "Plain artist", "Plain album", "1987", 3, 8));
+
+        AudioTags tags = TagReader.read(file);
+
+        assertEquals("Plain title", tags.getTitle());
+        assertEquals("Plain artist", tags.getArtist());
+        assertEquals("Plain album", tags.getAlbum());
+        assertEquals(3, tags.getTrackNumber());
+        assertEquals("Jazz", tags.get(AudioTags.GENRE));
+        assertNull(tags.getPicture());
+        // The ID3v1 tag isn't counted as audio
+        assertEquals(50L * SampleFiles.MPEG_FRAME_LENGTH * 8 / 128, tags.getDurationMillis());
+    }
+
+    @Test
+    public void readsFlacCommentsPictureAndStreamInfo() throws IOException {
+        byte[] cover = SampleFiles.picture(4000);
+        long samples = 48_000L * 215;
+        byte[] flac = SampleFiles.flac(48_000, 2, samples, new String[]{
+                "TITLE=Moonlight", "Artist=Someone", "ALBUM ARTIST=Various", "TRACKNUMBER=7",
+                "REPLAYGAIN_ALBUM_GAIN=-3.10 dB", "no separator"}, cover, 100_000);
+        File plain = SampleFiles.write(folder.newFile("song.flac"), flac);
+        // Some taggers put an ID3v2 tag in front of the FLAC stream
+        File withId3 = SampleFiles.write(folder.newFile("id3.flac"),
+                id3v2(3, false, frame(3, "TIT2", text(0, "Ignored"))), flac);
+
+        for (File file : new File[]{plain, withId3}) {
+            AudioTags tags = TagReader.read(file);
+
+            assertEquals(AudioTags.Format.FLAC, tags.getFormat());
+            assertEquals("Moonlight", tags.getTitle());
+            assertEquals("Someone", tags.getArtist());
+            assertEquals("Various", tags.get(AudioTags.ALBUM_ARTIST));
+            assertEquals(7, tags.getTrackNumber());
+            assertEquals("-3.10 dB", tags.get("replaygain_album_gain"));
+            assertEquals(215_000, tags.getDurationMillis());
+            assertEquals(48_000, tags.getSampleRate());
+            assertEquals(2, tags.getChannels());
+            assertEquals(100_000 * 8 / 215, tags.getBitrate());
+            assertEquals("image/png", tags.getPicture().getMimeType());
+            assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+        }
+    }
+
+    @Test
+    public void readsMp4ItemsWhereverMoovIs() throws IOException {
+        byte[] cover = SampleFiles.picture(6000);
+        byte[][] items = {
+                item("©nam", 1, "Night Drive".getBytes("UTF-8")),
+                item("©ART", 1, "Synthwave Ünion".getBytes("UTF-8")),
+                item("aART", 1, "Various".getBytes("UTF-8")),
+                item("trkn", 0, concat(int16(0), int16(5), int16(10), int16(0))),
+                item("disk", 0, concat(int16(0), int16(2), int16(2))),
+                item("gnre", 0, int16(18)),
+                item("covr", 14, cover),
+                freeform("replaygain_track_gain", "+1.50 dB"),
+                atom("©too", atom("data", int32(1), int32(0), "Lavf".getBytes("UTF-8")))
+        };
+        long samples = 44_100L * 200;
+        for (boolean moovFirst : new boolean[]{true, false}) {
+            File file = SampleFiles.write(folder.newFile("song" + moovFirst + ".m4a"),
+                    SampleFiles.m4a(44_100, 2, samples, 50_000, moovFirst, items));
+
+            AudioTags tags = TagReader.read(file);
+
+            assertEquals(AudioTags.Format.MP4, tags.getFormat());
+            assertEquals("Night Drive", tags.getTitle());
+            assertEquals("Synthwave Ünion", tags.getArtist());
+            assertEquals("Various", tags.get(AudioTags.ALBUM_ARTIST));
+            assertEquals("5/10", tags.get(AudioTags.TRACK_NUMBER));
+            assertEquals(5, tags.getTrackNumber());
+            assertEquals(2, tags.getDiscNumber());
+            assertEquals("Rock", tags.get(AudioTags.GENRE));
+            assertEquals("+1.50 dB", tags.get("replaygain_track_gain"));
+            assertEquals(200_000, tags.getDurationMillis());
+            assertEquals(44_100, tags.getSampleRate());
+            assertEquals(2, tags.getChannels());
+            assertEquals(50_000 * 8 / 200, tags.getBitrate());
+            assertEquals("image/png", tags.getPicture().getMimeType());
+            assertArrayEquals(cover, TagReader.readPicture(file, tags.getPicture()));
+        }
+    }
+
+    @Test
+    public void returnsNullForOtherFormats() throws IOException {
+        byte[] noise = new byte[50_000];
+        new Random(7).nextBytes(noise);
+        File ogg = SampleFiles.write(folder.newFile("song.ogg"), "OggS".getBytes("US-ASCII"), noise);
+        File tiny = SampleFiles.write(folder.newFile("tiny.mp3"), new byte[]{1, 2, 3});
+
+        assertNull(TagReader.read(ogg));
+        assertNull(TagReader.read(tiny));
+    }
+
+    @Test
+    public void survivesTruncatedFiles() throws IOException {
+        byte[] full = concat(id3v2(3, false,
+                frame(3, "TIT2", text(0, "Cut short")),
+                frame(3, "APIC", apic(0, "image/jpeg", 3, "", SampleFiles.picture(5000)))),
+                mpegFrames(20));
+        for (int length = 0; length < full.length; length += 97) {
+            byte[] cut = new byte[length];
+            System.arraycopy(full, 0, cut, 0, length);
+            File file = SampleFiles.write(folder.newFile("cut" + length + ".mp3"), cut);
+            try {
+                TagReader.read(file);
+            } catch (IOException e) {
+                // Reporting a broken file is fine, anything else is not
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.marabytes.musicplayernew.waveform;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WaveformCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackAfterReopening() throws IOException {
+        File file = folder.newFile("waveforms.bin");
+        try (WaveformCache cache = new WaveformCache(file)) {
+            for (int id = 1; id <= 1000; id++) {
+                cache.put(id, 1000L * id, waveform(id));
+            }
+            assertSameWaveform(waveform(500), cache.get(500, 500_000));
+        }
+        assertEquals(WaveformCache.HEADER_SIZE + 1000L * WaveformCache.RECORD_SIZE, file.length());
+
+        try (WaveformCache cache = new WaveformCache(file)) {
+            assertEquals(1000, cache.size());
+            for (int id = 1; id <= 1000; id += 17) {
+                assertSameWaveform(waveform(id), cache.get(id, 1000L * id));
+            }
+            assertNull(cache.get(1001, 1_001_000));
+        }
+    }
+
+    @Test
+    public void changedFileMissesAndIsOverwrittenInPlace() throws IOException {
+        File file = folder.newFile("waveforms.bin");
+        try (WaveformCache cache = new WaveformCache(file)) {
+            cache.put(7, 100, waveform(1));
+            cache.put(8, 100, waveform(2));
+            assertNull(cache.get(7, 200));
+
+            cache.put(7, 200, waveform(3));
+            assertEquals(2, cache.size());
+            assertSameWaveform(waveform(3), cache.get(7, 200));
+            assertNull(cache.get(7, 100));
+        }
+    }
+
+    @Test
+    public void tornRecordAndForeignFilesAreDropped() throws IOException {
+        File file = folder.newFile("waveforms.bin");
+        try (WaveformCache cache = new WaveformCache(file)) {
+            cache.put(1, 1, waveform(1));
+            cache.put(2, 2, waveform(2));
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 10);
+        }
+        try (WaveformCache cache = new WaveformCache(file)) {
+            assertEquals(1, cache.size());
+            assertNotNull(cache.get(1, 1));
+            assertNull(cache.get(2, 2));
+        }
+
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.writeInt(0x12345678);
+        }
+        try (WaveformCache cache = new WaveformCache(file)) {
+            assertEquals(0, cache.size());
+        }
+        assertEquals(WaveformCache.HEADER_SIZE, file.length());
+    }
+
+    private static Waveform waveform(int seed) {
+        byte[] peaks = new byte[Waveform.BUCKETS];
+        byte[] rms = new byte[Waveform.BUCKETS];
+        for (int i = 0; i < Waveform.BUCKETS; i++) {
+            peaks[i] = (byte) (seed * 31 + i);
+            rms[i] = (byte) (seed * 17 - i);
+        }
+        return new Waveform(peaks, rms);
+    }
+
+    private static void assertSameWaveform(Waveform expected, Waveform actual) {
+        assertNotNull(actual);
+        assertArrayEquals(expected.peakBytes(), actual.peakBytes());
+        assertArrayEquals(expected.rmsBytes(), actual.rmsBytes());
+    }
+}
@@ -0,0 +1,94 @@
+package com.marabytes.musicplayernew.waveform;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class WaveformSummarizerTest {
+    private static final int SAMPLE_RATE = 44_100;
+
+    @Test
+    public void squareWaveHasEqualPeakAndRms() {
+        WaveformSummarizer summarizer = new WaveformSummarizer(2);
+        short[] pcm = new short[SAMPLE_RATE * 2];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (i / 2) % 100 < 50 ? (short) 16384 : (short) -16384;
+        }
+        summarizer.add(pcm, 0, pcm.length);
+        Waveform waveform = summarizer.finish();
+
+        for (int bucket = 0; bucket < Waveform.BUCKETS; bucket++) {
+            assertEquals(0.5f, waveform.getPeak(bucket), 0.01f);
+            assertEquals(0.5f, waveform.getRms(bucket), 0.01f);
+        }
+    }
+
+    @Test
+    public void sineRmsIsPeakOverRootTwo() {
+        WaveformSummarizer summarizer = new WaveformSummarizer(1);
+        summarizer.add(sine(10 * SAMPLE_RATE, 440, 0.8), 0, 10 * SAMPLE_RATE);
+        Waveform waveform = summarizer.finish();
+
+        assertEquals(0.8f, waveform.getPeak(40), 0.01f);
+        assertEquals(0.8f / Math.sqrt(2), waveform.getRms(40), 0.01f);
+    }
+
+    @Test
+    public void loudSecondHalfShowsInSecondHalfOfBuckets() {
+        WaveformSummarizer summarizer = new WaveformSummarizer(1);
+        short[] quiet = sine(5 * SAMPLE_RATE, 220, 0.1);
+        short[] loud = sine(5 * SAMPLE_RATE, 220, 0.9);
+        // Odd chunk sizes, like codec output buffers
+        feedInChunks(summarizer, quiet, 1153);
+        feedInChunks(summarizer, loud, 4608);
+        Waveform waveform = summarizer.finish();
+
+        assertEquals(10L * SAMPLE_RATE, summarizer.getFrameCount());
+        assertEquals(0.1f, waveform.getPeak(10), 0.01f);
+        assertEquals(0.1f, waveform.getPeak(Waveform.BUCKETS / 2 - 2), 0.01f);
+        assertEquals(0.9f, waveform.getPeak(Waveform.BUCKETS / 2 + 2), 0.01f);
+        assertEquals(0.9f, waveform.getPeak(Waveform.BUCKETS - 1), 0.01f);
+    }
+
+    @Test
+    public void framesSplitAcrossCallsStayTogether() {
+        WaveformSummarizer summarizer = new WaveformSummarizer(2);
+        ShortBuffer left = ShortBuffer.wrap(new short[]{32767});
+        ShortBuffer rest = ShortBuffer.wrap(new short[]{0, 0, 0});
+        summarizer.add(left);
+        summarizer.add(rest);
+
+        assertEquals(0, left.remaining());
+        assertEquals(2, summarizer.getFrameCount());
+    }
+
+    @Test
+    public void shortAndEmptyInputFillEveryBucket() {
+        WaveformSummarizer tiny = new WaveformSummarizer(1);
+        tiny.add(sine(100, 440, 0.5), 0, 100);
+        Waveform tinyWaveform = tiny.finish();
+        for (int bucket = 0; bucket < Waveform.BUCKETS; bucket++) {
+            assertEquals(tinyWaveform.getPeak(0), tinyWaveform.getPeak(bucket), 0f);
+        }
+
+        Waveform silent = new WaveformSummarizer(2).finish();
+        assertEquals(0f, silent.getPeak(0), 0f);
+        assertEquals(0f, silent.getRms(Waveform.BUCKETS - 1), 0f);
+    }
+
+    private static void feedInChunks(WaveformSummarizer summarizer, short[] pcm, int chunk) {
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            summarizer.add(pcm, offset, Math.min(chunk, pcm.length - offset));
+        }
+    }
+
+    private static short[] sine(int frames, double frequency, double amplitude) {
+        short[] pcm = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            pcm[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return pcm;
+    }
+}
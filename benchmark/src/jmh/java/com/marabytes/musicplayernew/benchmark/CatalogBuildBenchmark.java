@@ -0,0 +1,72 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.LibraryIndex;
+import com.marabytes.musicplayernew.library.SongCatalog;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading cursor rows into the catalog in scanner-sized pages, against
+ * collecting them into a plain list as the app used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogBuildBenchmark {
+    private static final int PAGE_SIZE = 250;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private SyntheticLibrary.Rows rows;
+
+    @Setup
+    public void setUp() {
+        rows = SyntheticLibrary.rows(size);
+    }
+
+    @Benchmark
+    public LibraryIndex buildLibraryIndex() {
+        LibraryIndex index = new LibraryIndex();
+        List<Song> page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < rows.size(); i++) {
+            page.add(rows.read(i));
+            if (page.size() == PAGE_SIZE) {
+                index.addSongs(page);
+                page.clear();
+            }
+        }
+        index.addSongs(page);
+        return index;
+    }
+
+    @Benchmark
+    public SongCatalog buildCatalog() {
+        SongCatalog catalog = new SongCatalog();
+        for (int i = 0; i < rows.size(); i++) {
+            catalog.add(rows.read(i));
+        }
+        return catalog;
+    }
+
+    @Benchmark
+    public List<Song> buildSongList() {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            songs.add(rows.read(i));
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,52 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.SongCatalog;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.util.List;
+
+/**
+ * Heap taken by a synthetic library held as a List of Song objects versus a
+ * SongCatalog. JMH measures time rather than what stays on the heap, so this
+ * is a plain program:  ./gradlew :benchmark:catalogFootprint  (size as an
+ * argument with --args=10000, 100k tracks otherwise).
+ */
+public final class CatalogFootprint {
+    private CatalogFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        long baseline = usedHeap();
+        List<Song> list = SyntheticLibrary.songs(size);
+        long listBytes = usedHeap() - baseline;
+
+        baseline = usedHeap();
+        SongCatalog catalog = buildCatalog(size);
+        long catalogBytes = usedHeap() - baseline;
+
+        System.out.printf("%d tracks: List<Song> %d KB, SongCatalog %d KB (%.0f%%)%n", size,
+                listBytes / 1024, catalogBytes / 1024, 100.0 * catalogBytes / listBytes);
+        // Keeps both reachable until both have been measured
+        if (list.size() != catalog.size()) {
+            throw new AssertionError();
+        }
+    }
+
+    // In its own method so the source list is garbage by the time we measure
+    private static SongCatalog buildCatalog(int size) {
+        SongCatalog catalog = new SongCatalog();
+        catalog.addAll(SyntheticLibrary.songs(size));
+        return catalog;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        // A single gc() is only a hint, a few in a row reliably settle the heap
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,92 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.SongCatalog;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The item comparisons behind a song list update. DiffUtil itself ships in an
+ * Android library, so this runs the pass it spends nearly all of its time in
+ * for a library sync (old and new list mostly equal): walk both lists and
+ * apply SongAdapter's same-item and same-contents checks, over plain lists
+ * and over catalog snapshots, where every get() builds a Song.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<Song> oldList;
+    private List<Song> newList;
+    private List<Song> oldSnapshot;
+    private List<Song> newSnapshot;
+
+    @Setup
+    public void setUp() {
+        oldList = SyntheticLibrary.songs(size);
+        // A sync that retitled a few songs and added a handful at the end
+        newList = new ArrayList<>(oldList);
+        for (int i = 0; i < size; i += Math.max(1, size / 10)) {
+            Song song = newList.get(i);
+            newList.set(i, new Song(song.getId(), song.getTitle() + " (Live)", song.getArtist(),
+                    song.getPath(), song.getDuration(), song.getAlbumId()));
+        }
+        newList.addAll(SyntheticLibrary.songs(size + 5).subList(size, size + 5));
+
+        SongCatalog catalog = new SongCatalog();
+        catalog.addAll(oldList);
+        oldSnapshot = catalog.snapshot();
+        for (int i = 0; i < size; i++) {
+            if (!oldList.get(i).equals(newList.get(i))) {
+                catalog.set(i, newList.get(i));
+            }
+        }
+        catalog.addAll(newList.subList(size, newList.size()));
+        newSnapshot = catalog.snapshot();
+    }
+
+    @Benchmark
+    public int compareLists() {
+        return changedRows(oldList, newList);
+    }
+
+    @Benchmark
+    public int compareSnapshots() {
+        return changedRows(oldSnapshot, newSnapshot);
+    }
+
+    private static int changedRows(List<Song> before, List<Song> after) {
+        int changed = 0;
+        int common = Math.min(before.size(), after.size());
+        for (int i = 0; i < common; i++) {
+            Song oldSong = before.get(i);
+            Song newSong = after.get(i);
+            if (!sameItem(oldSong, newSong) || !oldSong.equals(newSong)) {
+                changed++;
+            }
+        }
+        return changed + Math.abs(before.size() - after.size());
+    }
+
+    // Mirrors SongAdapter's DIFF_CALLBACK.areItemsTheSame
+    private static boolean sameItem(Song oldSong, Song newSong) {
+        if (oldSong.getId() != Song.NO_ID || newSong.getId() != Song.NO_ID) {
+            return oldSong.getId() == newSong.getId();
+        }
+        return oldSong.getPath().equals(newSong.getPath());
+    }
+}
@@ -0,0 +1,72 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.LibraryIndex;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups done when a song starts or the library changes: position and
+ * song by path, song by MediaStore id. Keys are spread over the whole library
+ * and include misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+    private static final int KEYS = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private LibraryIndex index;
+    private String[] paths;
+    private long[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Song> songs = SyntheticLibrary.songs(size);
+        index = new LibraryIndex();
+        index.setSongs(songs);
+
+        Random random = new Random(1);
+        paths = new String[KEYS];
+        ids = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            Song song = songs.get(random.nextInt(size));
+            // One in eight lookups misses, like a path from a stale notification
+            paths[i] = i % 8 == 0 ? song.getPath() + ".missing" : new String(song.getPath());
+            ids[i] = i % 8 == 0 ? size + i + 1 : song.getId();
+        }
+    }
+
+    @Benchmark
+    public int positionOfPath() {
+        next = (next + 1) & (KEYS - 1);
+        return index.positionOf(paths[next]);
+    }
+
+    @Benchmark
+    public Song findByPath() {
+        next = (next + 1) & (KEYS - 1);
+        return index.findByPath(paths[next]);
+    }
+
+    @Benchmark
+    public Song findById() {
+        next = (next + 1) & (KEYS - 1);
+        return index.findById(ids[next]);
+    }
+}
@@ -0,0 +1,86 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.SongCatalog;
+import com.marabytes.musicplayernew.model.Song;
+import com.marabytes.musicplayernew.playback.PlaybackQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starting playback from a tapped row (with and without shuffle) and the
+ * per-track navigation that follows, on a queue backed by a catalog snapshot
+ * like the main song list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueueBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<Song> snapshot;
+    private PlaybackQueue queue;
+    private PlaybackQueue shuffledQueue;
+    private Song extra;
+
+    @Setup
+    public void setUp() {
+        SongCatalog catalog = new SongCatalog();
+        catalog.addAll(SyntheticLibrary.songs(size));
+        snapshot = catalog.snapshot();
+        extra = new Song(Long.MAX_VALUE, "Extra", "Someone", "/storage/extra.mp3", 1000, 1);
+
+        queue = new PlaybackQueue(new Random(1));
+        queue.setRepeatMode(PlaybackQueue.RepeatMode.ALL);
+        queue.setQueue(snapshot, size / 2);
+        shuffledQueue = new PlaybackQueue(new Random(1));
+        shuffledQueue.setRepeatMode(PlaybackQueue.RepeatMode.ALL);
+        shuffledQueue.setShuffleEnabled(true);
+        shuffledQueue.setQueue(snapshot, size / 2);
+    }
+
+    @Benchmark
+    public Song startQueue() {
+        PlaybackQueue fresh = new PlaybackQueue(new Random(1));
+        fresh.setQueue(snapshot, size / 2);
+        return fresh.getCurrent();
+    }
+
+    @Benchmark
+    public Song startShuffledQueue() {
+        PlaybackQueue fresh = new PlaybackQueue(new Random(1));
+        fresh.setShuffleEnabled(true);
+        fresh.setQueue(snapshot, size / 2);
+        return fresh.getCurrent();
+    }
+
+    // What one finished track costs: advance, then look ahead for gapless preparation
+    @Benchmark
+    public Song skipAndPeek() {
+        queue.moveToNext(false);
+        return queue.peekNext();
+    }
+
+    @Benchmark
+    public Song shuffledSkipAndPeek() {
+        shuffledQueue.moveToNext(false);
+        return shuffledQueue.peekNext();
+    }
+
+    @Benchmark
+    public Song insertNextAndPlay() {
+        queue.insertNext(extra);
+        return queue.moveToNext(true);
+    }
+}
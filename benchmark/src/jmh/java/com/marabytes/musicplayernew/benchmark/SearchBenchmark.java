@@ -0,0 +1,67 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.SearchIndex;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search as typed on the home screen: every prefix of a few queries, one
+ * keystroke per invocation (one query is accented, to include folding), plus
+ * building the index from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    // Same cap as the home screen
+    private static final int RESULT_LIMIT = 500;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<Song> songs;
+    private SearchIndex index;
+    private String[] keystrokes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        songs = SyntheticLibrary.songs(size);
+        index = new SearchIndex();
+        index.setCatalog(SyntheticLibrary.albums(size), songs);
+
+        List<String> typed = new ArrayList<>();
+        for (String query : new String[]{"moon light", "artist 12", "cafe", "café road", "album 7 dream", "sonata 99"}) {
+            for (int i = 1; i <= query.length(); i++) {
+                typed.add(query.substring(0, i));
+            }
+        }
+        keystrokes = typed.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public List<Song> keystroke() {
+        next = (next + 1) % keystrokes.length;
+        return index.search(keystrokes[next], RESULT_LIMIT);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SearchIndex buildIndex() {
+        SearchIndex fresh = new SearchIndex();
+        fresh.setCatalog(SyntheticLibrary.albums(size), songs);
+        return fresh;
+    }
+}
@@ -0,0 +1,53 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.library.LibrarySnapshot;
+import com.marabytes.musicplayernew.model.Song;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a cold start costs before the first rows can be shown: opening the
+ * library snapshot and reading the scanner's first page of songs. The file
+ * stays in the page cache between invocations, as it mostly does on a phone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+    // The scanner's first page
+    private static final int FIRST_PAGE = 30;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("library", ".snapshot");
+        LibrarySnapshot.write(file, SyntheticLibrary.songs(size), SyntheticLibrary.albums(size));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<Song> openAndReadFirstPage() throws IOException {
+        return LibrarySnapshot.open(file).getSongs(0, FIRST_PAGE);
+    }
+}
@@ -0,0 +1,83 @@
+package com.marabytes.musicplayernew.benchmark;
+
+import com.marabytes.musicplayernew.model.Album;
+import com.marabytes.musicplayernew.model.Song;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic fake libraries shaped like a real one: twelve tracks per
+ * album, four albums per artist, one folder per album. Every string is built
+ * per row, the way a Cursor hands them out.
+ */
+final class SyntheticLibrary {
+    private static final String[] WORDS = {"Moon", "Light", "Blue", "Night", "Love", "Summer", "Rain",
+            "Fire", "Heart", "Dream", "River", "Café", "Road", "Home", "Dance", "Sonata"};
+
+    private SyntheticLibrary() {
+    }
+
+    // Column arrays standing in for a MediaStore cursor over the audio table
+    static final class Rows {
+        final long[] ids;
+        final String[] titles;
+        final String[] artists;
+        final String[] paths;
+        final long[] durations;
+        final long[] albumIds;
+
+        Rows(int count) {
+            ids = new long[count];
+            titles = new String[count];
+            artists = new String[count];
+            paths = new String[count];
+            durations = new long[count];
+            albumIds = new long[count];
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        // Like Cursor.getString(), a fresh String per call
+        Song read(int row) {
+            return new Song(ids[row], new String(titles[row]), new String(artists[row]),
+                    new String(paths[row]), durations[row], albumIds[row]);
+        }
+    }
+
+    static Rows rows(int count) {
+        Rows rows = new Rows(count);
+        for (int i = 0; i < count; i++) {
+            int album = i / 12;
+            String artist = "Artist " + (album / 4);
+            String title = WORDS[i % WORDS.length] + " " + WORDS[(i / 7) % WORDS.length] + " " + i;
+            rows.ids[i] = i + 1;
+            rows.titles[i] = title;
+            rows.artists[i] = artist;
+            rows.paths[i] = "/storage/emulated/0/Music/" + artist + "/Album " + album + "/"
+                    + (i % 12 + 1) + " " + title + ".mp3";
+            rows.durations[i] = 180_000 + i;
+            rows.albumIds[i] = album;
+        }
+        return rows;
+    }
+
+    static List<Song> songs(int count) {
+        Rows rows = rows(count);
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(rows.read(i));
+        }
+        return songs;
+    }
+
+    static List<Album> albums(int songCount) {
+        List<Album> albums = new ArrayList<>();
+        for (int album = 0; album * 12 < songCount; album++) {
+            albums.add(new Album("Album " + album, "Artist " + (album / 4), null, String.valueOf(album)));
+        }
+        return albums;
+    }
+}
@@ -0,0 +1,88 @@
+package com.marabytes.musicplayernew.tags;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the tags (and the cover) of a song the size of a real one: a few
+ * MB of audio and a 200 KB cover. Lives in the tags package for the tests'
+ * package-private sample file builder. MediaMetadataRetriever needs a
+ * device, so it isn't timed here; TagReaderVsRetrieverTest in androidTest
+ * checks that both read the same cover.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TagReaderBenchmark {
+    private static final int COVER_BYTES = 200 * 1024;
+    private static final int AUDIO_BYTES = 8 * 1024 * 1024;
+
+    @Param({"mp3", "flac", "m4a"})
+    public String format;
+
+    private File directory;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tags").toFile();
+        byte[] cover = SampleFiles.picture(COVER_BYTES);
+        byte[] content;
+        switch (format) {
+            case "flac":
+                content = SampleFiles.flac(44_100, 2, 44_100L * 240, new String[]{
+                        "TITLE=Benchmark", "ARTIST=Someone", "ALBUM=Numbers", "TRACKNUMBER=1"}, cover, AUDIO_BYTES);
+                break;
+            case "m4a":
+                content = SampleFiles.m4a(44_100, 2, 44_100L * 240, AUDIO_BYTES, false,
+                        SampleFiles.item("©nam", 1, "Benchmark".getBytes("UTF-8")),
+                        SampleFiles.item("©ART", 1, "Someone".getBytes("UTF-8")),
+                        SampleFiles.item("covr", 13, cover));
+                break;
+            default:
+                content = SampleFiles.concat(
+                        SampleFiles.id3v2(3, false,
+                                SampleFiles.frame(3, "TIT2", SampleFiles.text(1, "Benchmark")),
+                                SampleFiles.frame(3, "TPE1", SampleFiles.text(1, "Someone")),
+                                SampleFiles.frame(3, "APIC", SampleFiles.apic(0, "image/jpeg", 3, "", cover))),
+                        SampleFiles.mpegFrames(AUDIO_BYTES / SampleFiles.MPEG_FRAME_LENGTH));
+                break;
+        }
+        file = SampleFiles.write(new File(directory, "song." + format), content);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public AudioTags readTags() throws IOException {
+        return TagReader.read(file);
+    }
+
+    // What the artwork loader does for a song row
+    @Benchmark
+    public byte[] readTagsAndPicture() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            AudioTags tags = TagReader.read(channel);
+            return TagReader.readPicture(channel, tags.getPicture());
+        }
+    }
+}